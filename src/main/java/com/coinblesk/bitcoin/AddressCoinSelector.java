@@ -1,5 +1,6 @@
 package com.coinblesk.bitcoin;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -61,6 +62,78 @@ public class AddressCoinSelector implements CoinSelector {
 		return selection;
 	}
 	
+	/**
+	 * Same as {@link #select(Coin, List)} for the unspent entries of the set: selects all unspent 
+	 * outputs paid to the address and updates the balances of all addresses. The balances are 
+	 * summed up in place, an {@link Address} is only created per distinct address.
+	 * 
+	 * @return the indices of the selected entries, e.g. for 
+	 * {@link com.coinblesk.util.BitcoinUtils#createTx(NetworkParameters, UtxoSet, int[], Address, Address, long, boolean)}
+	 */
+	public int[] select(Coin target, UtxoSet utxos) {
+		int[] selected = new int[utxos.nrUnspent()];
+		int count = 0;
+		
+		// open addressing table of distinct addresses: an entry index + 1 and the balance
+		int[] addresses = new int[16];
+		long[] balances = new long[addresses.length];
+		int nrAddresses = 0;
+		
+		for (int i = 0; i < utxos.size(); i++) {
+			if (!utxos.isSpent(i)) {
+				int slot = slot(utxos, addresses, i);
+				if (addresses[slot] == 0) {
+					addresses[slot] = i + 1;
+					if (++nrAddresses * 2 > addresses.length) {
+						final int[] oldAddresses = addresses;
+						final long[] oldBalances = balances;
+						addresses = new int[oldAddresses.length * 2];
+						balances = new long[addresses.length];
+						for (int k = 0; k < oldAddresses.length; k++) {
+							if (oldAddresses[k] != 0) {
+								final int newSlot = slot(utxos, addresses, oldAddresses[k] - 1);
+								addresses[newSlot] = oldAddresses[k];
+								balances[newSlot] = oldBalances[k];
+							}
+						}
+						slot = slot(utxos, addresses, i);
+					}
+				}
+				balances[slot] += utxos.value(i);
+				
+				if (address == null || utxos.paysTo(i, address)) {
+					selected[count++] = i;
+				}
+			}
+		}
+		
+		for (int slot = 0; slot < addresses.length; slot++) {
+			if (addresses[slot] != 0) {
+				final int i = addresses[slot] - 1;
+				final Address paidTo = utxos.isP2SH(i) 
+						? Address.fromP2SHHash(params, utxos.addressHash(i)) 
+						: new Address(params, utxos.addressHash(i));
+				Coin currentBalance = balanceByAddress.get(paidTo);
+				if (currentBalance == null) {
+					currentBalance = Coin.ZERO;
+				}
+				balanceByAddress.put(paidTo, currentBalance.add(Coin.valueOf(balances[slot])));
+			}
+		}
+		
+		return Arrays.copyOf(selected, count);
+	}
+	
+	// the slot of the address of entry i, either empty or holding an entry with the same address
+	private static int slot(UtxoSet utxos, int[] addresses, int i) {
+		final int mask = addresses.length - 1;
+		int slot = utxos.addressHashCode(i) & mask;
+		while (addresses[slot] != 0 && !utxos.sameAddress(addresses[slot] - 1, i)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+	
 	public Map<Address, Coin> getAddressBalances() {
 		return balanceByAddress;
 	}
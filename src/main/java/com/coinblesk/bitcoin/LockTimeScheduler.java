@@ -0,0 +1,238 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.bitcoin;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.bitcoinj.core.Transaction;
+
+import com.coinblesk.util.BitcoinUtils;
+
+/**
+ * Keeps track of the lock times of many {@link TimeLockedAddress}es and tells which of them 
+ * became spendable after the lock time, e.g. to start refund or sweep jobs, without checking 
+ * every address on every block.
+ * 
+ * The addresses are put into buckets of lock times, one wheel for block heights and one for 
+ * unix times. Advancing to the current height or time takes the expired buckets off the wheel, 
+ * so that the cost is in the number of expired addresses and buckets, not in the number of 
+ * scheduled addresses. An address is returned once, as soon as 
+ * {@link BitcoinUtils#isAfterLockTime(long, long)} holds. Advancing with an earlier height or 
+ * time than before returns nothing.
+ * 
+ * The scheduler is thread safe.
+ */
+public class LockTimeScheduler {
+	
+	public static final long DEFAULT_HEIGHT_BUCKET = 1;
+	// about one block
+	public static final long DEFAULT_TIME_BUCKET = 600;
+	
+	private final Wheel heightWheel;
+	private final Wheel timeWheel;
+	private final Set<TimeLockedAddress> scheduled = new HashSet<>();
+	
+	public LockTimeScheduler() {
+		this(DEFAULT_HEIGHT_BUCKET, DEFAULT_TIME_BUCKET);
+	}
+	
+	/**
+	 * @param heightBucket number of blocks per bucket
+	 * @param timeBucket number of seconds per bucket
+	 */
+	public LockTimeScheduler(long heightBucket, long timeBucket) {
+		this.heightWheel = new Wheel(heightBucket);
+		this.timeWheel = new Wheel(timeBucket);
+	}
+	
+	/**
+	 * Schedules the address. An address whose lock time already expired is returned by the next 
+	 * advance.
+	 * 
+	 * @return false if the address is already scheduled
+	 */
+	public synchronized boolean add(TimeLockedAddress address) {
+		if (!scheduled.add(address)) {
+			return false;
+		}
+		wheel(address.getLockTime()).add(address);
+		return true;
+	}
+	
+	public synchronized boolean remove(TimeLockedAddress address) {
+		if (!scheduled.remove(address)) {
+			return false;
+		}
+		return wheel(address.getLockTime()).remove(address);
+	}
+	
+	public synchronized boolean contains(TimeLockedAddress address) {
+		return scheduled.contains(address);
+	}
+	
+	public synchronized int size() {
+		return scheduled.size();
+	}
+	
+	/**
+	 * @param currentHeight height of the best block
+	 * @param currentSeconds current unix time, e.g. the median time past of the best block
+	 * @return the addresses with a lock time by height or by time that expired, each address once
+	 */
+	public synchronized List<TimeLockedAddress> advance(long currentHeight, long currentSeconds) {
+		final List<TimeLockedAddress> expired = new ArrayList<>();
+		advanceHeight(currentHeight, expired);
+		advanceTime(currentSeconds, expired);
+		return expired;
+	}
+	
+	/**
+	 * @return the addresses with a lock time by height that expired, each address once
+	 */
+	public synchronized List<TimeLockedAddress> advanceHeight(long currentHeight) {
+		final List<TimeLockedAddress> expired = new ArrayList<>();
+		advanceHeight(currentHeight, expired);
+		return expired;
+	}
+	
+	/**
+	 * @return the addresses with a lock time by time that expired, each address once
+	 */
+	public synchronized List<TimeLockedAddress> advanceTime(long currentSeconds) {
+		final List<TimeLockedAddress> expired = new ArrayList<>();
+		advanceTime(currentSeconds, expired);
+		return expired;
+	}
+	
+	/**
+	 * @return the earliest lock time by height that is scheduled, or -1
+	 */
+	public synchronized long nextHeight() {
+		return heightWheel.next();
+	}
+	
+	/**
+	 * @return the earliest lock time by time that is scheduled, or -1
+	 */
+	public synchronized long nextTime() {
+		return timeWheel.next();
+	}
+	
+	private void advanceHeight(long currentHeight, List<TimeLockedAddress> expired) {
+		if (currentHeight < 0 || !BitcoinUtils.isLockTimeByBlock(currentHeight)) {
+			throw new IllegalArgumentException(String.format("Not a block height: %d", currentHeight));
+		}
+		collect(heightWheel, currentHeight, expired);
+	}
+	
+	private void advanceTime(long currentSeconds, List<TimeLockedAddress> expired) {
+		if (!BitcoinUtils.isLockTimeByTime(currentSeconds)) {
+			throw new IllegalArgumentException(String.format("Not a unix time: %d", currentSeconds));
+		}
+		collect(timeWheel, currentSeconds, expired);
+	}
+	
+	private void collect(Wheel wheel, long current, List<TimeLockedAddress> expired) {
+		final int from = expired.size();
+		wheel.advance(current, expired);
+		for (int i = from; i < expired.size(); i++) {
+			scheduled.remove(expired.get(i));
+		}
+	}
+	
+	private Wheel wheel(long lockTime) {
+		return lockTime < Transaction.LOCKTIME_THRESHOLD ? heightWheel : timeWheel;
+	}
+	
+	/* buckets of addresses by lock time / width, in the order of the lock times */
+	private static class Wheel {
+		private final long width;
+		private final TreeMap<Long, List<TimeLockedAddress>> buckets = new TreeMap<>();
+		
+		private Wheel(long width) {
+			if (width <= 0) {
+				throw new IllegalArgumentException("bucket width must be positive: " + width);
+			}
+			this.width = width;
+		}
+		
+		private void add(TimeLockedAddress address) {
+			final Long slot = address.getLockTime() / width;
+			List<TimeLockedAddress> bucket = buckets.get(slot);
+			if (bucket == null) {
+				bucket = new ArrayList<>();
+				buckets.put(slot, bucket);
+			}
+			bucket.add(address);
+		}
+		
+		private boolean remove(TimeLockedAddress address) {
+			final Long slot = address.getLockTime() / width;
+			final List<TimeLockedAddress> bucket = buckets.get(slot);
+			if (bucket == null || !bucket.remove(address)) {
+				return false;
+			}
+			if (bucket.isEmpty()) {
+				buckets.remove(slot);
+			}
+			return true;
+		}
+		
+		private void advance(long current, List<TimeLockedAddress> expired) {
+			final long currentSlot = current / width;
+			Map.Entry<Long, List<TimeLockedAddress>> first;
+			// all buckets before the current one expired as a whole
+			while ((first = buckets.firstEntry()) != null && first.getKey() < currentSlot) {
+				expired.addAll(first.getValue());
+				buckets.pollFirstEntry();
+			}
+			// the current bucket only in part
+			final List<TimeLockedAddress> bucket = buckets.get(currentSlot);
+			if (bucket != null) {
+				int kept = 0;
+				for (int i = 0; i < bucket.size(); i++) {
+					final TimeLockedAddress address = bucket.get(i);
+					if (BitcoinUtils.isAfterLockTime(current, address.getLockTime())) {
+						expired.add(address);
+					} else {
+						bucket.set(kept++, address);
+					}
+				}
+				bucket.subList(kept, bucket.size()).clear();
+				if (bucket.isEmpty()) {
+					buckets.remove(currentSlot);
+				}
+			}
+		}
+		
+		private long next() {
+			final Map.Entry<Long, List<TimeLockedAddress>> first = buckets.firstEntry();
+			if (first == null) {
+				return -1;
+			}
+			long min = Long.MAX_VALUE;
+			for (TimeLockedAddress address : first.getValue()) {
+				min = Math.min(min, address.getLockTime());
+			}
+			return min;
+		}
+	}
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.bitcoin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.zip.CRC32;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+
+import com.coinblesk.util.OutPointValue;
+import com.coinblesk.util.PackedOutPoints;
+
+/**
+ * A binary snapshot of {@link TimeLockedAddress}es and unspent outpoints with their values, so
+ * that a restart does not need to load them through bitcoinj objects. A snapshot is mapped into
+ * memory and the records are read in place, objects are only created on request.
+ *
+ * The file has a header of {@link #HEADER_LENGTH} bytes, followed by the address records and the
+ * outpoint records, all with fixed size and little endian numbers:
+ *
+ * header:   magic "CBSN", version, number of addresses, number of outpoints, CRC32 of the
+ *           addresses, CRC32 of the outpoints, 0, CRC32 of the header before it (4 bytes each)
+ * address:  client pubkey (33), server pubkey (33), lock time (8)
+ * outpoint: transaction hash in wire order (32), index (4), value (8), as in
+ *           {@link PackedOutPoints}
+ *
+ * Only compressed public keys fit into a record. A snapshot is read only and thread safe.
+ */
+public final class Snapshot {
+
+	public static final int VERSION = 1;
+	public static final int HEADER_LENGTH = 32;
+	public static final int PUBKEY_LENGTH = 33;
+	public static final int ADDRESS_LENGTH = PUBKEY_LENGTH + PUBKEY_LENGTH + 8;
+	public static final int OUTPOINT_LENGTH = PackedOutPoints.ENTRY_LENGTH;
+
+	// "CBSN" read as little endian int
+	private static final int MAGIC = 'C' | 'B' << 8 | 'S' << 16 | 'N' << 24;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final ByteBuffer buffer;
+	private final int nrAddresses;
+	private final int nrOutPoints;
+	private final int addressesChecksum;
+	private final int outPointsChecksum;
+	private final int outPointsOffset;
+
+	private Snapshot(ByteBuffer buffer, int nrAddresses, int nrOutPoints, int addressesChecksum,
+			int outPointsChecksum) {
+		this.buffer = buffer;
+		this.nrAddresses = nrAddresses;
+		this.nrOutPoints = nrOutPoints;
+		this.addressesChecksum = addressesChecksum;
+		this.outPointsChecksum = outPointsChecksum;
+		this.outPointsOffset = HEADER_LENGTH + nrAddresses * ADDRESS_LENGTH;
+	}
+
+	/**
+	 * Writes a snapshot. It is written and forced to a temporary file next to the file first,
+	 * which then atomically replaces the file. After a crash, the file is either the old or the
+	 * new snapshot, never a partial one, and a stale temporary file may be left behind. The
+	 * directory is forced after the rename where the platform allows it, e.g. on Linux. Where it
+	 * does not, e.g. on Windows, the old snapshot may be back after a power loss.
+	 *
+	 * @throws IllegalArgumentException if a public key is not compressed
+	 */
+	public static void write(File file, Collection<TimeLockedAddress> addresses, Collection<OutPointValue> outPoints)
+			throws IOException {
+		write(file, addresses, PackedOutPoints.packValues(outPoints));
+	}
+
+	public static void write(File file, Collection<TimeLockedAddress> addresses, PackedOutPoints outPoints)
+			throws IOException {
+		final File tmp = new File(file.getPath() + ".tmp");
+		final RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		boolean written = false;
+		try {
+			raf.setLength(0);
+			final FileChannel channel = raf.getChannel();
+			channel.position(HEADER_LENGTH);
+
+			final ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			final CRC32 crc = new CRC32();
+			for (TimeLockedAddress address : addresses) {
+				if (out.remaining() < ADDRESS_LENGTH) {
+					flush(channel, out, crc);
+				}
+				putPubKey(out, address.getClientPubKey());
+				putPubKey(out, address.getServerPubKey());
+				out.putLong(address.getLockTime());
+			}
+			flush(channel, out, crc);
+			final int addressesChecksum = (int) crc.getValue();
+
+			crc.reset();
+			final byte[] data = outPoints.data();
+			crc.update(data, 0, data.length);
+			writeFully(channel, ByteBuffer.wrap(data));
+			final int outPointsChecksum = (int) crc.getValue();
+
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(addresses.size()).putInt(outPoints.size())
+					.putInt(addressesChecksum).putInt(outPointsChecksum).putInt(0);
+			crc.reset();
+			crc.update(header.array(), 0, HEADER_LENGTH - 4);
+			header.putInt((int) crc.getValue());
+			header.flip();
+			channel.position(0);
+			writeFully(channel, header);
+			channel.force(true);
+			written = true;
+		} finally {
+			raf.close();
+			if (!written) {
+				tmp.delete();
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		forceDirectory(file.getAbsoluteFile().getParentFile());
+	}
+
+	// makes the rename durable, not all platforms can open a directory
+	private static void forceDirectory(File directory) {
+		try {
+			final FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+			try {
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+		} catch (IOException e) {
+			// best effort
+		}
+	}
+
+	/**
+	 * Maps the snapshot and verifies its checksums.
+	 *
+	 * @throws IOException if the file cannot be read, or is not a valid snapshot
+	 */
+	public static Snapshot open(File file) throws IOException {
+		return open(file, true);
+	}
+
+	/**
+	 * Maps the snapshot. Without verification, only the header is checked and the records are
+	 * read from disk on first access, see {@link #verify()}.
+	 *
+	 * @throws IOException if the file cannot be read, or is not a valid snapshot
+	 */
+	public static Snapshot open(File file, boolean verify) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		final MappedByteBuffer mapped;
+		try {
+			final long length = raf.length();
+			if (length < HEADER_LENGTH || length > Integer.MAX_VALUE) {
+				throw new IOException("Not a snapshot, length " + length + ": " + file);
+			}
+			// the mapping stays valid after the file is closed
+			mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+		} finally {
+			raf.close();
+		}
+		final ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+		final byte[] header = new byte[HEADER_LENGTH];
+		buffer.get(header);
+		final CRC32 crc = new CRC32();
+		crc.update(header, 0, HEADER_LENGTH - 4);
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(HEADER_LENGTH - 4) != (int) crc.getValue()) {
+			throw new IOException("Not a snapshot or header corrupt: " + file);
+		}
+		final int version = buffer.getInt(4);
+		if (version != VERSION) {
+			throw new IOException("Snapshot version " + version + " not supported: " + file);
+		}
+		final int nrAddresses = buffer.getInt(8);
+		final int nrOutPoints = buffer.getInt(12);
+		final long expectedLength = HEADER_LENGTH + (long) nrAddresses * ADDRESS_LENGTH
+				+ (long) nrOutPoints * OUTPOINT_LENGTH;
+		if (nrAddresses < 0 || nrOutPoints < 0 || expectedLength != buffer.capacity()) {
+			throw new IOException("Snapshot length " + buffer.capacity() + " does not match header: " + file);
+		}
+
+		final Snapshot snapshot = new Snapshot(buffer, nrAddresses, nrOutPoints, buffer.getInt(16),
+				buffer.getInt(20));
+		if (verify) {
+			snapshot.verify();
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Verifies the checksums of the records, which reads the whole file.
+	 *
+	 * @throws IOException if a checksum does not match
+	 */
+	public void verify() throws IOException {
+		if (checksum(HEADER_LENGTH, nrAddresses * ADDRESS_LENGTH) != addressesChecksum) {
+			throw new IOException("Snapshot addresses corrupt");
+		}
+		if (checksum(outPointsOffset, nrOutPoints * OUTPOINT_LENGTH) != outPointsChecksum) {
+			throw new IOException("Snapshot outpoints corrupt");
+		}
+	}
+
+	public int nrAddresses() {
+		return nrAddresses;
+	}
+
+	public int nrOutPoints() {
+		return nrOutPoints;
+	}
+
+	public byte[] clientPubKey(int i) {
+		return bytes(addressOffset(i), PUBKEY_LENGTH);
+	}
+
+	public byte[] serverPubKey(int i) {
+		return bytes(addressOffset(i) + PUBKEY_LENGTH, PUBKEY_LENGTH);
+	}
+
+	public long lockTime(int i) {
+		return buffer.getLong(addressOffset(i) + 2 * PUBKEY_LENGTH);
+	}
+
+	/**
+	 * @return a new address of the record, which computes its address hash
+	 */
+	public TimeLockedAddress address(int i) {
+		return new TimeLockedAddress(clientPubKey(i), serverPubKey(i), lockTime(i));
+	}
+
+	/**
+	 * Schedules all addresses of the snapshot, e.g. to start the refunds after a restart.
+	 */
+	public void scheduleAll(LockTimeScheduler scheduler) {
+		for (int i = 0; i < nrAddresses; i++) {
+			scheduler.add(address(i));
+		}
+	}
+
+	/**
+	 * @return the transaction hash of the outpoint, reversed as it is displayed
+	 */
+	public Sha256Hash hash(int i) {
+		final int offset = outPointOffset(i);
+		final byte[] hash = new byte[32];
+		for (int j = 0; j < 32; j++) {
+			hash[j] = buffer.get(offset + 31 - j);
+		}
+		return Sha256Hash.wrap(hash);
+	}
+
+	public long index(int i) {
+		return buffer.getInt(outPointOffset(i) + 32) & 0xffffffffL;
+	}
+
+	public long value(int i) {
+		return buffer.getLong(outPointOffset(i) + 36);
+	}
+
+	public TransactionOutPoint outPoint(NetworkParameters params, int i) {
+		return new TransactionOutPoint(params, bytes(outPointOffset(i), 36), 0);
+	}
+
+	public OutPointValue outPointValue(int i) {
+		return new OutPointValue(hash(i), index(i), value(i));
+	}
+
+	/**
+	 * @return a copy of all outpoint records, which have the format of {@link PackedOutPoints}
+	 */
+	public PackedOutPoints outPoints() {
+		return new PackedOutPoints(bytes(outPointsOffset, nrOutPoints * OUTPOINT_LENGTH));
+	}
+
+	private int addressOffset(int i) {
+		if (i < 0 || i >= nrAddresses) {
+			throw new IndexOutOfBoundsException("address " + i + ", addresses " + nrAddresses);
+		}
+		return HEADER_LENGTH + i * ADDRESS_LENGTH;
+	}
+
+	private int outPointOffset(int i) {
+		if (i < 0 || i >= nrOutPoints) {
+			throw new IndexOutOfBoundsException("outpoint " + i + ", outpoints " + nrOutPoints);
+		}
+		return outPointsOffset + i * OUTPOINT_LENGTH;
+	}
+
+	// absolute bulk get, on a view so that concurrent readers do not share a position
+	private byte[] bytes(int offset, int length) {
+		final byte[] bytes = new byte[length];
+		final ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.get(bytes);
+		return bytes;
+	}
+
+	private int checksum(int offset, int length) {
+		final CRC32 crc = new CRC32();
+		final byte[] chunk = new byte[Math.min(BUFFER_SIZE, Math.max(length, 1))];
+		final ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		int remaining = length;
+		while (remaining > 0) {
+			final int n = Math.min(chunk.length, remaining);
+			view.get(chunk, 0, n);
+			crc.update(chunk, 0, n);
+			remaining -= n;
+		}
+		return (int) crc.getValue();
+	}
+
+	private static void putPubKey(ByteBuffer out, byte[] pubKey) {
+		if (pubKey.length != PUBKEY_LENGTH) {
+			throw new IllegalArgumentException("Only compressed public keys fit into a snapshot.");
+		}
+		out.put(pubKey);
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer out, CRC32 crc) throws IOException {
+		out.flip();
+		crc.update(out.array(), 0, out.limit());
+		writeFully(channel, out);
+		out.clear();
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
@@ -35,9 +35,10 @@ import org.bitcoinj.core.Utils;
 import org.bitcoinj.crypto.TransactionSignature;
 import org.bitcoinj.script.Script;
 import org.bitcoinj.script.ScriptBuilder;
-import org.bitcoinj.script.ScriptChunk;
 
 import com.coinblesk.util.BitcoinUtils;
+import com.coinblesk.util.CompactSignature;
+import com.coinblesk.util.ScriptPushes;
 
 
 /**
@@ -62,6 +63,10 @@ public final class TimeLockedAddress {
 	private final byte[] serverPubKey;
 	private final long lockTime;
 	private final byte[] addressHash;
+	// program of the redeem script for the scriptSigs, computed by the constructor. Final, so it 
+	// is safely published with the instance. Transient, as instances are also serialized to JSON: 
+	// it is null in instances that reflection created from JSON, see redeemScriptRaw()
+	private final transient byte[] redeemScriptRaw;
 	
 	public TimeLockedAddress(byte[] clientPubKey, byte[] serverPubKey, long lockTime) {
 		if (clientPubKey == null || !ECKey.isPubKeyCanonical(clientPubKey)) {
@@ -77,7 +82,8 @@ public final class TimeLockedAddress {
 		this.clientPubKey = clientPubKey;
 		this.serverPubKey = serverPubKey;
 		this.lockTime = lockTime;
-		this.addressHash = createAddressHash();
+		this.redeemScriptRaw = createRedeemScript().getProgram();
+		this.addressHash = Utils.sha256hash160(redeemScriptRaw);
 	}
 	
 	public byte[] getClientPubKey() {
@@ -104,17 +110,6 @@ public final class TimeLockedAddress {
 		return addressHash;
 	}
 	
-	/**
-	 * Creates the hash of the redeem script (Hash160)
-	 * 
-	 * @return script hash
-	 */
-	private byte[] createAddressHash() {
-		final Script redeem = createRedeemScript();
-		final byte[] hash = Utils.sha256hash160(redeem.getProgram());
-		return hash;
-	}
-
 	/**
 	 * Creates OP_HASH160 <Hash160(redeemScript)> OP_EQUAL
 	 * 
@@ -161,62 +156,28 @@ public final class TimeLockedAddress {
 	}
 	
 	/**
-	 * Transforms a redeem script (see createRedeemScript) into a TimeLockedAddress by 
-	 * extracting the individual script chunks.
+	 * Transforms a redeem script (see createRedeemScript) into a TimeLockedAddress. The script is
+	 * matched in one pass, see {@link TimeLockedContract}.
 	 * 
 	 * @param scriptRaw raw script program
 	 * @return new time locked address
 	 * @throws IllegalArgumentException If script cannot be converted into TimeLockedAddress.
 	 */
 	public static TimeLockedAddress fromRedeemScript(byte[] scriptRaw) {
-		final Script script = new Script(scriptRaw);
-		if (hasExpectedStructure(script)) {
-			// script format is correct. now extract pushdata
-			List<ScriptChunk> chunks = script.getChunks();
-			ECKey serverECKey = ECKey.fromPublicOnly(chunks.get(1).data);
-			byte[] serverPubKey = serverECKey.getPubKey();
-			ECKey clientECKey = ECKey.fromPublicOnly(chunks.get(8).data);
-			byte[] clientPubKey = clientECKey.getPubKey();
-			long locktime = Utils.decodeMPI(Utils.reverseBytes(chunks.get(4).data), false).longValue();
-			
-			return new TimeLockedAddress(clientPubKey, serverPubKey, locktime);
-		} else {
-			throw new IllegalArgumentException("Script is not a redeemScript of TimeLockedAddress.");
+		final TimeLockedContract contract;
+		try {
+			contract = TimeLockedContract.parse(scriptRaw);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Script is not a redeemScript of TimeLockedAddress.", e);
 		}
-	}
-	
-	/* verifies that the opcodes are present and equal to the expected codes. */
-	private static boolean hasExpectedStructure(Script script) {
-		// TODO: maybe there is a nicer way to check the script structure.
-		final List<ScriptChunk> chunks = script.getChunks();
-		if (
-				chunks.size() == 10 		&&
-				/*IF*/ 
-				chunks.get(0).isOpCode() 	&& chunks.get(0).equalsOpCode(OP_IF) &&
-				/*serverPubKey*/
-				chunks.get(1).isPushData() 	&& 
-				/*CHECKSIGVERIFY*/
-				chunks.get(2).isOpCode() 	&& chunks.get(2).equalsOpCode(OP_CHECKSIGVERIFY) && 
-				/*ELSE*/
-				chunks.get(3).isOpCode() 	&& chunks.get(3).equalsOpCode(OP_ELSE) && 
-				/*lockTime*/
-				chunks.get(4).isPushData() 	&& 
-				/*CHECKLOCKTIMEVERIFY*/
-				chunks.get(5).isOpCode() 	&& chunks.get(5).equalsOpCode(OP_CHECKLOCKTIMEVERIFY) &&
-				/*DROP*/
-				chunks.get(6).isOpCode() 	&& chunks.get(6).equalsOpCode(OP_DROP) &&
-				/*ENDIF*/
-				chunks.get(7).isOpCode() 	&& chunks.get(7).equalsOpCode(OP_ENDIF) &&
-				/*clientPubKey*/
-				chunks.get(8).isPushData() 	&&
-				/*CHECKSIG*/
-				chunks.get(9).isOpCode() 	&& chunks.get(9).equalsOpCode(OP_CHECKSIG)
-			) {
-			
-			return true;
+		if (contract.getLockType() != TimeLockedContract.LockType.ABSOLUTE
+				|| contract.getPreLockThreshold() != 1 || contract.getPreLockKeys().size() != 1
+				|| contract.getThreshold() != 1 || contract.getKeys().size() != 1) {
+			throw new IllegalArgumentException("Script is not a redeemScript of TimeLockedAddress.");
 		}
-		
-		return false;
+		byte[] serverPubKey = contract.getPreLockKeys().get(0);
+		byte[] clientPubKey = contract.getKeys().get(0);
+		return new TimeLockedAddress(clientPubKey, serverPubKey, contract.getLock());
 	}
 	
 	/**
@@ -253,8 +214,12 @@ public final class TimeLockedAddress {
 	}
 	
 	private Script createScriptSig(final boolean spendAfterLockTime, final TransactionSignature... signatures) {
-		final Script redeemScript = createRedeemScript();
-		return createScriptSig(redeemScript.getProgram(), spendAfterLockTime, signatures);
+		return createScriptSig(redeemScriptRaw(), spendAfterLockTime, signatures);
+	}
+	
+	// not cached if created by reflection, as the field is final
+	private byte[] redeemScriptRaw() {
+		return redeemScriptRaw != null ? redeemScriptRaw : createRedeemScript().getProgram();
 	}
 	
 	/**
@@ -268,18 +233,132 @@ public final class TimeLockedAddress {
 	 */
 	public static Script createScriptSig(final byte[] redeemScriptRaw, final boolean spendAfterLockTime, 
 																			final TransactionSignature... signatures) {
+		return new Script(createScriptSigBytes(redeemScriptRaw, spendAfterLockTime, signatures));
+	}
+	
+	/**
+	 * Same as {@link #createScriptSig(byte[], boolean, TransactionSignature...)}, but returns the 
+	 * program of the scriptSig. The pushes are written into an array of the exact size, without 
+	 * building and parsing script chunks.
+	 */
+	public static byte[] createScriptSigBytes(final byte[] redeemScriptRaw, final boolean spendAfterLockTime, 
+																			final TransactionSignature... signatures) {
+		final byte[][] encoded = new byte[signatures.length][];
+		// the branch is a single opcode
+		int size = 1 + ScriptPushes.dataSize(redeemScriptRaw);
+		for (int i = 0; i < signatures.length; i++) {
+			encoded[i] = signatures[i].encodeToBitcoin();
+			size += ScriptPushes.dataSize(encoded[i]);
+		}
+		final byte[] scriptSig = new byte[size];
+		int offset = 0;
+		for (byte[] sig : encoded) {
+			offset = ScriptPushes.writeData(sig, scriptSig, offset);
+		}
 		// IF (1, before expiry, 2 sigs) or ELSE (0, after expiry, 1 sig) branch of script
-		final int branch = spendAfterLockTime ? 0 : 1;
-		final ScriptBuilder sb = new ScriptBuilder();
-		for (TransactionSignature sig : signatures) {
-			sb.data(sig.encodeToBitcoin());
+		offset = ScriptPushes.writeSmallNum(spendAfterLockTime ? 0 : 1, scriptSig, offset);
+		ScriptPushes.writeData(redeemScriptRaw, scriptSig, offset);
+		return scriptSig;
+	}
+	
+	/**
+	 * Same as {@link #createScriptSig(byte[], boolean, TransactionSignature...)}, but the encoded 
+	 * signatures are copied into a scriptSig array of the final size.
+	 */
+	public static Script createScriptSig(final byte[] redeemScriptRaw, final boolean spendAfterLockTime, 
+																			final CompactSignature... signatures) {
+		return new Script(createScriptSigBytes(redeemScriptRaw, spendAfterLockTime, signatures));
+	}
+	
+	public static byte[] createScriptSigBytes(final byte[] redeemScriptRaw, final boolean spendAfterLockTime, 
+																			final CompactSignature... signatures) {
+		int size = 1 + ScriptPushes.dataSize(redeemScriptRaw);
+		for (CompactSignature sig : signatures) {
+			size += sig.pushSize();
+		}
+		final byte[] scriptSig = new byte[size];
+		int offset = 0;
+		for (CompactSignature sig : signatures) {
+			offset = sig.writePush(scriptSig, offset);
 		}
-		sb.smallNum(branch);
-		sb.data(redeemScriptRaw);
-		Script scriptSig = sb.build();
+		offset = ScriptPushes.writeSmallNum(spendAfterLockTime ? 0 : 1, scriptSig, offset);
+		ScriptPushes.writeData(redeemScriptRaw, scriptSig, offset);
 		return scriptSig;
 	}
 	
+	/**
+	 * Creates the P2WSH pubkey script OP_0 <SHA256(redeemScript)>, the redeem script is the 
+	 * witness script. Inputs spending it are signed with the signature hash of BIP 143 and weigh 
+	 * less than P2SH inputs, see {@link BitcoinUtils#estimateWeight}.
+	 */
+	public Script createWitnessPubkeyScript() {
+		checkWitnessKeys();
+		return BitcoinUtils.createP2WSHOutputScript(createRedeemScript());
+	}
+	
+	/**
+	 * @return the P2SH address of the P2WSH pubkey script (P2SH-P2WSH), which wallets without 
+	 * witness support can pay to
+	 */
+	public Address getNestedWitnessAddress(NetworkParameters params) {
+		return Address.fromP2SHScript(params, createNestedWitnessPubkeyScript());
+	}
+	
+	public Script createNestedWitnessPubkeyScript() {
+		checkWitnessKeys();
+		return BitcoinUtils.createP2SHP2WSHOutputScript(createRedeemScript());
+	}
+	
+	/**
+	 * @return the scriptSig of a P2SH-P2WSH input, the signatures are in the witness
+	 */
+	public Script createNestedWitnessScriptSig() {
+		checkWitnessKeys();
+		return BitcoinUtils.createP2SHP2WSHScriptSig(createRedeemScript());
+	}
+	
+	/**
+	 * Creates the witness to spend a P2WSH or P2SH-P2WSH output before the locktime, the same 
+	 * items as {@link #createScriptSigBeforeLockTime(TransactionSignature, TransactionSignature)}.
+	 */
+	public List<byte[]> createWitnessBeforeLockTime(TransactionSignature clientSig, TransactionSignature serverSig) {
+		checkWitnessKeys();
+		if (clientSig == null) {
+			throw new IllegalArgumentException("Transaction signature clientSig must not be null.");
+		}
+		if (serverSig == null) {
+			throw new IllegalArgumentException(
+					"Transaction signature serverSig must not be null (spending before locktime).");
+		}
+		// IF branch, minimal true as required for witness scripts
+		return Arrays.asList(clientSig.encodeToBitcoin(), serverSig.encodeToBitcoin(), 
+				new byte[] { 1 }, redeemScriptRaw().clone());
+	}
+	
+	/**
+	 * Creates the witness to spend a P2WSH or P2SH-P2WSH output after the locktime, the same 
+	 * items as {@link #createScriptSigAfterLockTime(TransactionSignature)}.
+	 */
+	public List<byte[]> createWitnessAfterLockTime(TransactionSignature clientSig) {
+		checkWitnessKeys();
+		if (clientSig == null) {
+			throw new IllegalArgumentException("Transaction signature clientSig must not be null.");
+		}
+		// ELSE branch, the empty item is false
+		return Arrays.asList(clientSig.encodeToBitcoin(), new byte[0], redeemScriptRaw().clone());
+	}
+	
+	/**
+	 * Witness scripts with uncompressed public keys are non-standard (BIP 143), funds sent to 
+	 * such an address could not be spent.
+	 */
+	private void checkWitnessKeys() {
+		// the keys are canonical, compressed keys have 33 bytes
+		if (clientPubKey.length != 33 || serverPubKey.length != 33) {
+			throw new IllegalArgumentException("Witness scripts require compressed public keys.");
+		}
+	}
+	
 	@Override 
 	public boolean equals(Object object) {
 		if (object == null) {
@@ -0,0 +1,552 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.bitcoin;
+
+import static org.bitcoinj.script.ScriptOpCodes.OP_0;
+import static org.bitcoinj.script.ScriptOpCodes.OP_1;
+import static org.bitcoinj.script.ScriptOpCodes.OP_16;
+import static org.bitcoinj.script.ScriptOpCodes.OP_CHECKLOCKTIMEVERIFY;
+import static org.bitcoinj.script.ScriptOpCodes.OP_CHECKMULTISIG;
+import static org.bitcoinj.script.ScriptOpCodes.OP_CHECKMULTISIGVERIFY;
+import static org.bitcoinj.script.ScriptOpCodes.OP_CHECKSIG;
+import static org.bitcoinj.script.ScriptOpCodes.OP_CHECKSIGVERIFY;
+import static org.bitcoinj.script.ScriptOpCodes.OP_DROP;
+import static org.bitcoinj.script.ScriptOpCodes.OP_ELSE;
+import static org.bitcoinj.script.ScriptOpCodes.OP_ENDIF;
+import static org.bitcoinj.script.ScriptOpCodes.OP_IF;
+import static org.bitcoinj.script.ScriptOpCodes.OP_NOP3;
+import static org.bitcoinj.script.ScriptOpCodes.OP_PUSHDATA1;
+import static org.bitcoinj.script.ScriptOpCodes.OP_PUSHDATA2;
+import static org.bitcoinj.script.ScriptOpCodes.OP_PUSHDATA4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+
+import com.coinblesk.util.ScriptPushes;
+
+/**
+ * A family of time locked contracts, the generalization of {@link TimeLockedAddress}:
+ *
+ * IF
+ *   <pre-lock signers> CHECKSIGVERIFY | CHECKMULTISIGVERIFY
+ * ELSE
+ *   <lock> CHECKLOCKTIMEVERIFY | CHECKSEQUENCEVERIFY DROP
+ * ENDIF
+ * <signers> CHECKSIG | CHECKMULTISIG
+ *
+ * The signers must sign in both branches, the pre-lock signers only before the lock expires. A
+ * group of signers is either a single key (CHECKSIG) or N of M keys (CHECKMULTISIG, M up to 16).
+ * The lock is either absolute (BIP 65, a block height or unix time) or relative (BIP 112, a
+ * sequence number). A {@link TimeLockedAddress} is the contract with one server key before an
+ * absolute lock and one client key. Several clients can share an address, e.g. with all
+ * clients and the server as pre-lock signers.
+ *
+ * Redeem scripts are recognized by {@link #fromRedeemScript(byte[])} in one pass over the bytes,
+ * without parsing them into chunks.
+ */
+public final class TimeLockedContract {
+
+	/** BIP 112, bitcoinj 0.14 has no constant for it */
+	public static final int OP_CHECKSEQUENCEVERIFY = OP_NOP3;
+
+	public static final int MAX_KEYS = 16;
+
+	// BIP 68: a relative lock with this bit set is disabled
+	private static final long SEQUENCE_LOCKTIME_DISABLE_FLAG = 1L << 31;
+	// BIP 68: set for units of 512 seconds, clear for blocks
+	private static final long SEQUENCE_LOCKTIME_TYPE_FLAG = 1L << 22;
+	private static final long SEQUENCE_LOCKTIME_MASK = 0xffffL;
+
+	public enum LockType {
+		/** CHECKLOCKTIMEVERIFY, the lock is a block height or unix time */
+		ABSOLUTE(OP_CHECKLOCKTIMEVERIFY),
+		/**
+		 * CHECKSEQUENCEVERIFY, the lock is a relative lock time as in the sequence number. Only 
+		 * transactions with version 2 or higher can spend it (BIP 68), bitcoinj creates version 1 
+		 * transactions by default.
+		 */
+		RELATIVE(OP_CHECKSEQUENCEVERIFY);
+
+		private final int opcode;
+
+		private LockType(int opcode) {
+			this.opcode = opcode;
+		}
+
+		public int opcode() {
+			return opcode;
+		}
+	}
+
+	private final int preLockThreshold;
+	private final List<byte[]> preLockKeys;
+	private final int threshold;
+	private final List<byte[]> keys;
+	private final LockType lockType;
+	private final long lock;
+
+	private final byte[] redeemScript;
+	private final byte[] addressHash;
+
+	/**
+	 * @param preLockThreshold number of signatures of preLockKeys required before the lock expires
+	 * @param preLockKeys public keys that sign before the lock expires, order is relevant
+	 * @param threshold number of signatures of keys required in both branches
+	 * @param keys public keys that sign in both branches, order is relevant
+	 * @param lockType absolute or relative lock
+	 * @param lock lock time, block height or relative lock time
+	 * @throws IllegalArgumentException if a key is not valid, a threshold is out of range, or the lock
+	 * is not positive
+	 */
+	public TimeLockedContract(int preLockThreshold, List<byte[]> preLockKeys, int threshold, List<byte[]> keys,
+			LockType lockType, long lock) {
+		checkGroup(preLockThreshold, preLockKeys);
+		checkGroup(threshold, keys);
+		if (lockType == null) {
+			throw new IllegalArgumentException("lockType must not be null.");
+		}
+		if (lock <= 0 || lock > 0xffffffffL) {
+			throw new IllegalArgumentException("lock must be positive and 32 bit: " + lock);
+		}
+		if (lockType == LockType.RELATIVE && (lock & SEQUENCE_LOCKTIME_DISABLE_FLAG) != 0) {
+			throw new IllegalArgumentException("relative lock must not have the disable flag set: " + lock);
+		}
+		this.preLockThreshold = preLockThreshold;
+		this.preLockKeys = copy(preLockKeys);
+		this.threshold = threshold;
+		this.keys = copy(keys);
+		this.lockType = lockType;
+		this.lock = lock;
+		this.redeemScript = buildRedeemScript();
+		this.addressHash = Utils.sha256hash160(redeemScript);
+	}
+
+	/**
+	 * @return the contract with the same redeem script as the address
+	 */
+	public static TimeLockedContract fromTimeLockedAddress(TimeLockedAddress address) {
+		return new TimeLockedContract(1, Collections.singletonList(address.getServerPubKey()),
+				1, Collections.singletonList(address.getClientPubKey()), LockType.ABSOLUTE, address.getLockTime());
+	}
+
+	public int getPreLockThreshold() {
+		return preLockThreshold;
+	}
+
+	public List<byte[]> getPreLockKeys() {
+		return preLockKeys;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public List<byte[]> getKeys() {
+		return keys;
+	}
+
+	public LockType getLockType() {
+		return lockType;
+	}
+
+	public long getLock() {
+		return lock;
+	}
+
+	public Script createRedeemScript() {
+		return new Script(redeemScript);
+	}
+
+	public byte[] getAddressHash() {
+		return addressHash;
+	}
+
+	public Address getAddress(NetworkParameters params) {
+		return Address.fromP2SHHash(params, addressHash);
+	}
+
+	public Script createPubkeyScript() {
+		return ScriptBuilder.createP2SHOutputScript(addressHash);
+	}
+
+	/**
+	 * Creates the scriptSig to spend before the lock expires.
+	 *
+	 * @param signatures signatures of the signers, in the order of their keys
+	 * @param preLockSignatures signatures of the pre-lock signers, in the order of their keys
+	 */
+	public Script createScriptSigBeforeLock(List<TransactionSignature> signatures,
+			List<TransactionSignature> preLockSignatures) {
+		checkSignatures(threshold, signatures);
+		checkSignatures(preLockThreshold, preLockSignatures);
+		return createScriptSig(signatures, preLockSignatures);
+	}
+
+	/**
+	 * Creates the scriptSig to spend after the lock expired. The spending transaction needs a
+	 * lock time (absolute) or input sequence number (relative) that satisfies the lock. A relative
+	 * lock also needs a transaction version of 2 or higher. See {@link #checkSpendAfterLock}.
+	 *
+	 * @param signatures signatures of the signers, in the order of their keys
+	 */
+	public Script createScriptSigAfterLock(List<TransactionSignature> signatures) {
+		checkSignatures(threshold, signatures);
+		return createScriptSig(signatures, null);
+	}
+
+	/**
+	 * Checks that the input of the transaction satisfies the lock, as CHECKLOCKTIMEVERIFY (BIP 65)
+	 * or CHECKSEQUENCEVERIFY (BIP 112) will. bitcoinj 0.14 does not execute CHECKSEQUENCEVERIFY, 
+	 * it treats it as OP_NOP3.
+	 *
+	 * @throws IllegalArgumentException if the input cannot spend the contract after the lock
+	 */
+	public void checkSpendAfterLock(Transaction tx, int inputIndex) {
+		final long sequence = tx.getInput(inputIndex).getSequenceNumber();
+		if (lockType == LockType.ABSOLUTE) {
+			if (sequence == TransactionInput.NO_SEQUENCE) {
+				throw new IllegalArgumentException("Input sequence number must not be final.");
+			}
+			final long txLockTime = tx.getLockTime();
+			if ((txLockTime < Transaction.LOCKTIME_THRESHOLD) != (lock < Transaction.LOCKTIME_THRESHOLD)
+					|| txLockTime < lock) {
+				throw new IllegalArgumentException(String.format(
+						"Transaction lock time %d does not satisfy lock %d.", txLockTime, lock));
+			}
+		} else {
+			if (tx.getVersion() < 2) {
+				throw new IllegalArgumentException(
+						"Relative locks need a transaction version of 2 or higher: " + tx.getVersion());
+			}
+			if ((sequence & SEQUENCE_LOCKTIME_DISABLE_FLAG) != 0
+					|| (sequence & SEQUENCE_LOCKTIME_TYPE_FLAG) != (lock & SEQUENCE_LOCKTIME_TYPE_FLAG)
+					|| (sequence & SEQUENCE_LOCKTIME_MASK) < (lock & SEQUENCE_LOCKTIME_MASK)) {
+				throw new IllegalArgumentException(String.format(
+						"Input sequence number %d does not satisfy lock %d.", sequence, lock));
+			}
+		}
+	}
+
+	// [0] <sigs> [[0] <pre-lock sigs>] <branch> <redeemScript>, CHECKMULTISIG pops one extra item
+	private Script createScriptSig(List<TransactionSignature> signatures, List<TransactionSignature> preLockSignatures) {
+		final List<byte[]> encoded = new ArrayList<>();
+		int size = 1 + ScriptPushes.dataSize(redeemScript);
+		if (!isSingle(threshold, keys)) {
+			size++;
+		}
+		for (TransactionSignature sig : signatures) {
+			encoded.add(sig.encodeToBitcoin());
+		}
+		if (preLockSignatures != null) {
+			if (!isSingle(preLockThreshold, preLockKeys)) {
+				size++;
+			}
+			for (TransactionSignature sig : preLockSignatures) {
+				encoded.add(sig.encodeToBitcoin());
+			}
+		}
+		for (byte[] sig : encoded) {
+			size += ScriptPushes.dataSize(sig);
+		}
+
+		final byte[] scriptSig = new byte[size];
+		int offset = 0;
+		int next = 0;
+		if (!isSingle(threshold, keys)) {
+			offset = ScriptPushes.writeSmallNum(0, scriptSig, offset);
+		}
+		for (int i = 0; i < signatures.size(); i++) {
+			offset = ScriptPushes.writeData(encoded.get(next++), scriptSig, offset);
+		}
+		if (preLockSignatures != null) {
+			if (!isSingle(preLockThreshold, preLockKeys)) {
+				offset = ScriptPushes.writeSmallNum(0, scriptSig, offset);
+			}
+			for (int i = 0; i < preLockSignatures.size(); i++) {
+				offset = ScriptPushes.writeData(encoded.get(next++), scriptSig, offset);
+			}
+		}
+		offset = ScriptPushes.writeSmallNum(preLockSignatures != null ? 1 : 0, scriptSig, offset);
+		ScriptPushes.writeData(redeemScript, scriptSig, offset);
+		return new Script(scriptSig);
+	}
+
+	/**
+	 * Recognizes a redeem script of this contract family.
+	 *
+	 * @param redeemScript raw script program
+	 * @return the contract, its redeem script is the given one
+	 * @throws IllegalArgumentException if the script is not a contract of this family, or not in the
+	 * form the constructor creates (e.g. non-minimal pushes)
+	 */
+	public static TimeLockedContract fromRedeemScript(byte[] redeemScript) {
+		final TimeLockedContract contract = parse(redeemScript);
+		if (!Arrays.equals(redeemScript, contract.redeemScript)) {
+			throw new IllegalArgumentException("Script is not in the canonical form of the contract.");
+		}
+		return contract;
+	}
+
+	/**
+	 * Same as {@link #fromRedeemScript(byte[])}, but accepts any push opcodes for the keys and the lock.
+	 */
+	static TimeLockedContract parse(byte[] redeemScript) {
+		final Parser parser = new Parser(redeemScript);
+		parser.expect(OP_IF);
+		final List<byte[]> preLockKeys = new ArrayList<>();
+		final int preLockThreshold = parser.keyGroup(preLockKeys, true);
+		parser.expect(OP_ELSE);
+		final long lock = parser.number();
+		final LockType lockType;
+		if (parser.peek() == OP_CHECKLOCKTIMEVERIFY) {
+			lockType = LockType.ABSOLUTE;
+		} else if (parser.peek() == OP_CHECKSEQUENCEVERIFY) {
+			lockType = LockType.RELATIVE;
+		} else {
+			throw parser.mismatch();
+		}
+		parser.skipOpcode();
+		parser.expect(OP_DROP);
+		parser.expect(OP_ENDIF);
+		final List<byte[]> keys = new ArrayList<>();
+		final int threshold = parser.keyGroup(keys, false);
+		parser.expectEnd();
+		return new TimeLockedContract(preLockThreshold, preLockKeys, threshold, keys, lockType, lock);
+	}
+
+	private byte[] buildRedeemScript() {
+		final ScriptBuilder sb = new ScriptBuilder();
+		sb.op(OP_IF);
+		addGroup(sb, preLockThreshold, preLockKeys, true);
+		sb.op(OP_ELSE);
+		sb.number(lock).op(lockType.opcode()).op(OP_DROP);
+		sb.op(OP_ENDIF);
+		addGroup(sb, threshold, keys, false);
+		return sb.build().getProgram();
+	}
+
+	private static void addGroup(ScriptBuilder sb, int threshold, List<byte[]> keys, boolean verify) {
+		if (isSingle(threshold, keys)) {
+			sb.data(keys.get(0)).op(verify ? OP_CHECKSIGVERIFY : OP_CHECKSIG);
+		} else {
+			sb.smallNum(threshold);
+			for (byte[] key : keys) {
+				sb.data(key);
+			}
+			sb.smallNum(keys.size()).op(verify ? OP_CHECKMULTISIGVERIFY : OP_CHECKMULTISIG);
+		}
+	}
+
+	private static boolean isSingle(int threshold, List<byte[]> keys) {
+		return threshold == 1 && keys.size() == 1;
+	}
+
+	private static void checkGroup(int threshold, List<byte[]> keys) {
+		if (keys == null || keys.isEmpty() || keys.size() > MAX_KEYS) {
+			throw new IllegalArgumentException("1 to " + MAX_KEYS + " keys required.");
+		}
+		if (threshold < 1 || threshold > keys.size()) {
+			throw new IllegalArgumentException("threshold " + threshold + " out of range for " + keys.size() + " keys.");
+		}
+		for (byte[] key : keys) {
+			if (key == null || !ECKey.isPubKeyCanonical(key)) {
+				throw new IllegalArgumentException("public key not valid.");
+			}
+		}
+	}
+
+	private static void checkSignatures(int threshold, List<TransactionSignature> signatures) {
+		if (signatures == null || signatures.size() != threshold) {
+			throw new IllegalArgumentException("exactly " + threshold + " signatures required.");
+		}
+	}
+
+	private static List<byte[]> copy(List<byte[]> keys) {
+		return Collections.unmodifiableList(new ArrayList<>(keys));
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		if (object == this) {
+			return true;
+		}
+		if (!(object instanceof TimeLockedContract)) {
+			return false;
+		}
+		return Arrays.equals(redeemScript, ((TimeLockedContract) object).redeemScript);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(addressHash);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[AddressHashHex=" + Utils.HEX.encode(addressHash)
+				+ ", " + preLockThreshold + "-of-" + preLockKeys.size() + " before, "
+				+ threshold + "-of-" + keys.size() + " always, " + lockType + " lock=" + lock + "]";
+	}
+
+	/**
+	 * Reads a script opcode by opcode, directly from the bytes.
+	 */
+	private static final class Parser {
+		private final byte[] script;
+		private int pos = 0;
+
+		private Parser(byte[] script) {
+			this.script = script;
+		}
+
+		private IllegalArgumentException mismatch() {
+			return new IllegalArgumentException("Script is not a redeemScript of a time locked contract (at byte "
+					+ pos + ").");
+		}
+
+		private int peek() {
+			if (pos >= script.length) {
+				throw mismatch();
+			}
+			return script[pos] & 0xff;
+		}
+
+		private void skipOpcode() {
+			pos++;
+		}
+
+		private void expect(int opcode) {
+			if (peek() != opcode) {
+				throw mismatch();
+			}
+			pos++;
+		}
+
+		private void expectEnd() {
+			if (pos != script.length) {
+				throw mismatch();
+			}
+		}
+
+		private boolean isPush() {
+			return peek() <= OP_PUSHDATA4;
+		}
+
+		/* reads a push and returns its data */
+		private byte[] data() {
+			final int opcode = peek();
+			pos++;
+			final int length;
+			if (opcode < OP_PUSHDATA1) {
+				length = opcode;
+			} else if (opcode == OP_PUSHDATA1) {
+				length = readLength(1);
+			} else if (opcode == OP_PUSHDATA2) {
+				length = readLength(2);
+			} else if (opcode == OP_PUSHDATA4) {
+				length = readLength(4);
+			} else {
+				pos--;
+				throw mismatch();
+			}
+			if (length < 0 || length > script.length - pos) {
+				throw mismatch();
+			}
+			final byte[] data = Arrays.copyOfRange(script, pos, pos + length);
+			pos += length;
+			return data;
+		}
+
+		private int readLength(int bytes) {
+			if (script.length - pos < bytes) {
+				throw mismatch();
+			}
+			long length = 0;
+			for (int i = 0; i < bytes; i++) {
+				length |= (script[pos++] & 0xffL) << (8 * i);
+			}
+			return length > Integer.MAX_VALUE ? -1 : (int) length;
+		}
+
+		/* reads OP_0, OP_1 to OP_16 or a number push of up to 5 bytes, see ScriptBuilder.number */
+		private long number() {
+			final int opcode = peek();
+			if (opcode == OP_0) {
+				pos++;
+				return 0;
+			}
+			if (opcode >= OP_1 && opcode <= OP_16) {
+				pos++;
+				return opcode - OP_1 + 1;
+			}
+			if (!isPush()) {
+				throw mismatch();
+			}
+			final byte[] data = data();
+			if (data.length > 5) {
+				throw mismatch();
+			}
+			long value = 0;
+			for (int i = 0; i < data.length; i++) {
+				value |= (data[i] & 0xffL) << (8 * i);
+			}
+			if (data.length > 0 && (data[data.length - 1] & 0x80) != 0) {
+				// sign and magnitude, negative
+				value = -(value & ~(0x80L << (8 * (data.length - 1))));
+			}
+			return value;
+		}
+
+		private int smallNum() {
+			final int opcode = peek();
+			if (opcode < OP_1 || opcode > OP_16) {
+				throw mismatch();
+			}
+			pos++;
+			return opcode - OP_1 + 1;
+		}
+
+		/* reads <key> CHECKSIG[VERIFY] or <n> <keys..> <m> CHECKMULTISIG[VERIFY], returns n */
+		private int keyGroup(List<byte[]> keys, boolean verify) {
+			if (isPush()) {
+				keys.add(data());
+				expect(verify ? OP_CHECKSIGVERIFY : OP_CHECKSIG);
+				return 1;
+			}
+			final int threshold = smallNum();
+			while (isPush()) {
+				keys.add(data());
+			}
+			if (smallNum() != keys.size()) {
+				throw mismatch();
+			}
+			expect(verify ? OP_CHECKMULTISIGVERIFY : OP_CHECKMULTISIG);
+			return threshold;
+		}
+	}
+}
@@ -0,0 +1,534 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.bitcoin;
+
+import java.util.Arrays;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.script.Script;
+
+import com.coinblesk.util.InsufficientFunds;
+
+/**
+ * A set of unspent transaction outputs for building transactions, which holds millions of
+ * outputs with little overhead. Each entry has an outpoint, a value, whether the output is P2SH,
+ * and the hash160 of the address it pays to. The entries are kept in parallel primitive arrays,
+ * objects such as {@link TransactionOutPoint} are only created on request.
+ *
+ * An entry is addressed by its index, the order in which it was added. Entries are looked up
+ * by outpoint in a hash table and marked as spent or unspent in constant time. Spent entries
+ * keep their index until {@link #compact()}. Unspent entries are also available by value,
+ * largest first, e.g. for coin selection.
+ *
+ * A set is not thread safe.
+ */
+public final class UtxoSet {
+
+	public static final int OUTPOINT_LENGTH = 36;
+	public static final int HASH160_LENGTH = 20;
+
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final byte[] UNKNOWN_ADDRESS = new byte[HASH160_LENGTH];
+
+	private int size = 0;
+	private int nrUnspent = 0;
+	private long unspentValue = 0;
+
+	// outpoints in wire order, hash160 of the addresses
+	private byte[] outPoints;
+	private byte[] addressHashes;
+	private long[] values;
+	private boolean[] p2sh;
+	private boolean[] spent;
+
+	// open addressing, entry index + 1, 0 is empty
+	private int[] table;
+	// entry indices by value, the first sortedSize entries are sorted
+	private int[] byValue;
+	private int sortedSize = 0;
+
+	public UtxoSet() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public UtxoSet(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+		}
+		allocate(Math.max(capacity, DEFAULT_CAPACITY));
+	}
+
+	/**
+	 * Adds the output, which is classified by its scriptPubKey once. The address hash of outputs
+	 * that neither pay to an address nor to a script hash is all zero.
+	 *
+	 * @return the index of the new entry
+	 * @throws IllegalArgumentException if the outpoint is already in the set
+	 */
+	public int add(TransactionOutput output) {
+		final Script script = output.getScriptPubKey();
+		final boolean isP2SH = script.isPayToScriptHash();
+		final byte[] addressHash;
+		if (isP2SH || script.isSentToAddress()) {
+			addressHash = script.getPubKeyHash();
+		} else if (script.isSentToRawPubKey()) {
+			addressHash = Utils.sha256hash160(script.getPubKey());
+		} else {
+			addressHash = UNKNOWN_ADDRESS;
+		}
+		return add(output.getOutPointFor(), output.getValue().value, isP2SH, addressHash);
+	}
+
+	/**
+	 * @return the index of the new entry
+	 * @throws IllegalArgumentException if the outpoint is already in the set
+	 */
+	public int add(TransactionOutPoint outPoint, long value, Address address) {
+		return add(outPoint, value, address.isP2SHAddress(), address.getHash160());
+	}
+
+	/**
+	 * @param addressHash hash160 of the address or script the output pays to
+	 * @return the index of the new entry
+	 * @throws IllegalArgumentException if the outpoint is already in the set, the value is
+	 * negative or the hash is not 20 bytes
+	 */
+	public int add(TransactionOutPoint outPoint, long value, boolean isP2SH, byte[] addressHash) {
+		if (value < 0) {
+			throw new IllegalArgumentException("value must not be negative: " + value);
+		}
+		if (addressHash.length != HASH160_LENGTH) {
+			throw new IllegalArgumentException("address hash must have 20 bytes: " + addressHash.length);
+		}
+		final byte[] hash = outPoint.getHash().getBytes();
+		final long index = outPoint.getIndex();
+		if (indexOf(hash, index) >= 0) {
+			throw new IllegalArgumentException("outpoint already in set: " + outPoint);
+		}
+		if (size == values.length) {
+			grow();
+		}
+		final int i = size++;
+		final int offset = i * OUTPOINT_LENGTH;
+		for (int j = 0; j < 32; j++) {
+			outPoints[offset + j] = hash[31 - j];
+		}
+		Utils.uint32ToByteArrayLE(index, outPoints, offset + 32);
+		System.arraycopy(addressHash, 0, addressHashes, i * HASH160_LENGTH, HASH160_LENGTH);
+		values[i] = value;
+		p2sh[i] = isP2SH;
+		spent[i] = false;
+		nrUnspent++;
+		unspentValue += value;
+		insert(i);
+		return i;
+	}
+
+	/**
+	 * @return the number of entries, spent and unspent
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int nrUnspent() {
+		return nrUnspent;
+	}
+
+	public long unspentValue() {
+		return unspentValue;
+	}
+
+	/**
+	 * @return the index of the entry with the outpoint, or -1
+	 */
+	public int indexOf(TransactionOutPoint outPoint) {
+		return indexOf(outPoint.getHash().getBytes(), outPoint.getIndex());
+	}
+
+	public boolean contains(TransactionOutPoint outPoint) {
+		return indexOf(outPoint) >= 0;
+	}
+
+	/**
+	 * @return false if the outpoint is not in the set or already spent
+	 */
+	public boolean spend(TransactionOutPoint outPoint) {
+		final int i = indexOf(outPoint);
+		return i >= 0 && spend(i);
+	}
+
+	/**
+	 * @return false if the outpoint is not in the set or not spent
+	 */
+	public boolean unspend(TransactionOutPoint outPoint) {
+		final int i = indexOf(outPoint);
+		return i >= 0 && unspend(i);
+	}
+
+	/**
+	 * @return false if the entry is already spent
+	 */
+	public boolean spend(int i) {
+		checkIndex(i);
+		if (spent[i]) {
+			return false;
+		}
+		spent[i] = true;
+		nrUnspent--;
+		unspentValue -= values[i];
+		return true;
+	}
+
+	/**
+	 * @return false if the entry is not spent
+	 */
+	public boolean unspend(int i) {
+		checkIndex(i);
+		if (!spent[i]) {
+			return false;
+		}
+		spent[i] = false;
+		nrUnspent++;
+		unspentValue += values[i];
+		return true;
+	}
+
+	public boolean isSpent(int i) {
+		checkIndex(i);
+		return spent[i];
+	}
+
+	public long value(int i) {
+		checkIndex(i);
+		return values[i];
+	}
+
+	public boolean isP2SH(int i) {
+		checkIndex(i);
+		return p2sh[i];
+	}
+
+	public byte[] addressHash(int i) {
+		checkIndex(i);
+		final int offset = i * HASH160_LENGTH;
+		return Arrays.copyOfRange(addressHashes, offset, offset + HASH160_LENGTH);
+	}
+
+	/**
+	 * @return true if the entry pays to the address, i.e., the script type and the address hash
+	 * match, compared in place
+	 */
+	public boolean paysTo(int i, Address address) {
+		checkIndex(i);
+		return paysTo(i, address.isP2SHAddress(), address.getHash160());
+	}
+
+	private boolean paysTo(int i, boolean isP2SH, byte[] addressHash) {
+		if (p2sh[i] != isP2SH) {
+			return false;
+		}
+		final int offset = i * HASH160_LENGTH;
+		for (int j = 0; j < HASH160_LENGTH; j++) {
+			if (addressHashes[offset + j] != addressHash[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if both entries pay to the same address, i.e., the same script type and 
+	 * address hash, compared in place
+	 */
+	public boolean sameAddress(int i, int j) {
+		checkIndex(i);
+		checkIndex(j);
+		if (p2sh[i] != p2sh[j]) {
+			return false;
+		}
+		final int offsetI = i * HASH160_LENGTH;
+		final int offsetJ = j * HASH160_LENGTH;
+		for (int k = 0; k < HASH160_LENGTH; k++) {
+			if (addressHashes[offsetI + k] != addressHashes[offsetJ + k]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return a hash code of the address of the entry, consistent with {@link #sameAddress(int, int)}
+	 */
+	public int addressHashCode(int i) {
+		checkIndex(i);
+		// the address hash is random, a few of its bytes are enough
+		final int offset = i * HASH160_LENGTH;
+		final int h = (addressHashes[offset] & 0xff) | (addressHashes[offset + 1] & 0xff) << 8 
+				| (addressHashes[offset + 2] & 0xff) << 16 | (addressHashes[offset + 3] & 0xff) << 24;
+		return p2sh[i] ? ~h : h;
+	}
+
+	/**
+	 * @return the transaction hash of the entry, reversed as it is displayed
+	 */
+	public Sha256Hash hash(int i) {
+		checkIndex(i);
+		final byte[] hash = new byte[32];
+		final int offset = i * OUTPOINT_LENGTH;
+		for (int j = 0; j < 32; j++) {
+			hash[j] = outPoints[offset + 31 - j];
+		}
+		return Sha256Hash.wrap(hash);
+	}
+
+	public long index(int i) {
+		checkIndex(i);
+		return Utils.readUint32(outPoints, i * OUTPOINT_LENGTH + 32);
+	}
+
+	public TransactionOutPoint outPoint(NetworkParameters params, int i) {
+		checkIndex(i);
+		return new TransactionOutPoint(params, outPoints, i * OUTPOINT_LENGTH);
+	}
+
+	/**
+	 * @return the indices of all unspent entries, largest value first, entries of the same
+	 * value in the order they were added
+	 */
+	public int[] unspentByValue() {
+		return unspentByValue(null);
+	}
+
+	/**
+	 * @param address the address, or null for all addresses
+	 * @return the indices of the unspent entries that pay to the address, largest value first
+	 */
+	public int[] unspentByValue(Address address) {
+		final boolean isP2SH = address != null && address.isP2SHAddress();
+		final byte[] addressHash = address == null ? null : address.getHash160();
+		sort();
+		final int[] result = new int[nrUnspent];
+		int count = 0;
+		for (int k = 0; k < size; k++) {
+			final int i = byValue[k];
+			if (!spent[i] && (addressHash == null || paysTo(i, isP2SH, addressHash))) {
+				result[count++] = i;
+			}
+		}
+		return count == result.length ? result : Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Selects unspent entries, largest value first, until their value reaches the target.
+	 *
+	 * @param address the address to spend from, or null for all addresses
+	 * @return the indices of the selected entries
+	 * @throws InsufficientFunds if all unspent entries of the address do not reach the target
+	 */
+	public int[] selectLargestFirst(long target, Address address) throws InsufficientFunds {
+		final boolean isP2SH = address != null && address.isP2SHAddress();
+		final byte[] addressHash = address == null ? null : address.getHash160();
+		sort();
+		int[] result = new int[8];
+		int count = 0;
+		long selected = 0;
+		for (int k = 0; k < size && selected < target; k++) {
+			final int i = byValue[k];
+			if (!spent[i] && (addressHash == null || paysTo(i, isP2SH, addressHash))) {
+				if (count == result.length) {
+					result = Arrays.copyOf(result, count * 2);
+				}
+				result[count++] = i;
+				selected += values[i];
+			}
+		}
+		if (selected < target) {
+			throw new InsufficientFunds("Unspent outputs of " + selected + " do not cover " + target);
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Removes the spent entries. The remaining entries keep their order, but get new indices.
+	 */
+	public void compact() {
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (!spent[i]) {
+				if (kept != i) {
+					System.arraycopy(outPoints, i * OUTPOINT_LENGTH, outPoints, kept * OUTPOINT_LENGTH, OUTPOINT_LENGTH);
+					System.arraycopy(addressHashes, i * HASH160_LENGTH, addressHashes, kept * HASH160_LENGTH,
+							HASH160_LENGTH);
+					values[kept] = values[i];
+					p2sh[kept] = p2sh[i];
+					spent[kept] = false;
+				}
+				kept++;
+			}
+		}
+		size = kept;
+		Arrays.fill(table, 0);
+		for (int i = 0; i < size; i++) {
+			insert(i);
+		}
+		sortedSize = 0;
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+		}
+	}
+
+	private void allocate(int capacity) {
+		outPoints = new byte[capacity * OUTPOINT_LENGTH];
+		addressHashes = new byte[capacity * HASH160_LENGTH];
+		values = new long[capacity];
+		p2sh = new boolean[capacity];
+		spent = new boolean[capacity];
+		byValue = new int[capacity];
+		table = new int[tableSize(capacity)];
+	}
+
+	private void grow() {
+		final int capacity = values.length * 2;
+		outPoints = Arrays.copyOf(outPoints, capacity * OUTPOINT_LENGTH);
+		addressHashes = Arrays.copyOf(addressHashes, capacity * HASH160_LENGTH);
+		values = Arrays.copyOf(values, capacity);
+		p2sh = Arrays.copyOf(p2sh, capacity);
+		spent = Arrays.copyOf(spent, capacity);
+		byValue = Arrays.copyOf(byValue, capacity);
+		table = new int[tableSize(capacity)];
+		for (int i = 0; i < size; i++) {
+			insert(i);
+		}
+	}
+
+	// power of two, at most half full
+	private static int tableSize(int capacity) {
+		return Integer.highestOneBit(Math.max(capacity, 2) - 1) << 2;
+	}
+
+	/* hash table of outpoints */
+
+	// the transaction hash is random, a few of its bytes are enough
+	private static int hash(int b0, int b1, int b2, int b3, long index) {
+		final int h = (b0 & 0xff) | (b1 & 0xff) << 8 | (b2 & 0xff) << 16 | (b3 & 0xff) << 24;
+		return h ^ (int) (index * 0x9E3779B9L);
+	}
+
+	private void insert(int i) {
+		// the first bytes of the transaction hash are the last ones in wire order
+		final int offset = i * OUTPOINT_LENGTH;
+		final int h = hash(outPoints[offset + 31], outPoints[offset + 30], outPoints[offset + 29],
+				outPoints[offset + 28], Utils.readUint32(outPoints, offset + 32));
+		final int mask = table.length - 1;
+		int slot = h & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = i + 1;
+	}
+
+	private int indexOf(byte[] hash, long index) {
+		final int mask = table.length - 1;
+		int slot = hash(hash[0], hash[1], hash[2], hash[3], index) & mask;
+		int entry;
+		while ((entry = table[slot]) != 0) {
+			if (equalsOutPoint(entry - 1, hash, index)) {
+				return entry - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private boolean equalsOutPoint(int i, byte[] hash, long index) {
+		final int offset = i * OUTPOINT_LENGTH;
+		if (Utils.readUint32(outPoints, offset + 32) != index) {
+			return false;
+		}
+		for (int j = 0; j < 32; j++) {
+			if (outPoints[offset + j] != hash[31 - j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* index by value */
+
+	// sorts the entries added since the last sort and merges them into the sorted ones
+	private void sort() {
+		if (sortedSize == size) {
+			return;
+		}
+		final int[] added = new int[size - sortedSize];
+		for (int k = 0; k < added.length; k++) {
+			added[k] = sortedSize + k;
+		}
+		mergeSort(added, new int[added.length], 0, added.length);
+
+		final int[] merged = new int[byValue.length];
+		int a = 0;
+		int b = 0;
+		int k = 0;
+		while (a < sortedSize && b < added.length) {
+			merged[k++] = before(added[b], byValue[a]) ? added[b++] : byValue[a++];
+		}
+		while (a < sortedSize) {
+			merged[k++] = byValue[a++];
+		}
+		while (b < added.length) {
+			merged[k++] = added[b++];
+		}
+		byValue = merged;
+		sortedSize = size;
+	}
+
+	// larger value first, then by index
+	private boolean before(int i, int j) {
+		return values[i] > values[j] || (values[i] == values[j] && i < j);
+	}
+
+	private void mergeSort(int[] a, int[] tmp, int from, int to) {
+		if (to - from < 2) {
+			return;
+		}
+		final int mid = (from + to) >>> 1;
+		mergeSort(a, tmp, from, mid);
+		mergeSort(a, tmp, mid, to);
+		if (!before(a[mid], a[mid - 1])) {
+			return;
+		}
+		System.arraycopy(a, from, tmp, from, to - from);
+		int l = from;
+		int r = mid;
+		for (int k = from; k < to; k++) {
+			if (r >= to || (l < mid && !before(tmp[r], tmp[l]))) {
+				a[k] = tmp[l++];
+			} else {
+				a[k] = tmp[r++];
+			}
+		}
+	}
+}
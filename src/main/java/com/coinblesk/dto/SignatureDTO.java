@@ -2,6 +2,8 @@ package com.coinblesk.dto;
 
 import lombok.Data;
 
+import java.beans.ConstructorProperties;
+
 import javax.validation.constraints.NotNull;
 
 @Data
@@ -10,4 +12,17 @@ public class SignatureDTO {
 	private final String sigR;
 	@NotNull
 	private final String sigS;
+	// Encoding of sigR and sigS, null for decimal, see SerializeUtils.SIGNATURE_VERSION_COMPACT
+	private final Integer version;
+
+	public SignatureDTO(String sigR, String sigS) {
+		this(sigR, sigS, null);
+	}
+
+	@ConstructorProperties({"sigR", "sigS", "version"})
+	public SignatureDTO(String sigR, String sigS, Integer version) {
+		this.sigR = sigR;
+		this.sigS = sigS;
+		this.version = version;
+	}
 }
@@ -55,6 +55,15 @@ public class BaseTO<T extends BaseTO> implements Serializable {
         return type == null ? Type.REASON_NOT_FOUND : type;
     }
     
+    /* raw type number, also if unknown to this version, see TOTypeAdapterFactory */
+    int typeNr() {
+        return type;
+    }
+
+    void typeNr(final int type) {
+        this.type = type;
+    }
+    
     public T message(final String message) {
         this.message = message;
         return (T)this;
@@ -31,6 +31,7 @@ public class RefundTO extends BaseTO<RefundTO> {
     private long lockTimeSeconds; //input 
     private String refundSendTo; //input
     private List<Pair<byte[],Long>> outpointsCoinPair; //input
+    private byte[] outpointsCoinPacked; //input, packed alternative, see PackedOutPoints
     
     private List<TxSig> clientSignatures; //input
     
@@ -89,4 +90,13 @@ public class RefundTO extends BaseTO<RefundTO> {
     public List<Pair<byte[],Long>> outpointsCoinPair() {
         return outpointsCoinPair;
     }
+
+    public RefundTO outpointsCoinPacked(byte[] outpointsCoinPacked) {
+        this.outpointsCoinPacked = outpointsCoinPacked;
+        return this;
+    }
+
+    public byte[] outpointsCoinPacked() {
+        return outpointsCoinPacked;
+    }
 }
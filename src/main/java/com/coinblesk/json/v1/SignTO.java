@@ -31,6 +31,7 @@ public class SignTO extends BaseTO<SignTO> {
     private long amountToSpend; //input 
     private String p2shAddressTo; //input
     private List<Pair<byte[],Long>> outpointsCoinPair; //input
+    private byte[] outpointsCoinPacked; //input, packed alternative, see PackedOutPoints
     
     private List<TxSig> signatures; //input/output
     
@@ -78,4 +79,13 @@ public class SignTO extends BaseTO<SignTO> {
     public List<Pair<byte[],Long>> outpointsCoinPair() {
         return outpointsCoinPair;
     }
+
+    public SignTO outpointsCoinPacked(byte[] outpointsCoinPacked) {
+        this.outpointsCoinPacked = outpointsCoinPacked;
+        return this;
+    }
+
+    public byte[] outpointsCoinPacked() {
+        return outpointsCoinPacked;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,817 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.json.v1;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.coinblesk.bitcoin.BitcoinNet;
+import com.coinblesk.bitcoin.TimeLockedAddress;
+import com.coinblesk.util.Base64;
+import com.coinblesk.util.Pair;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streaming type adapters for all transfer objects of this package. They read and write with
+ * {@link JsonReader}/{@link JsonWriter} directly instead of going through the reflective adapters
+ * of Gson.
+ *
+ * The output is the same as the one of the reflective adapters (with byte arrays as Base64 NO_WRAP
+ * strings): the fields of the subclass come first, then the fields of {@link BaseTO}, each in
+ * declaration order, null values are omitted. This is important, as the canonicalized JSON is
+ * signed, see SerializeUtils.canonicalizeJSON. If a field is added to a TO, it has to be added
+ * here as well.
+ */
+public class TOTypeAdapterFactory implements TypeAdapterFactory {
+
+    private static final Map<Class<?>, TypeAdapter<?>> ADAPTERS = new HashMap<>();
+
+    static {
+        ADAPTERS.put(TxSig.class, new TxSigAdapter());
+        ADAPTERS.put(TimeLockedAddress.class, new TimeLockedAddressAdapter());
+        ADAPTERS.put(BaseTO.class, new TOAdapter<BaseTO<?>>() {
+            @Override
+            BaseTO<?> create() {
+                return new BaseTO<BaseTO<?>>();
+            }
+        });
+        ADAPTERS.put(KeyTO.class, new TOAdapter<KeyTO>() {
+            @Override
+            KeyTO create() {
+                return new KeyTO();
+            }
+        });
+        ADAPTERS.put(UserAccountStatusTO.class, new TOAdapter<UserAccountStatusTO>() {
+            @Override
+            UserAccountStatusTO create() {
+                return new UserAccountStatusTO();
+            }
+        });
+        ADAPTERS.put(BalanceTO.class, new BalanceTOAdapter());
+        ADAPTERS.put(ExchangeRateTO.class, new ExchangeRateTOAdapter());
+        ADAPTERS.put(FeeTO.class, new FeeTOAdapter());
+        ADAPTERS.put(PaymentRequestTO.class, new PaymentRequestTOAdapter());
+        ADAPTERS.put(RefundTO.class, new RefundTOAdapter());
+        ADAPTERS.put(SignTO.class, new SignTOAdapter());
+        ADAPTERS.put(SignVerifyTO.class, new SignVerifyTOAdapter());
+        ADAPTERS.put(TimeLockedAddressTO.class, new TimeLockedAddressTOAdapter());
+        ADAPTERS.put(UserAccountTO.class, new UserAccountTOAdapter());
+        ADAPTERS.put(VerifyTO.class, new VerifyTOAdapter());
+        ADAPTERS.put(VersionTO.class, new VersionTOAdapter());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        return (TypeAdapter<T>) ADAPTERS.get(type.getRawType());
+    }
+
+    /**
+     * Base for all transfer objects. Subclasses write and read their own fields, the fields of
+     * {@link BaseTO} are handled here.
+     */
+    private static abstract class TOAdapter<T extends BaseTO<?>> extends TypeAdapter<T> {
+
+        abstract T create();
+
+        void writeFields(JsonWriter out, T to) throws IOException {
+        }
+
+        /* returns false if the field is not known to the subclass */
+        boolean readField(JsonReader in, String name, T to) throws IOException {
+            return false;
+        }
+
+        @Override
+        public void write(JsonWriter out, T to) throws IOException {
+            if (to == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeFields(out, to);
+            out.name("type").value(to.typeNr());
+            out.name("message").value(to.message());
+            out.name("messageSig");
+            writeTxSig(out, to.messageSig());
+            out.name("currentDate").value(to.currentDate());
+            out.name("publicKey");
+            writeBytes(out, to.publicKey());
+            out.endObject();
+        }
+
+        @Override
+        public T read(JsonReader in) throws IOException {
+            if (skipNull(in)) {
+                return null;
+            }
+            final T to = create();
+            in.beginObject();
+            while (in.hasNext()) {
+                final String name = in.nextName();
+                if (!readField(in, name, to) && !readBaseField(in, name, to)) {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return to;
+        }
+
+        private boolean readBaseField(JsonReader in, String name, T to) throws IOException {
+            switch (name) {
+                case "type":
+                    if (!skipNull(in)) {
+                        to.typeNr(in.nextInt());
+                    }
+                    return true;
+                case "message":
+                    to.message(readString(in));
+                    return true;
+                case "messageSig":
+                    to.messageSig(readTxSig(in));
+                    return true;
+                case "currentDate":
+                    if (!skipNull(in)) {
+                        to.currentDate(in.nextLong());
+                    }
+                    return true;
+                case "publicKey":
+                    to.publicKey(readBytes(in));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private static class BalanceTOAdapter extends TOAdapter<BalanceTO> {
+        @Override
+        BalanceTO create() {
+            return new BalanceTO();
+        }
+
+        @Override
+        void writeFields(JsonWriter out, BalanceTO to) throws IOException {
+            out.name("balance").value(to.balance());
+        }
+
+        @Override
+        boolean readField(JsonReader in, String name, BalanceTO to) throws IOException {
+            if ("balance".equals(name)) {
+                if (!skipNull(in)) {
+                    to.balance(in.nextLong());
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static class ExchangeRateTOAdapter extends TOAdapter<ExchangeRateTO> {
+        @Override
+        ExchangeRateTO create() {
+            return new ExchangeRateTO();
+        }
+
+        @Override
+        void writeFields(JsonWriter out, ExchangeRateTO to) throws IOException {
+            out.name("name").value(to.name());
+            out.name("rate").value(to.rate());
+        }
+
+        @Override
+        boolean readField(JsonReader in, String name, ExchangeRateTO to) throws IOException {
+            switch (name) {
+                case "name":
+                    to.name(readString(in));
+                    return true;
+                case "rate":
+                    to.rate(readString(in));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private static class FeeTOAdapter extends TOAdapter<FeeTO> {
+        @Override
+        FeeTO create() {
+            return new FeeTO();
+        }
+
+        @Override
+        void writeFields(JsonWriter out, FeeTO to) throws IOException {
+            out.name("fee").value(to.fee());
+        }
+
+        @Override
+        boolean readField(JsonReader in, String name, FeeTO to) throws IOException {
+            if ("fee".equals(name)) {
+                to.fee(skipNull(in) ? null : in.nextInt());
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static class PaymentRequestTOAdapter extends TOAdapter<PaymentRequestTO> {
+        @Override
+        PaymentRequestTO create() {
+            return new PaymentRequestTO();
+        }
+
+        @Override
+        void writeFields(JsonWriter out, PaymentRequestTO to) throws IOException {
+            out.name("address").value(to.address());
+            out.name("amount").value(to.amount());
+            out.name("version").value(to.version());
+        }
+
+        @Override
+        boolean readField(JsonReader in, String name, PaymentRequestTO to) throws IOException {
+            switch (name) {
+                case "address":
+                    to.address(readString(in));
+                    return true;
+                case "amount":
+                    if (!skipNull(in)) {
+                        to.amount(in.nextLong());
+                    }
+                    return true;
+                case "version":
+                    if (!skipNull(in)) {
+                        to.version(in.nextInt());
+                    }
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private static class RefundTOAdapter extends TOAdapter<RefundTO> {
+        @Override
+        RefundTO create() {
+            return new RefundTO();
+        }
+
+        @Override
+        void writeFields(JsonWriter out, RefundTO to) throws IOException {
+            out.name("refundTransaction");
+            writeBytes(out, to.refundTransaction());
+            out.name("lockTimeSeconds").value(to.lockTimeSeconds());
+            out.name("refundSendTo").value(to.refundSendTo());
+            out.name("outpointsCoinPair");
+            writeOutpointsCoinPair(out, to.outpointsCoinPair());
+            out.name("outpointsCoinPacked");
+            writeBytes(out, to.outpointsCoinPacked());
+            out.name("clientSignatures");
+            writeTxSigs(out, to.clientSignatures());
+            out.name("serverSignatures");
+            writeTxSigs(out, to.serverSignatures());
+        }
+
+        @Override
+        boolean readField(JsonReader in, String name, RefundTO to) throws IOException {
+            switch (name) {
+                case "refundTransaction":
+                    to.refundTransaction(readBytes(in));
+                    return true;
+                case "lockTimeSeconds":
+                    if (!skipNull(in)) {
+                        to.lockTimeSeconds(in.nextLong());
+                    }
+                    return true;
+                case "refundSendTo":
+                    to.refundSendTo(readString(in));
+                    return true;
+                case "outpointsCoinPair":
+                    to.outpointsCoinPair(readOutpointsCoinPair(in));
+                    return true;
+                case "outpointsCoinPacked":
+                    to.outpointsCoinPacked(readBytes(in));
+                    return true;
+                case "clientSignatures":
+                    to.clientSignatures(readTxSigs(in));
+                    return true;
+                case "serverSignatures":
+                    to.serverSignatures(readTxSigs(in));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private static class SignTOAdapter extends TOAdapter<SignTO> {
+        @Override
+        SignTO create() {
+            return new SignTO();
+        }
+
+        @Override
+        void writeFields(JsonWriter out, SignTO to) throws IOException {
+            out.name("transaction");
+            writeBytes(out, to.transaction());
+            out.name("amountToSpend").value(to.amountToSpend());
+            out.name("p2shAddressTo").value(to.p2shAddressTo());
+            out.name("outpointsCoinPair");
+            writeOutpointsCoinPair(out, to.outpointsCoinPair());
+            out.name("outpointsCoinPacked");
+            writeBytes(out, to.outpointsCoinPacked());
+            out.name("signatures");
+            writeTxSigs(out, to.signatures());
+        }
+
+        @Override
+        boolean readField(JsonReader in, String name, SignTO to) throws IOException {
+            switch (name) {
+                case "transaction":
+                    to.transaction(readBytes(in));
+                    return true;
+                case "amountToSpend":
+                    if (!skipNull(in)) {
+                        to.amountToSpend(in.nextLong());
+                    }
+                    return true;
+                case "p2shAddressTo":
+                    to.p2shAddressTo(readString(in));
+                    return true;
+                case "outpointsCoinPair":
+                    to.outpointsCoinPair(readOutpointsCoinPair(in));
+                    return true;
+                case "outpointsCoinPacked":
+                    to.outpointsCoinPacked(readBytes(in));
+                    return true;
+                case "signatures":
+                    to.signatures(readTxSigs(in));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private static class SignVerifyTOAdapter extends TOAdapter<SignVerifyTO> {
+        @Override
+        SignVerifyTO create() {
+            return new SignVerifyTO();
+        }
+
+        @Override
+        void writeFields(JsonWriter out, SignVerifyTO to) throws IOException {
+            out.name("transaction");
+            writeBytes(out, to.transaction());
+            out.name("addressTo").value(to.addressTo());
+            out.name("amountToSpend").value(to.amountToSpend());
+            out.name("amountChange").value(to.amountChange());
+            out.name("signatures");
+            writeTxSigs(out, to.signatures());
+            out.name("payeePublicKey");
+            writeBytes(out, to.payeePublicKey());
+            out.name("payeeMessageSig");
+            writeTxSig(out, to.payeeMessageSig());
+        }
+
+        @Override
+        boolean readField(JsonReader in, String name, SignVerifyTO to) throws IOException {
+            switch (name) {
+                case "transaction":
+                    to.transaction(readBytes(in));
+                    return true;
+                case "addressTo":
+                    to.addressTo(readString(in));
+                    return true;
+                case "amountToSpend":
+                    if (!skipNull(in)) {
+                        to.amountToSpend(in.nextLong());
+                    }
+                    return true;
+                case "amountChange":
+                    if (!skipNull(in)) {
+                        to.amountChange(in.nextLong());
+                    }
+                    return true;
+                case "signatures":
+                    to.signatures(readTxSigs(in));
+                    return true;
+                case "payeePublicKey":
+                    to.payeePublicKey(readBytes(in));
+                    return true;
+                case "payeeMessageSig":
+                    to.payeeMessageSig(readTxSig(in));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private static class TimeLockedAddressTOAdapter extends TOAdapter<TimeLockedAddressTO> {
+        private final TimeLockedAddressAdapter addressAdapter = new TimeLockedAddressAdapter();
+
+        @Override
+        TimeLockedAddressTO create() {
+            return new TimeLockedAddressTO();
+        }
+
+        @Override
+        void writeFields(JsonWriter out, TimeLockedAddressTO to) throws IOException {
+            out.name("address");
+            addressAdapter.write(out, to.timeLockedAddress());
+            out.name("lockTime").value(to.lockTime());
+        }
+
+        @Override
+        boolean readField(JsonReader in, String name, TimeLockedAddressTO to) throws IOException {
+            switch (name) {
+                case "address":
+                    to.timeLockedAddress(addressAdapter.read(in));
+                    return true;
+                case "lockTime":
+                    if (!skipNull(in)) {
+                        to.lockTime(in.nextLong());
+                    }
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private static class UserAccountTOAdapter extends TOAdapter<UserAccountTO> {
+        @Override
+        UserAccountTO create() {
+            return new UserAccountTO();
+        }
+
+        @Override
+        void writeFields(JsonWriter out, UserAccountTO to) throws IOException {
+            out.name("email").value(to.email());
+            out.name("password").value(to.password());
+            out.name("balance").value(to.balance());
+        }
+
+        @Override
+        boolean readField(JsonReader in, String name, UserAccountTO to) throws IOException {
+            switch (name) {
+                case "email":
+                    to.email(readString(in));
+                    return true;
+                case "password":
+                    to.password(readString(in));
+                    return true;
+                case "balance":
+                    if (!skipNull(in)) {
+                        to.balance(in.nextLong());
+                    }
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private static class VerifyTOAdapter extends TOAdapter<VerifyTO> {
+        @Override
+        VerifyTO create() {
+            return new VerifyTO();
+        }
+
+        @Override
+        void writeFields(JsonWriter out, VerifyTO to) throws IOException {
+            out.name("transaction");
+            writeBytes(out, to.transaction());
+            out.name("amountToSpend").value(to.amountToSpend());
+            out.name("p2shAddressTo").value(to.p2shAddressTo());
+            out.name("outpointsCoinPair");
+            writeOutpointsCoinPair(out, to.outpointsCoinPair());
+            out.name("outpointsCoinPacked");
+            writeBytes(out, to.outpointsCoinPacked());
+            out.name("clientSignatures");
+            writeTxSigs(out, to.clientSignatures());
+            out.name("serverSignatures");
+            writeTxSigs(out, to.serverSignatures());
+        }
+
+        @Override
+        boolean readField(JsonReader in, String name, VerifyTO to) throws IOException {
+            switch (name) {
+                case "transaction":
+                    to.transaction(readBytes(in));
+                    return true;
+                case "amountToSpend":
+                    if (!skipNull(in)) {
+                        to.amountToSpend(in.nextLong());
+                    }
+                    return true;
+                case "p2shAddressTo":
+                    to.p2shAddressTo(readString(in));
+                    return true;
+                case "outpointsCoinPair":
+                    to.outpointsCoinPair(readOutpointsCoinPair(in));
+                    return true;
+                case "outpointsCoinPacked":
+                    to.outpointsCoinPacked(readBytes(in));
+                    return true;
+                case "clientSignatures":
+                    to.clientSignatures(readTxSigs(in));
+                    return true;
+                case "serverSignatures":
+                    to.serverSignatures(readTxSigs(in));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private static class VersionTOAdapter extends TOAdapter<VersionTO> {
+        @Override
+        VersionTO create() {
+            return new VersionTO();
+        }
+
+        @Override
+        void writeFields(JsonWriter out, VersionTO to) throws IOException {
+            out.name("clientVersion").value(to.clientVersion());
+            out.name("bitcoinNet").value(to.bitcoinNet() == null ? null : to.bitcoinNet().name());
+            out.name("isSupported").value(to.isSupported());
+        }
+
+        @Override
+        boolean readField(JsonReader in, String name, VersionTO to) throws IOException {
+            switch (name) {
+                case "clientVersion":
+                    to.clientVersion(readString(in));
+                    return true;
+                case "bitcoinNet":
+                    final String net = readString(in);
+                    to.bitcoinNet(net == null ? null : bitcoinNet(net));
+                    return true;
+                case "isSupported":
+                    if (!skipNull(in)) {
+                        if (in.peek() == JsonToken.STRING) {
+                            to.setSupported(Boolean.parseBoolean(in.nextString()));
+                        } else {
+                            to.setSupported(in.nextBoolean());
+                        }
+                    }
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        /* like the enum adapter of Gson, unknown names are mapped to null */
+        private static BitcoinNet bitcoinNet(String name) {
+            try {
+                return BitcoinNet.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class TxSigAdapter extends TypeAdapter<TxSig> {
+        @Override
+        public void write(JsonWriter out, TxSig value) throws IOException {
+            writeTxSig(out, value);
+        }
+
+        @Override
+        public TxSig read(JsonReader in) throws IOException {
+            return readTxSig(in);
+        }
+    }
+
+    /**
+     * Writes the fields of a {@link TimeLockedAddress}, the address hash is recalculated when
+     * reading.
+     */
+    private static class TimeLockedAddressAdapter extends TypeAdapter<TimeLockedAddress> {
+        @Override
+        public void write(JsonWriter out, TimeLockedAddress value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("clientPubKey");
+            writeBytes(out, value.getClientPubKey());
+            out.name("serverPubKey");
+            writeBytes(out, value.getServerPubKey());
+            out.name("lockTime").value(value.getLockTime());
+            out.name("addressHash");
+            writeBytes(out, value.getAddressHash());
+            out.endObject();
+        }
+
+        @Override
+        public TimeLockedAddress read(JsonReader in) throws IOException {
+            if (skipNull(in)) {
+                return null;
+            }
+            byte[] clientPubKey = null;
+            byte[] serverPubKey = null;
+            long lockTime = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "clientPubKey":
+                        clientPubKey = readBytes(in);
+                        break;
+                    case "serverPubKey":
+                        serverPubKey = readBytes(in);
+                        break;
+                    case "lockTime":
+                        if (!skipNull(in)) {
+                            lockTime = in.nextLong();
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            try {
+                return new TimeLockedAddress(clientPubKey, serverPubKey, lockTime);
+            } catch (IllegalArgumentException e) {
+                throw new JsonParseException("invalid time locked address", e);
+            }
+        }
+    }
+
+    private static void writeBytes(JsonWriter out, byte[] value) throws IOException {
+        out.value(value == null ? null : Base64.encodeToString(value, Base64.NO_WRAP));
+    }
+
+    private static byte[] readBytes(JsonReader in) throws IOException {
+        final String value = readString(in);
+        return value == null ? null : Base64.decode(value, Base64.NO_WRAP);
+    }
+
+    private static void writeTxSig(JsonWriter out, TxSig value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("sigR").value(value.sigR());
+        out.name("sigS").value(value.sigS());
+        out.name("version").value(value.version());
+        out.endObject();
+    }
+
+    private static TxSig readTxSig(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        final TxSig txSig = new TxSig();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "sigR":
+                    txSig.sigR(readString(in));
+                    break;
+                case "sigS":
+                    txSig.sigS(readString(in));
+                    break;
+                case "version":
+                    if (!skipNull(in)) {
+                        txSig.version(in.nextInt());
+                    }
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return txSig;
+    }
+
+    private static void writeTxSigs(JsonWriter out, List<TxSig> values) throws IOException {
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (TxSig txSig : values) {
+            writeTxSig(out, txSig);
+        }
+        out.endArray();
+    }
+
+    private static List<TxSig> readTxSigs(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        final List<TxSig> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            values.add(readTxSig(in));
+        }
+        in.endArray();
+        return values;
+    }
+
+    private static void writeOutpointsCoinPair(JsonWriter out, List<Pair<byte[], Long>> values)
+            throws IOException {
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (Pair<byte[], Long> p : values) {
+            if (p == null) {
+                out.nullValue();
+                continue;
+            }
+            out.beginObject();
+            out.name("element0");
+            writeBytes(out, p.element0());
+            out.name("element1").value(p.element1());
+            out.endObject();
+        }
+        out.endArray();
+    }
+
+    private static List<Pair<byte[], Long>> readOutpointsCoinPair(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        final List<Pair<byte[], Long>> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            if (skipNull(in)) {
+                values.add(null);
+                continue;
+            }
+            byte[] outpoint = null;
+            Long value = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "element0":
+                        outpoint = readBytes(in);
+                        break;
+                    case "element1":
+                        value = skipNull(in) ? null : in.nextLong();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            values.add(new Pair<>(outpoint, value));
+        }
+        in.endArray();
+        return values;
+    }
+
+    /* same as the string adapter of Gson, booleans are accepted as well */
+    private static String readString(JsonReader in) throws IOException {
+        final JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+
+    /* consumes a JSON null, returns true if there was one */
+    private static boolean skipNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return true;
+        }
+        return false;
+    }
+}
@@ -23,6 +23,8 @@ public class TxSig {
 
     private String sigR;
     private String sigS;
+    // encoding of sigR and sigS, null for decimal, see SerializeUtils.SIGNATURE_VERSION_COMPACT
+    private Integer version;
 
     public TxSig sigR(String sigR) {
         this.sigR = sigR;
@@ -41,4 +43,13 @@ public class TxSig {
     public String sigS() {
         return sigS;
     }
+
+    public TxSig version(Integer version) {
+        this.version = version;
+        return this;
+    }
+
+    public Integer version() {
+        return version;
+    }
 }
@@ -31,6 +31,7 @@ public class VerifyTO extends BaseTO<VerifyTO> {
     private long amountToSpend; //input 
     private String p2shAddressTo; //input
     private List<Pair<byte[],Long>> outpointsCoinPair; //input
+    private byte[] outpointsCoinPacked; //input, packed alternative, see PackedOutPoints
     
     private List<TxSig> clientSignatures; //input
     private List<TxSig> serverSignatures; //input
@@ -91,4 +92,13 @@ public class VerifyTO extends BaseTO<VerifyTO> {
     public List<Pair<byte[],Long>> outpointsCoinPair() {
         return outpointsCoinPair;
     }
+
+    public VerifyTO outpointsCoinPacked(byte[] outpointsCoinPacked) {
+        this.outpointsCoinPacked = outpointsCoinPacked;
+        return this;
+    }
+
+    public byte[] outpointsCoinPacked() {
+        return outpointsCoinPacked;
+    }
 }
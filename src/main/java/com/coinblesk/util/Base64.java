@@ -636,7 +636,10 @@ public class Base64 {
                         if (do_cr) output[op++] = '\r';
                         output[op++] = '\n';
                     }
-                } else if (do_newline && op > 0 && count != LINE_GROUPS) {
+                } else if (do_newline && count != LINE_GROUPS) {
+                    // count tracks the groups emitted since the last newline
+                    // over all calls, so this also holds if the final call
+                    // itself produced no output (streaming use).
                     if (do_cr) output[op++] = '\r';
                     output[op++] = '\n';
                 }
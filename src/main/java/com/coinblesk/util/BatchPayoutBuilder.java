@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates one transaction that pays many recipients, e.g. all pending payouts of a batch. The
+ * sender pays the fee, the coins are selected once for the whole batch.
+ *
+ * <ul>
+ * <li>Amounts added for the same address are summed up into one output, so that several small
+ * payouts to the same user are consolidated before the dust check.</li>
+ * <li>Recipients whose amount is still dust are removed from the transaction, they are available
+ * through {@link #dust()} to be paid in a later batch.</li>
+ * <li>Coins are selected largest first, coins worth less than the fee for spending them are
+ * skipped. Change that would be dust is left to the fee.</li>
+ * <li>Inputs and outputs are sorted as in {@link BitcoinUtils#sortInputs(List)} and
+ * {@link BitcoinUtils#sortOutputs(List)}.</li>
+ * </ul>
+ */
+public class BatchPayoutBuilder {
+
+    private final static Logger LOG = LoggerFactory.getLogger(BatchPayoutBuilder.class);
+
+    private final NetworkParameters params;
+    private final Address changeAddress;
+    private final Map<Address, Long> recipients = new LinkedHashMap<Address, Long>();
+    private final List<Pair<Address, Coin>> dust = new ArrayList<Pair<Address, Coin>>();
+
+    public BatchPayoutBuilder(final NetworkParameters params, final Address changeAddress) {
+        this.params = params;
+        this.changeAddress = changeAddress;
+    }
+
+    /**
+     * Adds a payout, amounts for the same address are added up.
+     */
+    public BatchPayoutBuilder addRecipient(final Address address, final Coin amount) {
+        if (!amount.isPositive()) {
+            throw new IllegalArgumentException("amount for " + address + " must be positive: " + amount);
+        }
+        final Long previous = recipients.get(address);
+        recipients.put(address, previous == null ? amount.value : previous + amount.value);
+        return this;
+    }
+
+    public int nrRecipients() {
+        return recipients.size();
+    }
+
+    /**
+     * @return the recipients removed from the last built transaction because their amount was dust
+     */
+    public List<Pair<Address, Coin>> dust() {
+        return Collections.unmodifiableList(dust);
+    }
+
+    /**
+     * Creates the transaction, spending some of the given outputs.
+     *
+     * @throws InsufficientFunds if the outputs cannot cover the payouts and the fee
+     * @throws CoinbleskException if no recipient is left after removing dust, or the transaction
+     *         fails the sanity checks
+     */
+    public Transaction build(final List<TransactionOutput> available) throws CoinbleskException,
+            InsufficientFunds {
+        dust.clear();
+        final TransactionBuilder builder = new TransactionBuilder(params);
+        final Transaction tx = builder.transaction();
+
+        final List<TransactionOutput> payouts = new ArrayList<TransactionOutput>(recipients.size());
+        long amountToSpend = 0;
+        int outputRegular = 0;
+        int outputP2SH = 0;
+        for (Map.Entry<Address, Long> recipient : recipients.entrySet()) {
+            final Coin amount = Coin.valueOf(recipient.getValue());
+            final TransactionOutput output = new TransactionOutput(params, tx, amount, recipient.getKey());
+            if (amount.isLessThan(output.getMinNonDustValue())) {
+                LOG.debug("removing dust payout {} to {}", amount, recipient.getKey());
+                dust.add(new Pair<Address, Coin>(recipient.getKey(), amount));
+                continue;
+            }
+            payouts.add(output);
+            amountToSpend += amount.value;
+            if (output.getScriptPubKey().isPayToScriptHash()) {
+                outputP2SH++;
+            } else {
+                outputRegular++;
+            }
+        }
+        if (payouts.isEmpty()) {
+            throw new CoinbleskException("no recipient left after removing " + dust.size() + " dust payouts");
+        }
+
+        // largest first, equal values in outpoint order to stay deterministic
+        final List<TransactionOutput> candidates = BitcoinUtils.sortByOutPoint(available);
+        Collections.sort(candidates, new Comparator<TransactionOutput>() {
+            @Override
+            public int compare(TransactionOutput o1, TransactionOutput o2) {
+                return o2.getValue().compareTo(o1.getValue());
+            }
+        });
+
+        final int emptyFee = BitcoinUtils.calcFee(0, 0, 0, 0);
+        final int regularInputFee = BitcoinUtils.calcFee(0, 0, 1, 0) - emptyFee;
+        final int p2shInputFee = BitcoinUtils.calcFee(0, 0, 0, 1) - emptyFee;
+
+        final List<TransactionOutput> selected = new ArrayList<TransactionOutput>();
+        long inputValue = 0;
+        int inputRegular = 0;
+        int inputP2SH = 0;
+        for (TransactionOutput candidate : candidates) {
+            if (inputValue >= amountToSpend
+                    + BitcoinUtils.calcFee(outputRegular, outputP2SH, inputRegular, inputP2SH)) {
+                break;
+            }
+            final boolean p2sh = candidate.getScriptPubKey().isPayToScriptHash();
+            if (candidate.getValue().value <= (p2sh ? p2shInputFee : regularInputFee)) {
+                continue;
+            }
+            selected.add(candidate);
+            inputValue += candidate.getValue().value;
+            if (p2sh) {
+                inputP2SH++;
+            } else {
+                inputRegular++;
+            }
+        }
+        final long feeWithoutChange = BitcoinUtils.calcFee(outputRegular, outputP2SH, inputRegular, inputP2SH);
+        if (inputValue < amountToSpend + feeWithoutChange) {
+            throw new InsufficientFunds("cannot pay " + amountToSpend + " and fee " + feeWithoutChange
+                    + " with " + inputValue);
+        }
+
+        for (TransactionOutput output : BitcoinUtils.sortByOutPoint(selected)) {
+            builder.addInput(output);
+        }
+
+        final boolean changeP2SH = changeAddress.isP2SHAddress();
+        final long feeWithChange = BitcoinUtils.calcFee(outputRegular + (changeP2SH ? 0 : 1),
+                outputP2SH + (changeP2SH ? 1 : 0), inputRegular, inputP2SH);
+        final Coin change = Coin.valueOf(inputValue - amountToSpend - feeWithChange);
+        final TransactionOutput changeOutput = change.isPositive()
+                ? new TransactionOutput(params, tx, change, changeAddress) : null;
+        if (changeOutput != null && !change.isLessThan(changeOutput.getMinNonDustValue())) {
+            payouts.add(changeOutput);
+        } else {
+            LOG.debug("change {} is dust, adding it to the fee", change);
+        }
+
+        for (TransactionOutput output : BitcoinUtils.sortOutputs(payouts)) {
+            builder.addOutput(output);
+        }
+        return builder.build();
+    }
+}
@@ -17,6 +17,7 @@ package com.coinblesk.util;
 
 import com.google.common.primitives.UnsignedBytes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -37,9 +38,12 @@ import org.bitcoinj.core.VerificationException;
 import org.bitcoinj.crypto.TransactionSignature;
 import org.bitcoinj.script.Script;
 import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.script.ScriptChunk;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.coinblesk.bitcoin.UtxoSet;
+
 /**
  * @author Thomas Bocek
  * @author Andreas Albrecht
@@ -49,12 +53,14 @@ public class BitcoinUtils {
     private final static Logger LOG = LoggerFactory.getLogger(BitcoinUtils.class);
     public final static long ONE_BITCOIN_IN_SATOSHI = Coin.COIN.value;
     public final static int SATOSHIS_PER_BYTE = 30;
+    // multisig redeem scripts of the accounts, see createRedeemScript
+    public final static RedeemScriptCache REDEEM_SCRIPT_CACHE = new RedeemScriptCache();
     
     public static Transaction createRefundTx(final NetworkParameters params, 
             final List<Pair<TransactionOutPoint, Coin>> refundClientPoints, final Script redeemScript,
                             Address refundSendTo, long lockTimeSeconds) throws CoinbleskException, InsufficientFunds {
-        final Transaction tx = new Transaction(params);
-        long totalAmount = 0;
+        final TransactionBuilder builder = new TransactionBuilder(params);
+        final List<TransactionInput> inputs = new ArrayList<TransactionInput>(refundClientPoints.size());
 
         for (final Pair<TransactionOutPoint, Coin> p : refundClientPoints) {
             if(p.element1() == null) {
@@ -64,43 +70,84 @@ public class BitcoinUtils {
             final TransactionInput ti = new TransactionInput(params, null,
                     redeemScript.getProgram(), p.element0(), coin);
             ti.setSequenceNumber(0); //we want to timelock
-            tx.addInput(ti);
-            totalAmount += coin.getValue();
+            inputs.add(ti);
         }
         
         //now make it deterministic
-        sortTransactionInputs(tx);
-        createRefundTxOutputs(params, tx, totalAmount, refundSendTo);
-        tx.setLockTime(lockTimeSeconds);
-        return tx;
+        for (TransactionInput ti : sortInputs(inputs)) {
+            builder.addInput(ti);
+        }
+        createRefundTxOutputs(params, builder, refundSendTo);
+        builder.transaction().setLockTime(lockTimeSeconds);
+        return builder.transaction();
     }
     
+    /**
+     * Same as {@link #createRefundTx(NetworkParameters, List, Script, Address, long)}, but with
+     * {@link OutPointValue}s, which cannot have a missing coin.
+     */
+    public static Transaction createRefundTx(final NetworkParameters params,
+            final Collection<OutPointValue> refundClientPoints, final Script redeemScript,
+            Address refundSendTo, long lockTimeSeconds) throws CoinbleskException, InsufficientFunds {
+        final TransactionBuilder builder = new TransactionBuilder(params);
+        createRefundTx(params, builder, new ArrayList<TransactionInput>(refundClientPoints.size()),
+                refundClientPoints, redeemScript, refundSendTo, lockTimeSeconds);
+        return builder.transaction();
+    }
+
+    /**
+     * Creates the refund into the given, empty builder. The list of inputs is cleared and used as
+     * scratch space, so that it can be reused for many refunds.
+     */
+    static void createRefundTx(final NetworkParameters params, final TransactionBuilder builder,
+            final List<TransactionInput> inputs, final Collection<OutPointValue> refundClientPoints,
+            final Script redeemScript, Address refundSendTo, long lockTimeSeconds)
+            throws CoinbleskException, InsufficientFunds {
+        final byte[] program = redeemScript.getProgram();
+        inputs.clear();
+        for (final OutPointValue p : refundClientPoints) {
+            final TransactionInput ti = new TransactionInput(params, null,
+                    program, p.toOutPoint(params), p.coin());
+            ti.setSequenceNumber(0); //we want to timelock
+            inputs.add(ti);
+        }
+
+        //now make it deterministic
+        for (TransactionInput ti : sortInputs(inputs)) {
+            builder.addInput(ti);
+        }
+        createRefundTxOutputs(params, builder, refundSendTo);
+        builder.transaction().setLockTime(lockTimeSeconds);
+    }
+
     public static Transaction createTx(NetworkParameters params, 
     		final List<TransactionOutput> outputs, final Address changeAddress, 
     		Address addressTo, long amountToSpend, boolean senderPaysFee) 
             throws CoinbleskException, InsufficientFunds {
         
-        final Transaction tx = new Transaction(params);
-        long totalAmount = 0;
-        
-        int nrInputRegular = 0;
-        int nrInputsP2SH = 0;
-        
-        for (TransactionOutput output : outputs) {
-            tx.addInput(output);
-            if(output.getScriptPubKey().isPayToScriptHash()) {
-                nrInputsP2SH++;
-            } else {
-                nrInputRegular++;
-            }
-            totalAmount += output.getValue().value;
+        final TransactionBuilder builder = new TransactionBuilder(params);
+        //add them in a deterministic order
+        for (TransactionOutput output : sortByOutPoint(outputs)) {
+            builder.addInput(output);
         }
         
-        //now make it deterministic
-        sortTransactionInputs(tx);
-        return createTxOutputs(params, tx, nrInputRegular, nrInputsP2SH, totalAmount, changeAddress, addressTo, 
-                amountToSpend, senderPaysFee);
+        return createTxOutputs(params, builder, changeAddress, addressTo, amountToSpend, senderPaysFee);
+        
+    }
+
+    /**
+     * Same as {@link #createTx(NetworkParameters, List, Address, Address, long, boolean)}, but
+     * spends the entries of the set with the given indices, e.g. from
+     * {@link UtxoSet#selectLargestFirst(long, Address)}. The entries are not marked as spent.
+     */
+    public static Transaction createTx(NetworkParameters params, 
+            final UtxoSet utxos, final int[] indices, final Address changeAddress, 
+            Address addressTo, long amountToSpend, boolean senderPaysFee) 
+            throws CoinbleskException, InsufficientFunds {
         
+        final TransactionBuilder builder = new TransactionBuilder(params);
+        addInputsSorted(params, builder, utxos, indices);
+        return createTxOutputs(params, builder, changeAddress, addressTo, amountToSpend, senderPaysFee);
     }
 
     public static Transaction createTx(NetworkParameters params, 
@@ -108,12 +155,9 @@ public class BitcoinUtils {
                 Address p2shAddressFrom, Address p2shAddressTo, long amountToSpend, boolean senderPaysFee) 
             throws CoinbleskException, InsufficientFunds {
 
-        final Transaction tx = new Transaction(params);
-        long totalAmount = 0;
+        final TransactionBuilder builder = new TransactionBuilder(params);
+        final List<TransactionInput> inputs = new ArrayList<TransactionInput>(outputsToUse.size());
 
-        int nrInputRegular = 0;
-        int nrInputsP2SH = 0;
-        
         for (final Pair<TransactionOutPoint, Coin> p : outputsToUse) {
             if(p.element1() == null) {
                 throw new CoinbleskException("Coin cannot be null");
@@ -121,40 +165,71 @@ public class BitcoinUtils {
             final Coin coin = p.element1();
             final TransactionInput ti = new TransactionInput(params, null,
                     redeemScript.getProgram(), p.element0(), coin);
-            TransactionInput input = tx.addInput(ti);
-            //with the redeem script, we always have p2sh
-            nrInputsP2SH++;
-            totalAmount += coin.getValue();
+            inputs.add(ti);
         }
         
-        //now make it deterministic
-        sortTransactionInputs(tx);
-        return createTxOutputs(params, tx, nrInputRegular, nrInputsP2SH, totalAmount, p2shAddressFrom, p2shAddressTo, amountToSpend, 
-                senderPaysFee);
+        //now make it deterministic, with the redeem script, we always have p2sh
+        for (TransactionInput ti : sortInputs(inputs)) {
+            builder.addInput(ti, true);
+        }
+        return createTxOutputs(params, builder, p2shAddressFrom, p2shAddressTo, amountToSpend, senderPaysFee);
+    }
+
+    /**
+     * Same as {@link #createTx(NetworkParameters, List, Script, Address, Address, long, boolean)},
+     * but with {@link OutPointValue}s, which cannot have a missing coin.
+     */
+    public static Transaction createTx(NetworkParameters params,
+            final Collection<OutPointValue> outputsToUse, final Script redeemScript,
+            Address p2shAddressFrom, Address p2shAddressTo, long amountToSpend, boolean senderPaysFee)
+            throws CoinbleskException, InsufficientFunds {
+
+        final TransactionBuilder builder = new TransactionBuilder(params);
+        final List<TransactionInput> inputs = new ArrayList<TransactionInput>(outputsToUse.size());
+        final byte[] program = redeemScript.getProgram();
+
+        for (final OutPointValue p : outputsToUse) {
+            final TransactionInput ti = new TransactionInput(params, null,
+                    program, p.toOutPoint(params), p.coin());
+            inputs.add(ti);
+        }
+
+        //now make it deterministic, with the redeem script, we always have p2sh
+        for (TransactionInput ti : sortInputs(inputs)) {
+            builder.addInput(ti, true);
+        }
+        return createTxOutputs(params, builder, p2shAddressFrom, p2shAddressTo, amountToSpend, senderPaysFee);
     }
 
     public static Transaction createSpendAllTx(NetworkParameters params,
             List<TransactionOutput> outputs, Address addressTo)
             throws CoinbleskException {
-        final Transaction tx = new Transaction(params);
+        final TransactionBuilder builder = new TransactionBuilder(params);
+
+        //add them in a deterministic order
+        for (TransactionOutput output : sortByOutPoint(outputs)) {
+            builder.addInput(output);
+        }
+        return createSpendAllTxOutputs(params, builder, addressTo);
+    }
+
+    /**
+     * Same as {@link #createSpendAllTx(NetworkParameters, List, Address)}, but spends the entries
+     * of the set with the given indices. The entries are not marked as spent.
+     */
+    public static Transaction createSpendAllTx(NetworkParameters params,
+            UtxoSet utxos, int[] indices, Address addressTo)
+            throws CoinbleskException {
+        final TransactionBuilder builder = new TransactionBuilder(params);
+        addInputsSorted(params, builder, utxos, indices);
+        return createSpendAllTxOutputs(params, builder, addressTo);
+    }
 
+    private static Transaction createSpendAllTxOutputs(NetworkParameters params, TransactionBuilder builder,
+            Address addressTo) throws CoinbleskException {
         int outputRegular = 0;
         int outputP2SH = 0;
-        int nrInputRegular = 0;
-        int nrInputsP2SH = 0;
-
-        long totalAmount = 0;
-        for (TransactionOutput output : outputs) {
-            tx.addInput(output);
-            if(output.getScriptPubKey().isPayToScriptHash()) {
-                nrInputsP2SH++;
-            } else {
-                nrInputRegular++;
-            }
-            totalAmount += output.getValue().value;
-        }
-        //now make it deterministic
-        sortTransactionInputs(tx);
+        final long totalAmount = builder.inputValue();
 
         if (addressTo.isP2SHAddress()) {
             outputP2SH++;
@@ -162,7 +237,7 @@ public class BitcoinUtils {
             outputRegular++;
         }
 
-        final long feeOneOutput = calcFee(outputRegular, outputP2SH, nrInputRegular, nrInputsP2SH);
+        final long feeOneOutput = calcFee(outputRegular, outputP2SH, builder.nrInputsRegular(), builder.nrInputsP2SH());
 
         Coin amountToSend = Coin.valueOf(totalAmount - feeOneOutput);
         if (!amountToSend.isPositive()) {
@@ -170,36 +245,37 @@ public class BitcoinUtils {
                     "Amount (" + totalAmount + ") too small (does not cover fee of " + feeOneOutput + ")");
         }
 
-        TransactionOutput txOutRecipient = new TransactionOutput(params, tx, amountToSend, addressTo);
+        TransactionOutput txOutRecipient = new TransactionOutput(params, builder.transaction(), amountToSend, addressTo);
         checkMinValue(txOutRecipient);
-        tx.addOutput(txOutRecipient);
-
-        checkFee(tx);
+        builder.addOutput(txOutRecipient);
 
-        verifyTxSimple(tx);
-
-        return tx;
+        return builder.build();
     }
     
-    private static Transaction createRefundTxOutputs (NetworkParameters params, Transaction tx, long totalAmount, 
+    private static Transaction createRefundTxOutputs (NetworkParameters params, TransactionBuilder builder,
             Address p2shAddressTo) throws CoinbleskException, InsufficientFunds {
-        final int fee = calcFee(tx);
+        final int fee = builder.calcFee();
         LOG.debug("adding tx fee in satoshis {}", fee);
-        final long remainingAmount = totalAmount - fee;
+        final long remainingAmount = builder.inputValue() - fee;
         TransactionOutput transactionOutputRecipient
-                = new TransactionOutput(params, tx, Coin.valueOf(remainingAmount), p2shAddressTo);
+                = new TransactionOutput(params, builder.transaction(), Coin.valueOf(remainingAmount), p2shAddressTo);
         if (!transactionOutputRecipient.getValue().isLessThan(transactionOutputRecipient.getMinNonDustValue())) {
-            tx.addOutput(transactionOutputRecipient);
+            builder.addOutput(transactionOutputRecipient);
         } else {
             throw new InsufficientFunds();
         }
-        return tx;
+        return builder.transaction();
     }
     
-    private static Transaction createTxOutputs(final NetworkParameters params, final Transaction tx, 
-            final int nrInputRegular, final int nrInputsP2SH, final long totalAmount, final Address changeAddress, final Address p2shAddressTo, 
+    private static Transaction createTxOutputs(final NetworkParameters params, final TransactionBuilder builder,
+            final Address changeAddress, final Address p2shAddressTo, 
             final long amountToSpend, final boolean senderPaysFee) throws CoinbleskException, InsufficientFunds {
 
+        final Transaction tx = builder.transaction();
+        final long totalAmount = builder.inputValue();
+        final int nrInputRegular = builder.nrInputsRegular();
+        final int nrInputsP2SH = builder.nrInputsP2SH();
+
         if (amountToSpend > totalAmount) {
             throw new InsufficientFunds();
         }
@@ -222,12 +298,9 @@ public class BitcoinUtils {
             //if we want to spend it all, it does not matter who pays the tx fee
             Coin spend = Coin.valueOf(newAmountToSpend);
             TransactionOutput spendOutput = new TransactionOutput(params, tx, spend, p2shAddressTo);
-            tx.addOutput(spendOutput);
+            builder.addOutput(spendOutput);
             //failsafe if fees large
-            checkFee(tx);
-            sortTransactionOutputs(tx);
-            verifyTxSimple(tx);
-            return tx;
+            return builder.build();
         }
         
         //now with changeaddress
@@ -258,8 +331,7 @@ public class BitcoinUtils {
             Coin sendDust = spendOutput.getMinNonDustValue();
             if(!change.isLessThan(changeDust) && !spend.isLessThan(sendDust)) {
                 //we are good to go with two outputs!
-                tx.addOutput(changeOutput);
-                tx.addOutput(spendOutput);
+                addOutputsSorted(builder, Arrays.asList(changeOutput, spendOutput));
             } else if(!spend.isLessThan(sendDust)) {
                 //we need to change to one output as change is too small. Add remaining value to the amount, to
                 //have exactly the calculated fee
@@ -268,7 +340,7 @@ public class BitcoinUtils {
                 if(spend.isLessThan(spendOutput.getMinNonDustValue())) {
                     throw new CoinbleskException("spend considered dust, increase the amount to spend: "+change+"/"+spendOutput.getMinNonDustValue());
                 }
-                tx.addOutput(spendOutput);
+                builder.addOutput(spendOutput);
             } else {
                 throw new CoinbleskException("both change and spend too small1: "+change+"/"+spend);
             }
@@ -287,8 +359,7 @@ public class BitcoinUtils {
                 Coin changeDust = changeOutput.getMinNonDustValue();
                 if(!change.isLessThan(changeDust) && !spend.isLessThan(sendDust)) {
                     //we are good to go with two outputs!
-                    tx.addOutput(changeOutput);
-                    tx.addOutput(spendOutput);
+                    addOutputsSorted(builder, Arrays.asList(changeOutput, spendOutput));
                 } 
             } else if(!spend.isLessThan(sendDust)) {
                 //change too small, calculate with one output tx
@@ -296,7 +367,7 @@ public class BitcoinUtils {
                 if(newAmountToSpend >= amountToSpend) {
                     spend = Coin.valueOf(newAmountToSpend);
                     spendOutput = new TransactionOutput(params, tx, spend, p2shAddressTo);
-                    tx.addOutput(spendOutput);
+                    builder.addOutput(spendOutput);
                 } else {
                     throw new CoinbleskException("not enough funds to cover fees: "+newAmountToSpend+"/"+amountToSpend);
                 }
@@ -306,20 +377,10 @@ public class BitcoinUtils {
         }
         
         //failsafe if fees large
-        checkFee(tx);
-        sortTransactionOutputs(tx);
-        verifyTxSimple(tx);
-        return tx;
+        return builder.build();
     }
     
-    private static void checkFee(Transaction tx) throws CoinbleskException {
-		int maxFee = tx.unsafeBitcoinSerialize().length * 750;
-        if(tx.getFee().value > maxFee) {
-            throw new CoinbleskException("Failsafe: fees are large: " + tx.getFee().value + " vs. " + maxFee);
-        }		
-	}
-
-	private static void checkMinValue(TransactionOutput txOut) throws CoinbleskException {
+    private static void checkMinValue(TransactionOutput txOut) throws CoinbleskException {
         if (txOut.getValue().isLessThan(txOut.getMinNonDustValue())) {
             throw new CoinbleskException("Value "+txOut.getValue()+" too small, cannot create tx");
         }
@@ -369,6 +430,42 @@ public class BitcoinUtils {
         return 10 + (outputRegular * 34) + (nrOutputsP2SH * 32) + (nrInputRegular * 148) + (nrInputsP2SH * 259);
     }
     
+    /**
+     * Estimates the weight (BIP 141) of a transaction with witness inputs, 4 weight units per
+     * byte outside of the witnesses and 1 per byte in the witnesses. The witness of a P2WSH or
+     * P2SH-P2WSH input is estimated with 229 bytes, the size of the witness of a time locked
+     * address spent before the lock time, which is larger than the one of a 2-of-2 multisig (220).
+     */
+    public static int estimateWeight(int outputRegular, int nrOutputsP2SH, int nrOutputsP2WSH,
+            int nrInputRegular, int nrInputsP2SH, int nrInputsP2WSH, int nrInputsP2SHP2WSH) {
+        //input of p2wsh: 41 (outpoint, empty scriptSig, sequence) + 229 witness
+        //input of p2sh-p2wsh: 41 + 35 (push of the witness program) + 229 witness
+        //output of p2wsh: 43
+        final int size = estimateSize(outputRegular, nrOutputsP2SH, nrInputRegular, nrInputsP2SH)
+                + (nrOutputsP2WSH * 43) + (nrInputsP2WSH * 41) + (nrInputsP2SHP2WSH * 76);
+        final int nrInputsWitness = nrInputsP2WSH + nrInputsP2SHP2WSH;
+        if (nrInputsWitness == 0) {
+            return size * 4;
+        }
+        //marker and flag, an empty witness for the other inputs
+        return size * 4 + 2 + nrInputRegular + nrInputsP2SH + (nrInputsWitness * 229);
+    }
+
+    /**
+     * @return the virtual size (weight / 4, rounded up), the size that fees are paid for
+     */
+    public static int estimateVirtualSize(int outputRegular, int nrOutputsP2SH, int nrOutputsP2WSH,
+            int nrInputRegular, int nrInputsP2SH, int nrInputsP2WSH, int nrInputsP2SHP2WSH) {
+        return (estimateWeight(outputRegular, nrOutputsP2SH, nrOutputsP2WSH,
+                nrInputRegular, nrInputsP2SH, nrInputsP2WSH, nrInputsP2SHP2WSH) + 3) / 4;
+    }
+
+    public static int calcWitnessFee(int outputRegular, int nrOutputsP2SH, int nrOutputsP2WSH,
+            int nrInputRegular, int nrInputsP2SH, int nrInputsP2WSH, int nrInputsP2SHP2WSH) {
+        return estimateVirtualSize(outputRegular, nrOutputsP2SH, nrOutputsP2WSH,
+                nrInputRegular, nrInputsP2SH, nrInputsP2WSH, nrInputsP2SHP2WSH) * SATOSHIS_PER_BYTE;
+    }
+    
     public static Transaction sign(NetworkParameters params, Transaction tx, ECKey signKey) {
         final int len = tx.getInputs().size();
         //final List<TransactionSignature> signatures = new ArrayList<TransactionSignature>(len);
@@ -387,8 +484,10 @@ public class BitcoinUtils {
     public static List<TransactionSignature> partiallySign(Transaction tx, Script redeemScript, ECKey signKey) {
         final int len = tx.getInputs().size();
         final List<TransactionSignature> signatures = new ArrayList<TransactionSignature>(len);
+        final SigHashEngine sigHashes = new SigHashEngine(tx);
+        final byte[] program = redeemScript.getProgram();
         for (int i = 0; i < len; i++) {
-            final Sha256Hash sighash = tx.hashForSignature(i, redeemScript, Transaction.SigHash.ALL, false);
+            final Sha256Hash sighash = sigHashes.hashForSignature(i, program);
             final TransactionSignature serverSignature = new TransactionSignature(
                     signKey.sign(sighash), Transaction.SigHash.ALL, false);
             LOG.debug("partially sign for input {}({}), redeemscript={}, sig is {}", i, tx.getInput(i),
@@ -398,14 +497,59 @@ public class BitcoinUtils {
         return signatures;
     }
     
+    /**
+     * Same as {@link #partiallySign(Transaction, Script, ECKey)}, but signs with the given signer,
+     * e.g. a {@link PrecomputedSigner} for the server key.
+     */
+    public static List<TransactionSignature> partiallySign(Transaction tx, Script redeemScript, Signer signer) {
+        final int len = tx.getInputs().size();
+        final List<TransactionSignature> signatures = new ArrayList<TransactionSignature>(len);
+        final SigHashEngine sigHashes = new SigHashEngine(tx);
+        final byte[] program = redeemScript.getProgram();
+        for (int i = 0; i < len; i++) {
+            final Sha256Hash sighash = sigHashes.hashForSignature(i, program);
+            final TransactionSignature serverSignature = new TransactionSignature(
+                    signer.sign(sighash), Transaction.SigHash.ALL, false);
+            LOG.debug("partially sign for input {}({}), redeemscript={}, sig is {}", i, tx.getInput(i),
+                    redeemScript, sighash, serverSignature);
+            signatures.add(serverSignature);
+        }
+        return signatures;
+    }
+
+    /**
+     * Signs all inputs of tx, which spend P2WSH or P2SH-P2WSH outputs of witnessScript, with the
+     * signature hash of BIP 143.
+     *
+     * @param inputValues the values of the spent outputs, in the order of the inputs
+     */
+    public static List<TransactionSignature> partiallySignWitness(Transaction tx, Script witnessScript,
+            List<Coin> inputValues, ECKey signKey) {
+        final int len = tx.getInputs().size();
+        final List<TransactionSignature> signatures = new ArrayList<TransactionSignature>(len);
+        final WitnessSigHashEngine sigHashes = new WitnessSigHashEngine(tx, inputValues);
+        final byte[] program = witnessScript.getProgram();
+        for (int i = 0; i < len; i++) {
+            final Sha256Hash sighash = sigHashes.hashForSignature(i, program);
+            final TransactionSignature serverSignature = new TransactionSignature(
+                    signKey.sign(sighash), Transaction.SigHash.ALL, false);
+            LOG.debug("partially sign witness input {}({}), witnessScript={}, sig is {}", i, tx.getInput(i),
+                    witnessScript, serverSignature);
+            signatures.add(serverSignature);
+        }
+        return signatures;
+    }
+
 	public static List<TransactionSignature> partiallySign(Transaction tx, List<byte[]> redeemScripts, ECKey signKey) {
 		final int len = tx.getInputs().size();
 		if (redeemScripts.size() != len) {
 			throw new IllegalArgumentException("Number of redeemScripts must match inputs.");
 		}
 		final List<TransactionSignature> signatures = new ArrayList<>(len);
+		final SigHashEngine sigHashes = new SigHashEngine(tx);
 		for (int i = 0; i < len; ++i) {
-			TransactionSignature txSig = tx.calculateSignature(i, signKey, redeemScripts.get(i), SigHash.ALL, false);
+			final Sha256Hash sighash = sigHashes.hashForSignature(i, redeemScripts.get(i));
+			TransactionSignature txSig = new TransactionSignature(signKey.sign(sighash), SigHash.ALL, false);
 			signatures.add(txSig);
 			LOG.debug("Partially signed input: {}, redeemScript={}, sig={}", i, tx.getInput(i), txSig);
 		}
@@ -444,6 +588,36 @@ public class BitcoinUtils {
         return true;
     }
     
+    /**
+     * Same as {@link #applySignatures(Transaction, Script, List, List, boolean)}, but the encoded
+     * signatures are copied into the scriptSigs, which are written into arrays of their final size.
+     */
+    public static boolean applyCompactSignatures(Transaction tx, Script redeemScript,
+            List<CompactSignature> signatures1, List<CompactSignature> signatures2,
+            boolean clientFirst) {
+        final int len = tx.getInputs().size();
+        if (len != signatures1.size()) {
+            return false;
+        }
+        if (len != signatures2.size()) {
+            return false;
+        }
+        final byte[] program = redeemScript.getProgram();
+        final int programSize = ScriptPushes.dataSize(program);
+        for (int i = 0; i < len; i++) {
+            final CompactSignature first = clientFirst ? signatures1.get(i) : signatures2.get(i);
+            final CompactSignature second = clientFirst ? signatures2.get(i) : signatures1.get(i);
+            // OP_0 <sig> <sig> <redeemScript>, as ScriptBuilder.createP2SHMultiSigInputScript
+            final byte[] scriptSig = new byte[1 + first.pushSize() + second.pushSize() + programSize];
+            int offset = ScriptPushes.writeSmallNum(0, scriptSig, 0);
+            offset = first.writePush(scriptSig, offset);
+            offset = second.writePush(scriptSig, offset);
+            ScriptPushes.writeData(program, scriptSig, offset);
+            tx.getInput(i).setScriptSig(new Script(scriptSig));
+        }
+        return true;
+    }
+
     private static boolean isOurP2SHAddress(NetworkParameters params, 
 										TransactionOutput to, Collection<Address> ourAddresses) {
         final Address a = to.getAddressFromP2SH(params);
@@ -458,16 +632,17 @@ public class BitcoinUtils {
         final Transaction tx = new Transaction(params);
         long totalAmount = 0;
 
-        List<TransactionInput> unsorted = new ArrayList<TransactionInput>(outputs.size());
+        List<TransactionOutput> ours = new ArrayList<TransactionOutput>(outputs.size());
         for (TransactionOutput output : outputs) {
             if (isOurP2SHAddress(params, output, addressesFrom)) {
-                TransactionInput ti = tx.addInput(output);
                 totalAmount += output.getValue().value;
-                unsorted.add(ti);
+                ours.add(output);
             }
         }
-        //now make it deterministic
-        sortTransactionInputs(tx);
+        //add them in a deterministic order
+        for (TransactionOutput output : sortByOutPoint(ours)) {
+            tx.addInput(output);
+        }
       
         final int fee = calcFee(tx);
         final long changeAmount = totalAmount - amountToSpend - fee;
@@ -581,66 +756,156 @@ public class BitcoinUtils {
         }
 	}
     
+    /**
+     * Sorts the inputs by the hash of the previous transaction and then by the output index
+     * (BIP69). The sort keys are extracted once per input.
+     */
     public static List<TransactionInput> sortInputs(final List<TransactionInput> unsorted) {
-        final List<TransactionInput> copy = new ArrayList<TransactionInput>(unsorted);
-        Collections.sort(copy, new Comparator<TransactionInput>() {
-            @Override
-            public int compare(final TransactionInput o1, final TransactionInput o2) {
-                final byte[] left = o1.getOutpoint().getHash().getBytes();
-                final byte[] right = o2.getOutpoint().getHash().getBytes();
-                for (int i = 0, j = 0; i < left.length && j < right.length; i++, j++) {
-                    final int a = (left[i] & 0xff);
-                    final int b = (right[j] & 0xff);
-                    if (a != b) {
-                        return a - b;
-                    }
-                }
-                int c = left.length - right.length;
-                if (c != 0) {
-                    return c;
-                }
-                return Long.compare(o1.getOutpoint().getIndex(), o2.getOutpoint().getIndex());
-            }
-        });
-        return copy;
+        final List<OutPointSortKey<TransactionInput>> keys =
+                new ArrayList<OutPointSortKey<TransactionInput>>(unsorted.size());
+        for (final TransactionInput input : unsorted) {
+            final TransactionOutPoint outPoint = input.getOutpoint();
+            keys.add(new OutPointSortKey<TransactionInput>(outPoint.getHash(), outPoint.getIndex(), input));
+        }
+        return OutPointSortKey.sort(keys);
+    }
+
+    /**
+     * Adds inputs with empty scriptSigs for the entries of the set, in the order of
+     * {@link #sortInputs(List)}. The script type is taken from the set, not from the scripts.
+     */
+    private static void addInputsSorted(final NetworkParameters params, final TransactionBuilder builder,
+            final UtxoSet utxos, final int[] indices) {
+        final List<OutPointSortKey<Integer>> keys = new ArrayList<OutPointSortKey<Integer>>(indices.length);
+        for (final int i : indices) {
+            keys.add(new OutPointSortKey<Integer>(utxos.hash(i), utxos.index(i), i));
+        }
+        for (final int i : OutPointSortKey.sort(keys)) {
+            final TransactionInput input = new TransactionInput(params, null, new byte[0],
+                    utxos.outPoint(params, i), Coin.valueOf(utxos.value(i)));
+            builder.addInput(input, utxos.isP2SH(i));
+        }
     }
 
+    /**
+     * Sorts outputs that are going to be spent in the order their inputs will have, see
+     * {@link #sortInputs(List)}.
+     */
+    static List<TransactionOutput> sortByOutPoint(final List<TransactionOutput> unsorted) {
+        final List<OutPointSortKey<TransactionOutput>> keys =
+                new ArrayList<OutPointSortKey<TransactionOutput>>(unsorted.size());
+        for (final TransactionOutput output : unsorted) {
+            keys.add(new OutPointSortKey<TransactionOutput>(output.getParentTransactionHash(),
+                    output.getIndex(), output));
+        }
+        return OutPointSortKey.sort(keys);
+    }
+
+    /**
+     * Sorts the outputs by their serialized form, i.e., by the little endian value and then by
+     * the script. Each output is serialized only once.
+     */
     public static List<TransactionOutput> sortOutputs(final List<TransactionOutput> unsorted) {
-        final List<TransactionOutput> copy = new ArrayList<TransactionOutput>(unsorted);
-        Collections.sort(copy, new Comparator<TransactionOutput>() {
-            @Override
-            public int compare(final TransactionOutput o1, final TransactionOutput o2) {
-                final byte[] left = o1.unsafeBitcoinSerialize();
-                final byte[] right = o2.unsafeBitcoinSerialize();
-                for (int i = 0, j = 0; i < left.length && j < right.length; i++, j++) {
-                    final int a = (left[i] & 0xff);
-                    final int b = (right[j] & 0xff);
-                    if (a != b) {
-                        return a - b;
-                    }
-                }
-                return left.length - right.length;
-            }
-        });
-        return copy;
+        final OutputSortKey[] keys = new OutputSortKey[unsorted.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new OutputSortKey(unsorted.get(i));
+        }
+        Arrays.sort(keys);
+        final List<TransactionOutput> sorted = new ArrayList<TransactionOutput>(keys.length);
+        for (OutputSortKey key : keys) {
+            sorted.add(key.output);
+        }
+        return sorted;
     }
 
-    private static void sortTransactionInputs(Transaction tx) {
-        //now make it deterministic
-        List<TransactionInput> sorted = sortInputs(tx.getInputs());
-        tx.clearInputs();
-        for (TransactionInput transactionInput : sorted) {
-            tx.addInput(transactionInput);
+    private static void addOutputsSorted(final TransactionBuilder builder, final List<TransactionOutput> outputs) {
+        for (TransactionOutput transactionOutput : sortOutputs(outputs)) {
+            builder.addOutput(transactionOutput);
         }
     }
-    
+
+    /**
+     * Brings the outputs of an already assembled transaction in order. The outputs are only
+     * removed and added again if they are not in order yet.
+     */
     public static void sortTransactionOutputs(Transaction tx) {
-    	List<TransactionOutput> sortedOutputs = sortOutputs(tx.getOutputs());
+    	final List<TransactionOutput> outputs = tx.getOutputs();
+    	final List<TransactionOutput> sortedOutputs = sortOutputs(outputs);
+    	if (sortedOutputs.equals(outputs)) {
+    		return;
+    	}
     	tx.clearOutputs();
     	for (TransactionOutput to : sortedOutputs) {
     		tx.addOutput(to);
     	}
     }
+
+    private static final class OutPointSortKey<T> implements Comparable<OutPointSortKey<T>> {
+        private final T item;
+        // the hash as 4 big endian longs, with the sign bit flipped for an unsigned comparison
+        private final long h0, h1, h2, h3;
+        private final long index;
+
+        private OutPointSortKey(final Sha256Hash hash, final long index, final T item) {
+            final byte[] bytes = hash.getBytes();
+            this.item = item;
+            this.h0 = readLongBE(bytes, 0) ^ Long.MIN_VALUE;
+            this.h1 = readLongBE(bytes, 8) ^ Long.MIN_VALUE;
+            this.h2 = readLongBE(bytes, 16) ^ Long.MIN_VALUE;
+            this.h3 = readLongBE(bytes, 24) ^ Long.MIN_VALUE;
+            this.index = index;
+        }
+
+        private static <T> List<T> sort(final List<OutPointSortKey<T>> keys) {
+            Collections.sort(keys);
+            final List<T> sorted = new ArrayList<T>(keys.size());
+            for (OutPointSortKey<T> key : keys) {
+                sorted.add(key.item);
+            }
+            return sorted;
+        }
+
+        @Override
+        public int compareTo(final OutPointSortKey<T> o) {
+            int c = Long.compare(h0, o.h0);
+            if (c == 0) {
+                c = Long.compare(h1, o.h1);
+                if (c == 0) {
+                    c = Long.compare(h2, o.h2);
+                    if (c == 0) {
+                        c = Long.compare(h3, o.h3);
+                        if (c == 0) {
+                            c = Long.compare(index, o.index);
+                        }
+                    }
+                }
+            }
+            return c;
+        }
+
+        private static long readLongBE(final byte[] bytes, final int offset) {
+            long value = 0;
+            for (int i = offset; i < offset + 8; i++) {
+                value = (value << 8) | (bytes[i] & 0xff);
+            }
+            return value;
+        }
+    }
+
+    private static final class OutputSortKey implements Comparable<OutputSortKey> {
+        private final TransactionOutput output;
+        private final byte[] serialized;
+
+        private OutputSortKey(final TransactionOutput output) {
+            this.output = output;
+            this.serialized = output.unsafeBitcoinSerialize();
+        }
+
+        @Override
+        public int compareTo(final OutputSortKey o) {
+            return PureJavaComparator.INSTANCE.compare(serialized, o.serialized);
+        }
+    }
    
     //we are using our own comparator as the one provided by guava crashes android on some devices
     //Nexus 5 with 6.0.1 crashes with SIGBUS in libart for the getLong operation. To use the pure
@@ -669,15 +934,16 @@ public class BitcoinUtils {
         }
     };
 
+    /**
+     * @return the multisig redeem script with the keys sorted, from {@link #REDEEM_SCRIPT_CACHE}.
+     *         The script is shared, it must not be modified.
+     */
     public static Script createRedeemScript(int threshold, List<ECKey> pubkeys) {
-        pubkeys = new ArrayList<ECKey>(pubkeys);
-        Collections.sort(pubkeys, PUBKEY_COMPARATOR);
-        return ScriptBuilder.createMultiSigOutputScript(threshold, pubkeys);
+        return REDEEM_SCRIPT_CACHE.get(threshold, pubkeys).script();
     }
 
     public static Script createP2SHOutputScript(int threshold, List<ECKey> pubkeys) {
-        Script redeemScript = createRedeemScript(threshold, pubkeys);
-        return createP2SHOutputScript(redeemScript);
+        return REDEEM_SCRIPT_CACHE.get(threshold, pubkeys).p2shOutputScript();
     }
 
     public static Script createP2SHOutputScript(Script redeemScript) {
@@ -685,6 +951,72 @@ public class BitcoinUtils {
         return ScriptBuilder.createP2SHOutputScript(hash);
     }
     
+    /**
+     * Creates the P2WSH output script OP_0 <SHA256(witnessScript)> (BIP 141).
+     * 
+     * @throws IllegalArgumentException if the witness script contains an uncompressed public key,
+     *         see {@link #checkWitnessScript(Script)}
+     */
+    public static Script createP2WSHOutputScript(Script witnessScript) {
+        checkWitnessScript(witnessScript);
+        byte[] hash = Sha256Hash.hash(witnessScript.getProgram());
+        return new ScriptBuilder().smallNum(0).data(hash).build();
+    }
+
+    public static Script createP2WSHOutputScript(int threshold, List<ECKey> pubkeys) {
+        Script witnessScript = createRedeemScript(threshold, pubkeys);
+        return createP2WSHOutputScript(witnessScript);
+    }
+
+    /**
+     * Creates the P2SH output script of a P2WSH output script (P2SH-P2WSH), which wallets without
+     * witness support can pay to. The P2WSH output script is the redeem script, see
+     * {@link #createP2SHP2WSHScriptSig(Script)}.
+     */
+    public static Script createP2SHP2WSHOutputScript(Script witnessScript) {
+        return createP2SHOutputScript(createP2WSHOutputScript(witnessScript));
+    }
+
+    public static Script createP2SHP2WSHOutputScript(int threshold, List<ECKey> pubkeys) {
+        Script witnessScript = createRedeemScript(threshold, pubkeys);
+        return createP2SHP2WSHOutputScript(witnessScript);
+    }
+
+    /**
+     * @return the scriptSig of a P2SH-P2WSH input, the signatures are in the witness
+     */
+    public static Script createP2SHP2WSHScriptSig(Script witnessScript) {
+        return new ScriptBuilder().data(createP2WSHOutputScript(witnessScript).getProgram()).build();
+    }
+
+    /**
+     * Witness scripts with uncompressed public keys are non-standard (BIP 143, WITNESS_PUBKEYTYPE),
+     * spends of their outputs are not relayed.
+     * 
+     * @throws IllegalArgumentException if the script pushes an uncompressed public key
+     */
+    public static void checkWitnessScript(Script witnessScript) {
+        for (ScriptChunk chunk : witnessScript.getChunks()) {
+            if (chunk.data != null && chunk.data.length == 65 && chunk.data[0] == 0x04) {
+                throw new IllegalArgumentException("Witness scripts must only contain compressed public keys.");
+            }
+        }
+    }
+
+    /**
+     * @return the witness to spend a multisig witness script: an empty item for the extra item
+     *         CHECKMULTISIG pops, the signatures and the witness script
+     */
+    public static List<byte[]> createMultiSigWitness(List<TransactionSignature> signatures, Script witnessScript) {
+        final List<byte[]> witness = new ArrayList<byte[]>(signatures.size() + 2);
+        witness.add(new byte[0]);
+        for (TransactionSignature signature : signatures) {
+            witness.add(signature.encodeToBitcoin());
+        }
+        witness.add(witnessScript.getProgram());
+        return witness;
+    }
+    
     /**
      * Compares nLockTime and makes sure that the values are of the same type
      * i.e. compare time with time and block height with block height
@@ -696,17 +1028,14 @@ public class BitcoinUtils {
      */
     public static boolean isBeforeLockTime(long currentSecondsOrBlock, long nLockTime) {
     	// check negative
-    	if (nLockTime < 0 || currentSecondsOrBlock < 0) {
+    	if ((nLockTime | currentSecondsOrBlock) < 0) {
     		throw new IllegalArgumentException(String.format(
-    				"Lock time must be positive, is {} and {}",
+    				"Lock time must be positive, is %d and %d",
     				nLockTime, currentSecondsOrBlock));
     	}
     	
-    	// compare lock time variants.
-    	if (!(
-				(isLockTimeByTime (nLockTime) && isLockTimeByTime (currentSecondsOrBlock)) ||
-				(isLockTimeByBlock(nLockTime) && isLockTimeByBlock(currentSecondsOrBlock))
-    		)) {
+    	// compare lock time variants, both must be below or above the threshold
+    	if (isLockTimeByBlock(nLockTime) != isLockTimeByBlock(currentSecondsOrBlock)) {
     		throw new IllegalArgumentException("Cannot compare lock time of different types (time vs. block height)");
     	}
     	
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.script.Script;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.coinblesk.bitcoin.TimeLockedAddress;
+
+/**
+ * Creates and partially signs the refund transactions of many {@link TimeLockedAddress}es at
+ * once, e.g. when the lock times are rotated. Each refund is the same as
+ * {@link BitcoinUtils#createRefundTx(NetworkParameters, Collection, Script, Address, long)} with
+ * the redeem script and the lock time of the address, signed with
+ * {@link BitcoinUtils#partiallySign(Transaction, Script, ECKey)}.
+ *
+ * The requests are split into chunks that run on the given executor. A failing refund does not
+ * stop the others, its exception is reported in its {@link Result}.
+ */
+public class BulkRefundBuilder {
+
+    private final static Logger LOG = LoggerFactory.getLogger(BulkRefundBuilder.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+
+    private final NetworkParameters params;
+    private final ECKey signKey;
+    private final ExecutorService executor;
+    private final int chunkSize;
+
+    /**
+     * @param signKey the key to partially sign with, or null to only create the refunds
+     */
+    public BulkRefundBuilder(final NetworkParameters params, final ECKey signKey, final ExecutorService executor) {
+        this(params, signKey, executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    public BulkRefundBuilder(final NetworkParameters params, final ECKey signKey, final ExecutorService executor,
+            final int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+        }
+        this.params = params;
+        this.signKey = signKey;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Creates all refunds and waits for them.
+     *
+     * @return one result per request, in the order of the requests
+     * @throws InterruptedException if interrupted while waiting, the remaining refunds are
+     *         cancelled
+     * @throws Error the error of a chunk, e.g. an OutOfMemoryError, after all chunks are done
+     */
+    public List<Result> create(final List<Request> requests) throws InterruptedException {
+        final Result[] results = new Result[requests.size()];
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int from = 0; from < requests.size(); from += chunkSize) {
+            final int start = from;
+            final int end = Math.min(from + chunkSize, requests.size());
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final List<TransactionInput> scratch = new ArrayList<TransactionInput>();
+                    for (int i = start; i < end; i++) {
+                        results[i] = create(requests.get(i), scratch);
+                    }
+                    return null;
+                }
+            });
+        }
+        for (final Future<Void> future : executor.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // exceptions are reported per refund, only errors end a chunk
+                final Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException("refund chunk failed", cause);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private Result create(final Request request, final List<TransactionInput> scratch) {
+        try {
+            final TimeLockedAddress address = request.address();
+            final Script redeemScript = address.createRedeemScript();
+            final TransactionBuilder builder = new TransactionBuilder(params);
+            BitcoinUtils.createRefundTx(params, builder, scratch, request.outPoints(), redeemScript,
+                    request.refundSendTo(), address.getLockTime());
+            final Transaction tx = builder.transaction();
+            final List<TransactionSignature> signatures = signKey == null
+                    ? null : BitcoinUtils.partiallySign(tx, redeemScript, signKey);
+            return new Result(request, tx, builder.size(), signatures, null);
+        } catch (Exception e) {
+            LOG.debug("refund for {} failed", request.address(), e);
+            return new Result(request, null, 0, null, e);
+        } finally {
+            scratch.clear();
+        }
+    }
+
+    public static class Request {
+        private final TimeLockedAddress address;
+        private final Collection<OutPointValue> outPoints;
+        private final Address refundSendTo;
+
+        public Request(final TimeLockedAddress address, final Collection<OutPointValue> outPoints,
+                final Address refundSendTo) {
+            this.address = address;
+            this.outPoints = outPoints;
+            this.refundSendTo = refundSendTo;
+        }
+
+        public TimeLockedAddress address() {
+            return address;
+        }
+
+        public Collection<OutPointValue> outPoints() {
+            return outPoints;
+        }
+
+        public Address refundSendTo() {
+            return refundSendTo;
+        }
+    }
+
+    public static class Result {
+        private final Request request;
+        private final Transaction transaction;
+        private final int size;
+        private final List<TransactionSignature> signatures;
+        private final Exception error;
+
+        private Result(final Request request, final Transaction transaction, final int size,
+                final List<TransactionSignature> signatures, final Exception error) {
+            this.request = request;
+            this.transaction = transaction;
+            this.size = size;
+            this.signatures = signatures;
+            this.error = error;
+        }
+
+        public Request request() {
+            return request;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * @return the refund, or null if it failed
+         */
+        public Transaction transaction() {
+            return transaction;
+        }
+
+        /**
+         * @return the serialized size of the unsigned refund
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return the signatures, one per input, or null if failed or there was no key to sign with
+         */
+        public List<TransactionSignature> signatures() {
+            return signatures;
+        }
+
+        /**
+         * @return the reason the refund failed, e.g. {@link InsufficientFunds} if the outputs do
+         *         not cover the fee, or null
+         */
+        public Exception error() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.util;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.crypto.TransactionSignature;
+
+import com.coinblesk.json.v1.TxSig;
+
+/**
+ * A transaction signature with r and s as fixed 32 byte arrays and its bitcoin encoding (DER
+ * followed by the sighash flags) computed once, so that it can be copied into scriptSigs as is,
+ * see {@link #writePush(byte[], int)}.
+ *
+ * S is normalized to the lower half of the curve order (BIP 62), as {@link ECKey#sign} does. A
+ * high S of a received signature is replaced by its low counterpart, which is valid for the same
+ * hash and key.
+ */
+public final class CompactSignature {
+
+    public static final int COMPONENT_LENGTH = 32;
+
+    private static final byte[] CURVE_ORDER = Utils.bigIntegerToBytes(ECKey.CURVE.getN(), COMPONENT_LENGTH);
+
+    private final byte[] r;
+    private final byte[] s;
+    private final int sighashFlags;
+    private final byte[] encoded;
+
+    private CompactSignature(final byte[] r, final byte[] s, final int sighashFlags) {
+        this.r = r;
+        this.s = s;
+        this.sighashFlags = sighashFlags;
+        this.encoded = encode(r, s, sighashFlags);
+    }
+
+    /**
+     * @throws IllegalArgumentException if r or s is not in the range of the curve order
+     */
+    public static CompactSignature create(final BigInteger r, final BigInteger s, final int sighashFlags) {
+        checkRange(r);
+        checkRange(s);
+        final BigInteger lowS = s.compareTo(ECKey.HALF_CURVE_ORDER) > 0 ? ECKey.CURVE.getN().subtract(s) : s;
+        return new CompactSignature(Utils.bigIntegerToBytes(r, COMPONENT_LENGTH),
+                Utils.bigIntegerToBytes(lowS, COMPONENT_LENGTH), sighashFlags);
+    }
+
+    /**
+     * @return the signature with SIGHASH_ALL
+     */
+    public static CompactSignature create(final ECKey.ECDSASignature signature) {
+        return create(signature.r, signature.s, Transaction.SigHash.ALL.value);
+    }
+
+    public static CompactSignature create(final TransactionSignature signature) {
+        return create(signature.r, signature.s, signature.sighashFlags);
+    }
+
+    /**
+     * Reads a signature of the wire, with SIGHASH_ALL. The compact encoding is used as is, without
+     * conversion to a number unless S is high. Anything the fast path does not accept goes through
+     * {@link #create(BigInteger, BigInteger, int)}, so the same range checks apply.
+     *
+     * @throws IllegalArgumentException if r or s is not in the range of the curve order
+     */
+    public static CompactSignature fromTxSig(final TxSig txSig) {
+        final Integer version = txSig.version();
+        if (version != null && version == SerializeUtils.SIGNATURE_VERSION_COMPACT) {
+            final byte[] r = Base64.decode(txSig.sigR(), Base64.NO_WRAP);
+            final byte[] s = Base64.decode(txSig.sigS(), Base64.NO_WRAP);
+            if (r.length == COMPONENT_LENGTH && s.length == COMPONENT_LENGTH && isInRange(r) && isLowS(s)) {
+                return new CompactSignature(r, s, Transaction.SigHash.ALL.value);
+            }
+        }
+        return create(SerializeUtils.decodeSignatureComponent(txSig.sigR(), version),
+                SerializeUtils.decodeSignatureComponent(txSig.sigS(), version), Transaction.SigHash.ALL.value);
+    }
+
+    public TxSig toTxSig(final int version) {
+        if (version == SerializeUtils.SIGNATURE_VERSION_COMPACT) {
+            return new TxSig()
+                    .sigR(Base64.encodeToString(r, Base64.NO_WRAP | Base64.NO_PADDING))
+                    .sigS(Base64.encodeToString(s, Base64.NO_WRAP | Base64.NO_PADDING))
+                    .version(version);
+        }
+        return SerializeUtils.toTxSig(toECDSASignature(), version);
+    }
+
+    public BigInteger r() {
+        return new BigInteger(1, r);
+    }
+
+    public BigInteger s() {
+        return new BigInteger(1, s);
+    }
+
+    public int sighashFlags() {
+        return sighashFlags;
+    }
+
+    public ECKey.ECDSASignature toECDSASignature() {
+        return new ECKey.ECDSASignature(r(), s());
+    }
+
+    public TransactionSignature toTransactionSignature() {
+        return new TransactionSignature(r(), s(), sighashFlags);
+    }
+
+    /**
+     * @return the DER encoding followed by the sighash flags, the same as
+     *         {@link TransactionSignature#encodeToBitcoin()}
+     */
+    public byte[] encodeToBitcoin() {
+        return encoded.clone();
+    }
+
+    /**
+     * @return the number of bytes {@link #writePush(byte[], int)} writes
+     */
+    public int pushSize() {
+        return ScriptPushes.dataSize(encoded);
+    }
+
+    /**
+     * Writes the push of {@link #encodeToBitcoin()} into a script.
+     *
+     * @return the offset after the push
+     */
+    public int writePush(final byte[] dst, final int offset) {
+        return ScriptPushes.writeData(encoded, dst, offset);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CompactSignature)) {
+            return false;
+        }
+        final CompactSignature other = (CompactSignature) o;
+        return sighashFlags == other.sighashFlags && Arrays.equals(r, other.r) && Arrays.equals(s, other.s);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(r) + Arrays.hashCode(s);
+    }
+
+    @Override
+    public String toString() {
+        return Utils.HEX.encode(encoded);
+    }
+
+    private static void checkRange(final BigInteger value) {
+        if (value.signum() <= 0 || value.compareTo(ECKey.CURVE.getN()) >= 0) {
+            throw new IllegalArgumentException("signature component out of range: " + value);
+        }
+    }
+
+    private static boolean isZero(final byte[] value) {
+        for (byte b : value) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // r must be in [1, n - 1], compared as unsigned big endian bytes
+    private static boolean isInRange(final byte[] r) {
+        if (isZero(r)) {
+            return false;
+        }
+        for (int i = 0; i < COMPONENT_LENGTH; i++) {
+            final int a = r[i] & 0xff;
+            final int b = CURVE_ORDER[i] & 0xff;
+            if (a != b) {
+                return a < b;
+            }
+        }
+        return false;
+    }
+
+    // s must be in [1, n/2]
+    private static boolean isLowS(final byte[] s) {
+        return !isZero(s) && new BigInteger(1, s).compareTo(ECKey.HALF_CURVE_ORDER) <= 0;
+    }
+
+    private static byte[] encode(final byte[] r, final byte[] s, final int sighashFlags) {
+        final int rStart = firstNonZero(r);
+        final int sStart = firstNonZero(s);
+        final int rLength = integerLength(r, rStart);
+        final int sLength = integerLength(s, sStart);
+        final int sequenceLength = 2 + rLength + 2 + sLength;
+        final byte[] encoded = new byte[2 + sequenceLength + 1];
+        int offset = 0;
+        encoded[offset++] = 0x30;
+        encoded[offset++] = (byte) sequenceLength;
+        offset = writeInteger(r, rStart, rLength, encoded, offset);
+        offset = writeInteger(s, sStart, sLength, encoded, offset);
+        encoded[offset] = (byte) sighashFlags;
+        return encoded;
+    }
+
+    private static int firstNonZero(final byte[] value) {
+        int start = 0;
+        while (start < value.length - 1 && value[start] == 0) {
+            start++;
+        }
+        return start;
+    }
+
+    // minimal two's complement length, with a leading zero if the high bit is set
+    private static int integerLength(final byte[] value, final int start) {
+        return value.length - start + ((value[start] & 0x80) != 0 ? 1 : 0);
+    }
+
+    private static int writeInteger(final byte[] value, final int start, final int length, final byte[] dst,
+            int offset) {
+        dst[offset++] = 0x02;
+        dst[offset++] = (byte) length;
+        if (length > value.length - start) {
+            dst[offset++] = 0;
+        }
+        System.arraycopy(value, start, dst, offset, value.length - start);
+        return offset + value.length - start;
+    }
+}
@@ -11,9 +11,22 @@ import io.jsonwebtoken.impl.TextCodec;
 import org.bitcoinj.core.ECKey;
 import org.bitcoinj.core.Sha256Hash;
 
+import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.reflect.Field;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /***
  * Helper class for everything related to data transfer objects.
@@ -26,14 +39,55 @@ import java.math.BigInteger;
 public class DTOUtils {
 	private static final Gson gson = new GsonBuilder().create();
 
+	private static final int PUBLIC_KEY_CACHE_SIZE = 1024;
+	// LRU cache of hex public key to ECKey, access order
+	private static final Map<String, ECKey> publicKeyCache = Collections.synchronizedMap(
+			new LinkedHashMap<String, ECKey>(PUBLIC_KEY_CACHE_SIZE, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, ECKey> eldest) {
+					return size() > PUBLIC_KEY_CACHE_SIZE;
+				}
+			});
+
+	/***
+	 * Decodes the Base64URL payload of the {@link SignedDTO} and parses the JSON in one pass, i.e.
+	 * without an intermediate String of the JSON. Then checks the fields, see {@link #validateNonNullFields}.
+	 * The signature is not checked, it covers the Base64URL payload itself, see {@link #validateSignature}.
+	 *
+	 * @param signedDTO The signed DTO with the Base64URL encoded JSON payload
+	 * @param typeOfPayload The type of the payload
+	 * @param <T> The type of the payload
+	 * @return The parsed payload
+	 */
 	public static <T> T parseAndValidate(SignedDTO signedDTO, Class<T> typeOfPayload) {
 		final String payloadBase64String = signedDTO.getPayload();
-		String jsonPayload = fromBase64(payloadBase64String);
-		T parsedObject = gson.fromJson(jsonPayload, typeOfPayload);
+		T parsedObject = gson.fromJson(fromBase64Reader(payloadBase64String), typeOfPayload);
 		validateNonNullFields(parsedObject, typeOfPayload);
 		return parsedObject;
 	}
 
+	/***
+	 * Verifies the signature of the {@link SignedDTO} and, only if it is valid, parses and validates
+	 * the payload, see {@link #parseAndValidate}. The public key is looked up in a cache, so clients
+	 * sending many requests do not pay the hex decoding and EC point decompression every time.
+	 *
+	 * The public key is passed separately, as the payloads carry it in different fields.
+	 *
+	 * @param signedDTO The signed DTO with the Base64URL encoded JSON payload
+	 * @param typeOfPayload The type of the payload
+	 * @param hexFormattedPublicKey Public key in hex format, which is used to check the signature
+	 * @param <T> The type of the payload
+	 * @return The parsed payload
+	 * @throws MissingFieldException If the payload or the signature is missing
+	 * @throws InvalidSignatureException If the signature is not valid
+	 */
+	public static <T> T verifyAndParse(SignedDTO signedDTO, Class<T> typeOfPayload, String hexFormattedPublicKey) {
+		validateNonNullFields(signedDTO, SignedDTO.class);
+		validateSignature(signedDTO.getPayload(), signedDTO.getSignature(),
+				getECKeyFromHexPublicKey(hexFormattedPublicKey));
+		return parseAndValidate(signedDTO, typeOfPayload);
+	}
+
 	public static <T> SignedDTO serializeAndSign(T innerDTO, ECKey privKey) {
 		String base64Payload = toBase64(gson.toJson(innerDTO));
 		SignatureDTO signature = sign(base64Payload, privKey);
@@ -47,6 +101,9 @@ public class DTOUtils {
 	 *
 	 * This can happen if the object was created with reflection for example by GSON.
 	 * An exception will be thrown if any field is null but was annotated with one of the above annotations.
+	 * Inherited fields are checked as well, fields annotated with {@link Valid} are checked recursively.
+	 *
+	 * The annotated fields are looked up once per class, see {@link NonNullValidator}.
 	 *
 	 * Note: The annotation must have Retention policy RUNTIME.
 	 *
@@ -56,17 +113,84 @@ public class DTOUtils {
 	 * @throws MissingFieldException If a {@link NotNull} annotated field is null
 	 */
 	private static <T> void validateNonNullFields(T obj, Class<T> objClass) {
-		Field[] fields = objClass.getDeclaredFields();
-		for (Field field : fields) {
-			if (field.isAnnotationPresent(NotNull.class)) {
-				try {
+		NonNullValidator.of(objClass).validate(obj);
+	}
+
+	/***
+	 * Holds the {@link NotNull} and {@link Valid} annotated fields of a class (including the inherited
+	 * ones), already made accessible. The validators are cached per class, thus validating an object
+	 * costs only the null checks.
+	 *
+	 * A map is used instead of ClassValue / MethodHandles, as these are not available on Android.
+	 * The number of DTO classes is fixed, so the map does not grow unbounded.
+	 */
+	private static final class NonNullValidator {
+		private static final ConcurrentMap<Class<?>, NonNullValidator> CACHE = new ConcurrentHashMap<>();
+
+		private final Field[] notNullFields;
+		private final Field[] validFields;
+
+		private NonNullValidator(Class<?> objClass) {
+			final List<Field> notNull = new ArrayList<>();
+			final List<Field> valid = new ArrayList<>();
+			for (Class<?> c = objClass; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					final boolean isNotNull = field.isAnnotationPresent(NotNull.class);
+					final boolean isValid = field.isAnnotationPresent(Valid.class);
+					if (!isNotNull && !isValid) {
+						continue;
+					}
 					field.setAccessible(true);
-					if (field.get(obj) == null)
-						throw new MissingFieldException(field.getName());
-				} catch (IllegalAccessException e) {
+					if (isNotNull) {
+						notNull.add(field);
+					}
+					if (isValid) {
+						valid.add(field);
+					}
+				}
+			}
+			this.notNullFields = notNull.toArray(new Field[notNull.size()]);
+			this.validFields = valid.toArray(new Field[valid.size()]);
+		}
+
+		static NonNullValidator of(Class<?> objClass) {
+			NonNullValidator validator = CACHE.get(objClass);
+			if (validator == null) {
+				validator = new NonNullValidator(objClass);
+				final NonNullValidator existing = CACHE.putIfAbsent(objClass, validator);
+				if (existing != null) {
+					validator = existing;
+				}
+			}
+			return validator;
+		}
+
+		void validate(Object obj) {
+			for (Field field : notNullFields) {
+				if (get(field, obj) == null) {
 					throw new MissingFieldException(field.getName());
 				}
 			}
+			for (Field field : validFields) {
+				final Object value = get(field, obj);
+				if (value instanceof Iterable) {
+					for (Object element : (Iterable<?>) value) {
+						if (element != null) {
+							of(element.getClass()).validate(element);
+						}
+					}
+				} else if (value != null) {
+					of(value.getClass()).validate(value);
+				}
+			}
+		}
+
+		private static Object get(Field field, Object obj) {
+			try {
+				return field.get(obj);
+			} catch (IllegalAccessException e) {
+				throw new MissingFieldException(field.getName());
+			}
 		}
 	}
 
@@ -74,6 +198,19 @@ public class DTOUtils {
 		return TextCodec.BASE64URL.decodeToString(input);
 	}
 
+	/***
+	 * Returns a reader of the decoded Base64URL input. The input is decoded while reading,
+	 * the decoded content is never held in memory as a whole.
+	 *
+	 * @param input Base64URL encoded UTF-8 text
+	 * @return Reader of the decoded text
+	 */
+	public static Reader fromBase64Reader(String input) {
+		final InputStream decoded = new Base64InputStream(
+				new AsciiInputStream(input), Base64.URL_SAFE | Base64.NO_WRAP);
+		return new InputStreamReader(decoded, StandardCharsets.UTF_8);
+	}
+
 	public static String toBase64(String input) {
 		return TextCodec.BASE64URL.encode(input);
 	}
@@ -103,11 +240,18 @@ public class DTOUtils {
 	 * Since the ECKey contains only the public key, it can only be used
 	 * for checking signatures.
 	 *
+	 * The keys of the most recently used {@value #PUBLIC_KEY_CACHE_SIZE} public keys are cached.
+	 *
 	 * @param hexFormattedPublicKey Public key in hex format.
 	 * @return ECKey with only public key
 	 */
 	public static ECKey getECKeyFromHexPublicKey(String hexFormattedPublicKey) {
-		return ECKey.fromPublicOnly(fromHex(hexFormattedPublicKey));
+		ECKey key = publicKeyCache.get(hexFormattedPublicKey);
+		if (key == null) {
+			key = ECKey.fromPublicOnly(fromHex(hexFormattedPublicKey));
+			publicKeyCache.put(hexFormattedPublicKey, key);
+		}
+		return key;
 	}
 
 	/***
@@ -118,8 +262,8 @@ public class DTOUtils {
 	 * @param publicKey The EC2Key containing the public key, which is used to check validity of the signature.
 	 */
 	public static void validateSignature(String payload, SignatureDTO signatureDTO, ECKey publicKey) {
-		final BigInteger sigR = new BigInteger(signatureDTO.getSigR());
-		final BigInteger sigS = new BigInteger(signatureDTO.getSigS());
+		final BigInteger sigR = SerializeUtils.decodeSignatureComponent(signatureDTO.getSigR(), signatureDTO.getVersion());
+		final BigInteger sigS = SerializeUtils.decodeSignatureComponent(signatureDTO.getSigS(), signatureDTO.getVersion());
 		final ECKey.ECDSASignature signature = new ECKey.ECDSASignature(sigR, sigS);
 		boolean valid = publicKey.verify(Sha256Hash.of(payload.getBytes()), signature);
 		if (!valid) {
@@ -139,4 +283,69 @@ public class DTOUtils {
 		ECKey.ECDSASignature signature = key.sign(Sha256Hash.of(payload.getBytes()));
 		return new SignatureDTO(signature.r.toString(), signature.s.toString());
 	}
+
+	/***
+	 * Same as {@link #sign(String, ECKey)}, but with the given encoding of r and s,
+	 * see {@link SerializeUtils#SIGNATURE_VERSION_COMPACT}.
+	 *
+	 * @param payload The target payload string to hash and sign.
+	 * @param key The key used to sign the payload
+	 * @param version The encoding of the signature components
+	 * @return {@link SignatureDTO} with the ECDSA signature
+	 */
+	public static SignatureDTO sign(String payload, ECKey key, int version) {
+		ECKey.ECDSASignature signature = key.sign(Sha256Hash.of(payload.getBytes()));
+		return new SignatureDTO(
+				SerializeUtils.encodeSignatureComponent(signature.r, version),
+				SerializeUtils.encodeSignatureComponent(signature.s, version),
+				version == SerializeUtils.SIGNATURE_VERSION_DECIMAL ? null : version);
+	}
+
+	/***
+	 * Reads the chars of a String as bytes, without copying it as {@link String#getBytes()} does.
+	 * Only meant for ASCII content such as Base64, any other char is an IOException instead of
+	 * being truncated to a byte, which could be a valid Base64 char.
+	 */
+	private static final class AsciiInputStream extends InputStream {
+		private final String input;
+		private int pos = 0;
+
+		private AsciiInputStream(String input) {
+			this.input = input;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return pos < input.length() ? ascii(pos++) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			final int end = Math.min(input.length(), pos + len);
+			if (pos >= end) {
+				return -1;
+			}
+			final int start = pos;
+			for (; pos < end; pos++) {
+				b[off + pos - start] = (byte) ascii(pos);
+			}
+			return end - start;
+		}
+
+		private int ascii(int i) throws IOException {
+			final char c = input.charAt(i);
+			if (c > 0x7f) {
+				throw new IOException("Not an ASCII char at " + i + ": " + (int) c);
+			}
+			return c;
+		}
+
+		@Override
+		public int available() {
+			return input.length() - pos;
+		}
+	}
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.util;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+
+/**
+ * An outpoint together with the value of the output it refers to, the specialized form of
+ * {@code Pair<TransactionOutPoint, Coin>}. The index and the value are kept as primitives.
+ */
+public final class OutPointValue {
+
+    private final Sha256Hash hash;
+    private final long index;
+    private final long value;
+
+    public OutPointValue(final Sha256Hash hash, final long index, final long value) {
+        if (hash == null) {
+            throw new NullPointerException("hash cannot be null");
+        }
+        this.hash = hash;
+        this.index = index;
+        this.value = value;
+    }
+
+    public static OutPointValue create(final TransactionOutPoint outPoint, final Coin coin) {
+        return new OutPointValue(outPoint.getHash(), outPoint.getIndex(), coin.value);
+    }
+
+    public Sha256Hash hash() {
+        return hash;
+    }
+
+    public long index() {
+        return index;
+    }
+
+    /**
+     * @return the value in satoshis
+     */
+    public long value() {
+        return value;
+    }
+
+    public Coin coin() {
+        return Coin.valueOf(value);
+    }
+
+    public TransactionOutPoint toOutPoint(final NetworkParameters params) {
+        return new TransactionOutPoint(params, index, hash);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof OutPointValue)) {
+            return false;
+        }
+        final OutPointValue other = (OutPointValue) o;
+        return index == other.index && value == other.value && hash.equals(other.hash);
+    }
+
+    @Override
+    public int hashCode() {
+        // the hash is random already, the hashCode of Sha256Hash reads 4 of its bytes
+        return 31 * hash.hashCode() + (int) index;
+    }
+
+    @Override
+    public String toString() {
+        return hash + ":" + index + "=" + value;
+    }
+}
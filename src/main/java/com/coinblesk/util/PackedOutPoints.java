@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.Utils;
+
+/**
+ * A list of outpoints with their values, packed into one byte array. Each entry has
+ * {@link #ENTRY_LENGTH} bytes: the 36 byte bitcoin serialization of the outpoint (hash in wire
+ * order, 4 byte little endian index), followed by the value in satoshis as 8 byte little endian.
+ *
+ * This is a flyweight over the array, entries are read in place and objects such as
+ * {@link TransactionOutPoint} are only created on request.
+ */
+public final class PackedOutPoints {
+
+    public static final int OUTPOINT_LENGTH = 36;
+    public static final int ENTRY_LENGTH = OUTPOINT_LENGTH + 8;
+
+    private final byte[] data;
+    private final int size;
+
+    /**
+     * Wraps the packed array without copying it.
+     *
+     * @throws IllegalArgumentException if the length is not a multiple of {@link #ENTRY_LENGTH}
+     */
+    public PackedOutPoints(final byte[] data) {
+        if (data.length % ENTRY_LENGTH != 0) {
+            throw new IllegalArgumentException("packed outpoints must have a multiple of "
+                    + ENTRY_LENGTH + " bytes, but have " + data.length);
+        }
+        this.data = data;
+        this.size = data.length / ENTRY_LENGTH;
+    }
+
+    public static PackedOutPoints pack(final List<Pair<TransactionOutPoint, Coin>> outPointsCoin) {
+        final byte[] data = new byte[outPointsCoin.size() * ENTRY_LENGTH];
+        int offset = 0;
+        for (final Pair<TransactionOutPoint, Coin> p : outPointsCoin) {
+            final TransactionOutPoint outPoint = p.element0();
+            System.arraycopy(outPoint.getHash().getReversedBytes(), 0, data, offset, 32);
+            Utils.uint32ToByteArrayLE(outPoint.getIndex(), data, offset + 32);
+            Utils.uint64ToByteArrayLE(p.element1().value, data, offset + OUTPOINT_LENGTH);
+            offset += ENTRY_LENGTH;
+        }
+        return new PackedOutPoints(data);
+    }
+
+    public static PackedOutPoints packValues(final Collection<OutPointValue> outPointValues) {
+        final byte[] data = new byte[outPointValues.size() * ENTRY_LENGTH];
+        int offset = 0;
+        for (final OutPointValue v : outPointValues) {
+            System.arraycopy(v.hash().getReversedBytes(), 0, data, offset, 32);
+            Utils.uint32ToByteArrayLE(v.index(), data, offset + 32);
+            Utils.uint64ToByteArrayLE(v.value(), data, offset + OUTPOINT_LENGTH);
+            offset += ENTRY_LENGTH;
+        }
+        return new PackedOutPoints(data);
+    }
+
+    public byte[] data() {
+        return data;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the transaction hash of the entry, reversed as it is displayed
+     */
+    public Sha256Hash hash(final int i) {
+        final byte[] hash = new byte[32];
+        final int offset = offset(i);
+        for (int j = 0; j < 32; j++) {
+            hash[j] = data[offset + 31 - j];
+        }
+        return Sha256Hash.wrap(hash);
+    }
+
+    public long index(final int i) {
+        return Utils.readUint32(data, offset(i) + 32);
+    }
+
+    public long value(final int i) {
+        return Utils.readInt64(data, offset(i) + OUTPOINT_LENGTH);
+    }
+
+    public Coin coin(final int i) {
+        return Coin.valueOf(value(i));
+    }
+
+    /**
+     * @return true if the entry spends the given output, compared in place
+     */
+    public boolean matches(final int i, final TransactionOutPoint outPoint) {
+        if (index(i) != outPoint.getIndex()) {
+            return false;
+        }
+        final byte[] hash = outPoint.getHash().getBytes();
+        final int offset = offset(i);
+        for (int j = 0; j < 32; j++) {
+            if (data[offset + 31 - j] != hash[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public TransactionOutPoint outPoint(final NetworkParameters params, final int i) {
+        return new TransactionOutPoint(params, data, offset(i));
+    }
+
+    public OutPointValue outPointValue(final int i) {
+        return new OutPointValue(hash(i), index(i), value(i));
+    }
+
+    public List<OutPointValue> unpackValues() {
+        final List<OutPointValue> retVal = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            retVal.add(outPointValue(i));
+        }
+        return retVal;
+    }
+
+    public List<Pair<TransactionOutPoint, Coin>> unpack(final NetworkParameters params) {
+        final List<Pair<TransactionOutPoint, Coin>> retVal = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            retVal.add(new Pair<>(outPoint(params, i), coin(i)));
+        }
+        return retVal;
+    }
+
+    private int offset(final int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+        }
+        return i * ENTRY_LENGTH;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.util;
+
+import java.math.BigInteger;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.spongycastle.crypto.digests.SHA256Digest;
+import org.spongycastle.crypto.signers.HMacDSAKCalculator;
+import org.spongycastle.math.ec.ECCurve;
+import org.spongycastle.math.ec.ECPoint;
+
+/**
+ * Signs with a long-lived private key, producing exactly the signatures of
+ * {@link ECKey#sign(Sha256Hash)}: RFC 6979 nonces and low S.
+ *
+ * The expensive part of signing is the multiplication of the nonce with the generator. This
+ * class does it with its own fixed-base table: for each of the 32 windows of
+ * {@link #WINDOW_WIDTH} bits of the nonce, the multiples 1..255 of the generator shifted to the
+ * window, so a multiplication takes at most 32 point additions and no doublings. The table is
+ * built once, when the first signer is created, and never changed. It is private to this class,
+ * the precomputations of the shared curve {@link ECKey#CURVE} that {@link ECKey} uses are not
+ * touched.
+ */
+public final class PrecomputedSigner implements Signer {
+
+    /**
+     * Width of a window of the nonce, 2^8 - 1 precomputed points per window.
+     */
+    public static final int WINDOW_WIDTH = 8;
+
+    private static final int NR_WINDOWS = 256 / WINDOW_WIDTH;
+
+    private final byte[] pubKey;
+    private final BigInteger privateKey;
+
+    /**
+     * @throws IllegalArgumentException if the key has no private key or it is encrypted
+     */
+    public PrecomputedSigner(final ECKey key) {
+        if (key.isPubKeyOnly() || key.isEncrypted()) {
+            throw new IllegalArgumentException("key cannot sign, it has no unencrypted private key");
+        }
+        this.pubKey = key.getPubKey();
+        this.privateKey = key.getPrivKey();
+        // builds the table now rather than on the first signature
+        Table.POINTS.getClass();
+    }
+
+    @Override
+    public byte[] getPubKey() {
+        return pubKey;
+    }
+
+    /**
+     * Same as ECDSASigner with a HMacDSAKCalculator, as used by {@link ECKey#sign(Sha256Hash)}.
+     */
+    @Override
+    public ECKey.ECDSASignature sign(final Sha256Hash hash) {
+        final BigInteger n = ECKey.CURVE.getN();
+        final byte[] message = hash.getBytes();
+        final BigInteger e = new BigInteger(1, message);
+        final HMacDSAKCalculator kCalculator = new HMacDSAKCalculator(new SHA256Digest());
+        kCalculator.init(n, privateKey, message);
+        BigInteger r;
+        BigInteger s;
+        do {
+            BigInteger k;
+            do {
+                k = kCalculator.nextK();
+                r = multiplyG(k).getAffineXCoord().toBigInteger().mod(n);
+            } while (r.signum() == 0);
+            s = k.modInverse(n).multiply(e.add(privateKey.multiply(r))).mod(n);
+        } while (s.signum() == 0);
+        return new ECKey.ECDSASignature(r, s).toCanonicalised();
+    }
+
+    /**
+     * @return k * G, normalized
+     */
+    static ECPoint multiplyG(final BigInteger k) {
+        final ECPoint[][] points = Table.POINTS;
+        final byte[] bytes = Utils.bigIntegerToBytes(k, 32);
+        ECPoint result = ECKey.CURVE.getCurve().getInfinity();
+        for (int w = 0; w < NR_WINDOWS; w++) {
+            final int digit = bytes[31 - w] & 0xff;
+            if (digit != 0) {
+                result = result.add(points[w][digit - 1]);
+            }
+        }
+        return result.normalize();
+    }
+
+    /* built on first use by the class initialization, which is thread safe; never modified */
+    private static final class Table {
+        private static final ECPoint[][] POINTS = build();
+
+        private static ECPoint[][] build() {
+            final ECCurve curve = ECKey.CURVE.getCurve();
+            final ECPoint[][] points = new ECPoint[NR_WINDOWS][];
+            ECPoint base = ECKey.CURVE.getG();
+            for (int w = 0; w < NR_WINDOWS; w++) {
+                final ECPoint[] row = new ECPoint[(1 << WINDOW_WIDTH) - 1];
+                row[0] = base;
+                for (int j = 1; j < row.length; j++) {
+                    row[j] = row[j - 1].add(base);
+                }
+                base = row[row.length - 1].add(base);
+                curve.normalizeAll(row);
+                points[w] = row;
+            }
+            return points;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.util;
+
+import static org.bitcoinj.script.ScriptOpCodes.OP_CHECKMULTISIG;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+
+/**
+ * Remembers the multisig redeem scripts of {@link BitcoinUtils#createRedeemScript(int, List)}
+ * with their hash160, so that the script of an account is not built and hashed again on every
+ * request.
+ *
+ * The cache key is the threshold and the sorted public keys, the program is only written on a
+ * miss. The scripts are parsed once and shared, see {@link CachedScript}. The least recently used
+ * script is evicted once the cache is full.
+ */
+public final class RedeemScriptCache {
+
+    public static final int DEFAULT_SIZE = 4096;
+
+    private final Map<Key, CachedScript> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public RedeemScriptCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    public RedeemScriptCache(final int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + maxSize);
+        }
+        // LRU, access order
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<Key, CachedScript>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedScript> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    /**
+     * @return the threshold of pubkeys multisig redeem script, the keys sorted as by
+     *         {@link BitcoinUtils#PUBKEY_COMPARATOR}
+     * @throws IllegalArgumentException if the threshold is not in 1..keys or there are more than
+     *         16 keys
+     */
+    public CachedScript get(final int threshold, final List<ECKey> pubkeys) {
+        final Key key = new Key(threshold, sortedKeys(threshold, pubkeys));
+        CachedScript script = entries.get(key);
+        if (script != null) {
+            hits.incrementAndGet();
+            return script;
+        }
+        misses.incrementAndGet();
+        script = new CachedScript(createProgram(threshold, key.keys));
+        entries.put(key, script);
+        return script;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the share of lookups answered from the cache, 0 if there were none
+     */
+    public double hitRate() {
+        final long hits = this.hits.get();
+        final long total = hits + misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public void clear() {
+        entries.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private static byte[][] sortedKeys(final int threshold, final List<ECKey> pubkeys) {
+        final int nrKeys = pubkeys.size();
+        if (threshold <= 0 || threshold > nrKeys || nrKeys > 16) {
+            throw new IllegalArgumentException("threshold " + threshold + " of " + nrKeys + " keys not supported");
+        }
+        final byte[][] keys = new byte[nrKeys][];
+        for (int i = 0; i < nrKeys; i++) {
+            keys[i] = pubkeys.get(i).getPubKey();
+        }
+        Arrays.sort(keys, BitcoinUtils.PureJavaComparator.INSTANCE);
+        return keys;
+    }
+
+    // the same program as ScriptBuilder.createMultiSigOutputScript with sorted keys
+    private static byte[] createProgram(final int threshold, final byte[][] keys) {
+        final int nrKeys = keys.length;
+        int size = 3;
+        for (byte[] key : keys) {
+            size += ScriptPushes.dataSize(key);
+        }
+        final byte[] program = new byte[size];
+        int offset = ScriptPushes.writeSmallNum(threshold, program, 0);
+        for (byte[] key : keys) {
+            offset = ScriptPushes.writeData(key, program, offset);
+        }
+        offset = ScriptPushes.writeSmallNum(nrKeys, program, offset);
+        program[offset] = (byte) OP_CHECKMULTISIG;
+        return program;
+    }
+
+    /**
+     * A multisig redeem script and its hash160. The arrays are copied when handed out. The
+     * scripts are parsed once and shared by all callers, they must not be modified, i.e., their
+     * creation time must not be set.
+     */
+    public static final class CachedScript {
+        private final byte[] program;
+        private final byte[] hash160;
+        private final Script script;
+        private final Script p2shOutputScript;
+
+        private CachedScript(final byte[] program) {
+            this.program = program;
+            this.hash160 = Utils.sha256hash160(program);
+            this.script = new Script(program);
+            this.p2shOutputScript = ScriptBuilder.createP2SHOutputScript(hash160);
+        }
+
+        public byte[] program() {
+            return program.clone();
+        }
+
+        public byte[] hash160() {
+            return hash160.clone();
+        }
+
+        public Script script() {
+            return script;
+        }
+
+        /**
+         * @return OP_HASH160 <hash160> OP_EQUAL
+         */
+        public Script p2shOutputScript() {
+            return p2shOutputScript;
+        }
+    }
+
+    private static final class Key {
+        private final int threshold;
+        private final byte[][] keys;
+        private final int hash;
+
+        private Key(final int threshold, final byte[][] keys) {
+            this.threshold = threshold;
+            this.keys = keys;
+            this.hash = 31 * threshold + Arrays.deepHashCode(keys);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return threshold == other.threshold && Arrays.deepEquals(keys, other.keys);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.util;
+
+import static org.bitcoinj.script.ScriptOpCodes.OP_0;
+import static org.bitcoinj.script.ScriptOpCodes.OP_1;
+import static org.bitcoinj.script.ScriptOpCodes.OP_PUSHDATA1;
+import static org.bitcoinj.script.ScriptOpCodes.OP_PUSHDATA2;
+
+/**
+ * Writes data pushes and small numbers into a script buffer, byte for byte as
+ * {@link org.bitcoinj.script.ScriptBuilder#data(byte[])} and
+ * {@link org.bitcoinj.script.ScriptBuilder#smallNum(int)} followed by
+ * {@link org.bitcoinj.script.Script#getProgram()} would. The size of a script can be computed
+ * first, so that it is written into one array of the final size.
+ */
+public final class ScriptPushes {
+
+    private ScriptPushes() {
+        // static helpers only
+    }
+
+    /**
+     * @return the number of bytes {@link #writeData(byte[], byte[], int)} writes
+     */
+    public static int dataSize(final byte[] data) {
+        final int length = data.length;
+        if (length == 0 || (length == 1 && data[0] >= 1 && data[0] <= 16)) {
+            return 1;
+        } else if (length < OP_PUSHDATA1) {
+            return 1 + length;
+        } else if (length < 256) {
+            return 2 + length;
+        } else if (length < 65536) {
+            return 3 + length;
+        }
+        throw new IllegalArgumentException("push of " + length + " bytes is not supported");
+    }
+
+    /**
+     * Writes the push of the data at the offset.
+     *
+     * @return the offset after the push
+     */
+    public static int writeData(final byte[] data, final byte[] dst, int offset) {
+        final int length = data.length;
+        if (length == 0) {
+            dst[offset++] = OP_0;
+            return offset;
+        } else if (length == 1 && data[0] >= 1 && data[0] <= 16) {
+            dst[offset++] = (byte) (OP_1 + data[0] - 1);
+            return offset;
+        } else if (length < OP_PUSHDATA1) {
+            dst[offset++] = (byte) length;
+        } else if (length < 256) {
+            dst[offset++] = (byte) OP_PUSHDATA1;
+            dst[offset++] = (byte) length;
+        } else if (length < 65536) {
+            dst[offset++] = (byte) OP_PUSHDATA2;
+            dst[offset++] = (byte) length;
+            dst[offset++] = (byte) (length >>> 8);
+        } else {
+            throw new IllegalArgumentException("push of " + length + " bytes is not supported");
+        }
+        System.arraycopy(data, 0, dst, offset, length);
+        return offset + length;
+    }
+
+    /**
+     * Writes the number 0 to 16 as a single opcode.
+     *
+     * @return the offset after the opcode
+     */
+    public static int writeSmallNum(final int num, final byte[] dst, final int offset) {
+        if (num < 0 || num > 16) {
+            throw new IllegalArgumentException("small number must be 0 to 16: " + num);
+        }
+        dst[offset] = (byte) (num == 0 ? OP_0 : OP_1 + num - 1);
+        return offset + 1;
+    }
+}
@@ -15,10 +15,13 @@
  */
 package com.coinblesk.util;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -30,12 +33,14 @@ import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.Utils;
 import org.bitcoinj.crypto.TransactionSignature;
 import org.bitcoinj.script.Script;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.coinblesk.json.v1.BaseTO;
+import com.coinblesk.json.v1.TOTypeAdapterFactory;
 import com.coinblesk.json.v1.TxSig;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -47,6 +52,11 @@ import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 /**
  *
@@ -55,26 +65,188 @@ import com.google.gson.JsonSerializer;
 public class SerializeUtils {
 
     final private static Logger LOG = LoggerFactory.getLogger(SerializeUtils.class);
+
+    /**
+     * Signature components r and s as decimal strings, also used if no version is set.
+     */
+    public static final int SIGNATURE_VERSION_DECIMAL = 0;
+    /**
+     * Signature components r and s as Base64 of their fixed 32 byte unsigned big endian
+     * representation. About half the size of the decimal form and no radix conversion.
+     */
+    public static final int SIGNATURE_VERSION_COMPACT = 1;
+
+    private static final int SIGNATURE_COMPONENT_LENGTH = 32;
     final private static char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
 
+    /**
+     * Gson for the wire, the output is compact (no indentation, no line breaks).
+     */
     public static final Gson GSON;
+    
+    /**
+     * Gson for signing and verifying only. The output is pretty printed, as
+     * canonicalizeJSON relies on one field per line. Never used for the wire.
+     */
+    private static final Gson GSON_CANONICAL;
+
+    /**
+     * Signatures already verified by {@link #verifyTxSignatures} and {@link #verifyJSONSignatureRaw},
+     * e.g. of requests sent again by the client. Also for the hit rate.
+     */
+    public static final SignatureCache SIGNATURE_CACHE = new SignatureCache();
 
     static {
-        GSON = new GsonBuilder().setPrettyPrinting()
+        GSON = createGsonBuilder().create();
+        GSON_CANONICAL = createGsonBuilder().setPrettyPrinting().create();
+    }
+    
+    private static GsonBuilder createGsonBuilder() {
+        return new GsonBuilder()
+            .registerTypeAdapterFactory(new TOTypeAdapterFactory())
             .registerTypeHierarchyAdapter(byte[].class, new ByteArrayToBase64TypeAdapter())
-            .registerTypeAdapter(Date.class, new DateToGsonAdapter()).create();
+            .registerTypeAdapter(Date.class, new DateToGsonAdapter());
     }
 
-    // create dates in ISO standard
-    private final static class DateToGsonAdapter implements JsonSerializer<Date> {
+    /**
+     * Writes and reads dates in ISO standard, UTC, in the form yyyy-MM-dd'T'HH:mm:ss.SSS'Z' (the
+     * same as SimpleDateFormat with yyyy-MM-dd'T'HH:mm:ss.SSSX). The fields are calculated
+     * directly from the epoch millis, so no formatter or calendar is needed per call and the
+     * adapter is thread-safe. Dates before the Gregorian cutover (Julian calendar) or after the
+     * year 9999 and other ISO time zones when parsing are handled by SimpleDateFormat.
+     */
+    private final static class DateToGsonAdapter extends TypeAdapter<Date> {
+        
+        private static final String ISO_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSSX";
+        private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+        //1582-10-15T00:00:00.000Z, before that SimpleDateFormat uses the Julian calendar
+        private static final long GREGORIAN_CUTOVER = -12219292800000L;
+        //10000-01-01T00:00:00.000Z
+        private static final long YEAR_10000 = 253402300800000L;
+        private static final int ISO_LENGTH = 24;
+        
         @Override
-        public JsonElement serialize(Date date, Type type, JsonSerializationContext context) {
-            TimeZone timeZone = TimeZone.getTimeZone("UTC");
-            SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX");
-            simpleDateFormat.setTimeZone(timeZone);
-            String formattedDate = simpleDateFormat.format(date);
+        public void write(JsonWriter out, Date date) throws IOException {
+            if (date == null) {
+                out.nullValue();
+                return;
+            }
+            out.value(format(date.getTime()));
+        }
 
-            return new JsonPrimitive(formattedDate);
+        @Override
+        public Date read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            final String value = in.nextString();
+            final long millis = parse(value);
+            if (millis != Long.MIN_VALUE) {
+                return new Date(millis);
+            }
+            try {
+                return createFormat().parse(value);
+            } catch (ParseException e) {
+                throw new JsonSyntaxException(value, e);
+            }
+        }
+        
+        static String format(final long millis) {
+            if (millis < GREGORIAN_CUTOVER || millis >= YEAR_10000) {
+                return createFormat().format(new Date(millis));
+            }
+            long days = millis / MILLIS_PER_DAY;
+            int millisOfDay = (int) (millis % MILLIS_PER_DAY);
+            if (millisOfDay < 0) {
+                days--;
+                millisOfDay += MILLIS_PER_DAY;
+            }
+            // civil from days, see http://howardhinnant.github.io/date_algorithms.html
+            final long z = days + 719468;
+            final long era = (z >= 0 ? z : z - 146096) / 146097;
+            final long doe = z - era * 146097;
+            final long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+            final long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+            final long mp = (5 * doy + 2) / 153;
+            final int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+            final int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+            final int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+            
+            final char[] buf = new char[ISO_LENGTH];
+            put(buf, 0, year, 4);
+            buf[4] = '-';
+            put(buf, 5, month, 2);
+            buf[7] = '-';
+            put(buf, 8, day, 2);
+            buf[10] = 'T';
+            put(buf, 11, millisOfDay / 3600000, 2);
+            buf[13] = ':';
+            put(buf, 14, (millisOfDay / 60000) % 60, 2);
+            buf[16] = ':';
+            put(buf, 17, (millisOfDay / 1000) % 60, 2);
+            buf[19] = '.';
+            put(buf, 20, millisOfDay % 1000, 3);
+            buf[23] = 'Z';
+            return new String(buf);
+        }
+        
+        /* returns Long.MIN_VALUE if the value is not in the UTC form as written by format */
+        static long parse(final String value) {
+            if (value.length() != ISO_LENGTH || value.charAt(4) != '-' || value.charAt(7) != '-'
+                    || value.charAt(10) != 'T' || value.charAt(13) != ':' || value.charAt(16) != ':'
+                    || value.charAt(19) != '.' || value.charAt(23) != 'Z') {
+                return Long.MIN_VALUE;
+            }
+            final int year = get(value, 0, 4);
+            final int month = get(value, 5, 2);
+            final int day = get(value, 8, 2);
+            final int hour = get(value, 11, 2);
+            final int minute = get(value, 14, 2);
+            final int second = get(value, 17, 2);
+            final int milli = get(value, 20, 3);
+            if (year < 1583 || month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 
+                    || minute > 59 || second > 59 || milli < 0) {
+                return Long.MIN_VALUE;
+            }
+            // days from civil, see http://howardhinnant.github.io/date_algorithms.html
+            final int y = month <= 2 ? year - 1 : year;
+            final long era = y / 400;
+            final long yoe = y - era * 400;
+            final long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+            final long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+            final long days = era * 146097 + doe - 719468;
+            final long millis = days * MILLIS_PER_DAY + hour * 3600000L + minute * 60000L 
+                    + second * 1000L + milli;
+            // reject dates such as Feb 30, which would silently roll over
+            return format(millis).equals(value) ? millis : Long.MIN_VALUE;
+        }
+        
+        private static void put(final char[] buf, final int offset, int value, final int len) {
+            for (int i = offset + len - 1; i >= offset; i--) {
+                buf[i] = (char) ('0' + value % 10);
+                value /= 10;
+            }
+        }
+        
+        /* returns -1 if there are non-digit chars */
+        private static int get(final String value, final int offset, final int len) {
+            int result = 0;
+            for (int i = offset; i < offset + len; i++) {
+                final int digit = value.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1;
+                }
+                result = result * 10 + digit;
+            }
+            return result;
+        }
+        
+        private static SimpleDateFormat createFormat() {
+            final SimpleDateFormat simpleDateFormat = new SimpleDateFormat(ISO_PATTERN);
+            simpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            simpleDateFormat.setLenient(false);
+            return simpleDateFormat;
         }
     }
 
@@ -95,21 +267,49 @@ public class SerializeUtils {
     }
 
     public static <K extends BaseTO<?>> K signJSON(final K k, final ECKey ecKey)  {
+        return signJSON(k, ecKey, SIGNATURE_VERSION_DECIMAL);
+    }
+
+    public static <K extends BaseTO<?>> K signJSON(final K k, final ECKey ecKey, final int version)  {
         k.messageSig(null);
-        TxSig signature = signJSONRaw(k, ecKey);
+        TxSig signature = signJSONRaw(k, ecKey, version);
         k.messageSig(signature);
         return k;
     }
 
 	public static <K extends BaseTO<?>> TxSig signJSONRaw(final K k, final ECKey ecKey)  {
-        final String json = GSON.toJson(k);
+        return signJSONRaw(k, ecKey, SIGNATURE_VERSION_DECIMAL);
+    }
+
+    public static <K extends BaseTO<?>> TxSig signJSONRaw(final K k, final ECKey ecKey, final int version)  {
+        final ECKey.ECDSASignature sig = ecKey.sign(signHash(k));
+        return toTxSig(sig, version);
+    }
+
+    /**
+     * Same as {@link #signJSON(BaseTO, ECKey, int)}, but signs with the given signer, e.g. a
+     * {@link PrecomputedSigner} for the server key.
+     */
+    public static <K extends BaseTO<?>> K signJSON(final K k, final Signer signer, final int version)  {
+        k.messageSig(null);
+        TxSig signature = signJSONRaw(k, signer, version);
+        k.messageSig(signature);
+        return k;
+    }
+
+    public static <K extends BaseTO<?>> TxSig signJSONRaw(final K k, final Signer signer, final int version)  {
+        final ECKey.ECDSASignature sig = signer.sign(signHash(k));
+        return toTxSig(sig, version);
+    }
+
+    private static Sha256Hash signHash(final BaseTO<?> k) {
+        final String json = GSON_CANONICAL.toJson(k);
 
         final String canonicalJSON = canonicalizeJSON(json);
         final Sha256Hash hash = hash(canonicalJSON);
 
         LOG.debug("json sign serialized to: [{}]=[{}]=hash:{}", json, canonicalJSON, hash);
-        final ECKey.ECDSASignature sig = ecKey.sign(hash);
-        return new TxSig().sigR(sig.r.toString()).sigS(sig.s.toString());
+        return hash;
     }
 
     public static String canonicalizeJSON(final String json) {
@@ -144,13 +344,12 @@ public class SerializeUtils {
     }
 
     public static <K extends BaseTO<?>> boolean verifyJSONSignatureRaw(final K k, final TxSig signature, final ECKey key) {
-        final ECKey.ECDSASignature sig = new ECKey.ECDSASignature(
-        		new BigInteger(signature.sigR()), new BigInteger(signature.sigS()));
-        final String json = GSON.toJson(k);
+        final ECKey.ECDSASignature sig = toECDSASignature(signature);
+        final String json = GSON_CANONICAL.toJson(k);
         final String canonicalJSON = canonicalizeJSON(json);
         final Sha256Hash hash = hash(canonicalJSON);
         LOG.debug("json verify serialized to: [{}]=[{}]=hash:{}", json, canonicalJSON, hash);
-        return key.verify(hash, sig);
+        return SIGNATURE_CACHE.verify(hash, sig, key);
     }
 
     public static boolean verifyTxSignatures(Transaction tx, List<TransactionSignature> sigs,
@@ -159,11 +358,13 @@ public class SerializeUtils {
         if (sigs.size() != len) {
             return false;
         }
+        final SigHashEngine sigHashes = new SigHashEngine(tx);
+        final byte[] program = redeemScript.getProgram();
         for (int i = 0; i < len; i++) {
-            final Sha256Hash sighash = tx.hashForSignature(i, redeemScript, Transaction.SigHash.ALL, false);
+            final Sha256Hash sighash = sigHashes.hashForSignature(i, program);
             LOG.debug("verify for input {}({}), redeemscript={}, sig is {}", i, tx.getInput(i), redeemScript, sighash, sigs.get(i));
             TransactionSignature sig = sigs.get(i);
-            if (!serverPubKey.verify(sighash, sig)) {
+            if (!SIGNATURE_CACHE.verify(sighash, sig, serverPubKey)) {
                 return false;
             }
         }
@@ -171,10 +372,17 @@ public class SerializeUtils {
     }
 
     public static List<TxSig> serializeSignatures(final List<TransactionSignature> signatures) {
+        return serializeSignatures(signatures, SIGNATURE_VERSION_DECIMAL);
+    }
+
+    /**
+     * Serializes the signatures with the given encoding, see {@link #SIGNATURE_VERSION_DECIMAL}
+     * and {@link #SIGNATURE_VERSION_COMPACT}. {@link #deserializeSignatures(List)} reads both.
+     */
+    public static List<TxSig> serializeSignatures(final List<TransactionSignature> signatures, final int version) {
         final List<TxSig> retVal = new ArrayList<>(signatures.size());
         for (final TransactionSignature signature : signatures) {
-            retVal.add(new TxSig().sigR(
-                    signature.r.toString()).sigS(signature.s.toString()));
+            retVal.add(toTxSig(signature, version));
         }
         return retVal;
     }
@@ -182,11 +390,78 @@ public class SerializeUtils {
     public static List<TransactionSignature> deserializeSignatures(final List<TxSig> signatures) {
         final List<TransactionSignature> retVal = new ArrayList<>(signatures.size());
         for (final TxSig txsig : signatures) {
-            retVal.add(new TransactionSignature(new BigInteger(txsig.sigR()), new BigInteger(txsig.sigS())));
+            retVal.add(new TransactionSignature(
+                    decodeSignatureComponent(txsig.sigR(), txsig.version()),
+                    decodeSignatureComponent(txsig.sigS(), txsig.version())));
         }
         return retVal;
     }
 
+    /**
+     * Same as {@link #serializeSignatures(List, int)}, the compact encoding copies r and s as they are.
+     */
+    public static List<TxSig> serializeCompactSignatures(final List<CompactSignature> signatures, final int version) {
+        final List<TxSig> retVal = new ArrayList<>(signatures.size());
+        for (final CompactSignature signature : signatures) {
+            retVal.add(signature.toTxSig(version));
+        }
+        return retVal;
+    }
+
+    /**
+     * Same as {@link #deserializeSignatures(List)}, but the signatures are low S and have their
+     * bitcoin encoding ready for the scriptSigs, see {@link CompactSignature}.
+     */
+    public static List<CompactSignature> deserializeCompactSignatures(final List<TxSig> signatures) {
+        final List<CompactSignature> retVal = new ArrayList<>(signatures.size());
+        for (final TxSig txsig : signatures) {
+            retVal.add(CompactSignature.fromTxSig(txsig));
+        }
+        return retVal;
+    }
+
+    public static TxSig toTxSig(final ECKey.ECDSASignature signature, final int version) {
+        final TxSig txSig = new TxSig()
+                .sigR(encodeSignatureComponent(signature.r, version))
+                .sigS(encodeSignatureComponent(signature.s, version));
+        return version == SIGNATURE_VERSION_DECIMAL ? txSig : txSig.version(version);
+    }
+
+    public static ECKey.ECDSASignature toECDSASignature(final TxSig signature) {
+        return new ECKey.ECDSASignature(
+                decodeSignatureComponent(signature.sigR(), signature.version()),
+                decodeSignatureComponent(signature.sigS(), signature.version()));
+    }
+
+    public static String encodeSignatureComponent(final BigInteger value, final int version) {
+        switch (version) {
+            case SIGNATURE_VERSION_DECIMAL:
+                return value.toString();
+            case SIGNATURE_VERSION_COMPACT:
+                return Base64.encodeToString(Utils.bigIntegerToBytes(value, SIGNATURE_COMPONENT_LENGTH),
+                        Base64.NO_WRAP | Base64.NO_PADDING);
+            default:
+                throw new IllegalArgumentException("unknown signature version " + version);
+        }
+    }
+
+    /**
+     * Decodes r or s of a signature, a null version is the decimal encoding.
+     */
+    public static BigInteger decodeSignatureComponent(final String value, final Integer version) {
+        if (version == null || version == SIGNATURE_VERSION_DECIMAL) {
+            return new BigInteger(value);
+        } else if (version == SIGNATURE_VERSION_COMPACT) {
+            final byte[] raw = Base64.decode(value, Base64.NO_WRAP);
+            if (raw.length != SIGNATURE_COMPONENT_LENGTH) {
+                throw new IllegalArgumentException("signature component must have "
+                        + SIGNATURE_COMPONENT_LENGTH + " bytes, but has " + raw.length);
+            }
+            return new BigInteger(1, raw);
+        }
+        throw new IllegalArgumentException("unknown signature version " + version);
+    }
+
     public static List<byte[]> serializeOutPoints(final List<TransactionOutPoint> transactionOutPoints) {
         final List<byte[]> retVal = new ArrayList<>(transactionOutPoints.size());
         for (final TransactionOutPoint top : transactionOutPoints) {
@@ -224,6 +499,45 @@ public class SerializeUtils {
         return retVal;
     }
 
+    /**
+     * Packs the outpoints and their values into one array, see {@link PackedOutPoints}. This is
+     * the compact alternative to {@link #serializeOutPointsCoin(List)}.
+     */
+    public static byte[] serializeOutPointsCoinPacked(
+            final List<Pair<TransactionOutPoint, Coin>> transactionOutPoints) {
+        return PackedOutPoints.pack(transactionOutPoints).data();
+    }
+
+    public static List<Pair<TransactionOutPoint, Coin>> deserializeOutPointsCoinPacked(
+            final NetworkParameters params, final byte[] packed) {
+        return new PackedOutPoints(packed).unpack(params);
+    }
+
+    public static byte[] serializeOutPointValues(final Collection<OutPointValue> outPointValues) {
+        return PackedOutPoints.packValues(outPointValues).data();
+    }
+
+    public static List<OutPointValue> deserializeOutPointValues(final byte[] packed) {
+        return new PackedOutPoints(packed).unpackValues();
+    }
+
+    /**
+     * Reads the outpoints as sent in {@code outpointsCoinPair}, see {@link #serializeOutPointsCoin(List)}.
+     */
+    public static List<OutPointValue> deserializeOutPointValues(final List<Pair<byte[], Long>> outPointsCoin) {
+        final List<OutPointValue> retVal = new ArrayList<>(outPointsCoin.size());
+        for (final Pair<byte[], Long> p : outPointsCoin) {
+            final byte[] outPoint = p.element0();
+            if (outPoint.length != PackedOutPoints.OUTPOINT_LENGTH) {
+                throw new IllegalArgumentException("outpoint must have " + PackedOutPoints.OUTPOINT_LENGTH
+                        + " bytes, but has " + outPoint.length);
+            }
+            retVal.add(new OutPointValue(Sha256Hash.wrapReversed(Arrays.copyOf(outPoint, 32)),
+                    Utils.readUint32(outPoint, 32), p.element1()));
+        }
+        return retVal;
+    }
+
     public static String bytesToHex(final byte[] bytes) {
         final int len = bytes.length;
         final char[] hexChars = new char[len * 2];
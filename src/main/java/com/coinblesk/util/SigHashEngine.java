@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.List;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VarInt;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptOpCodes;
+
+/**
+ * Computes the SIGHASH_ALL signature hashes of all inputs of a transaction, the same as
+ * {@code tx.hashForSignature(i, script, SigHash.ALL, false)}.
+ *
+ * bitcoinj copies and serializes the whole transaction for every input. Here, the parts that are
+ * the same for every input are serialized once: the inputs with empty scripts, the outputs and
+ * the lock time. Only the script code of the input to sign is substituted. In addition, the
+ * SHA-256 state after the inputs before the current one is kept and advanced, so that signing
+ * the inputs in order hashes that prefix only once.
+ *
+ * The transaction is read when the engine is created, later changes of outpoints, sequence
+ * numbers, outputs or the lock time are not seen. Changes of the scriptSigs do not matter. An
+ * engine is not thread safe.
+ */
+public class SigHashEngine {
+
+    private static final int SIGHASH_ALL = 1;
+    // outpoint, empty script, sequence number
+    private static final int EMPTY_INPUT_LENGTH = 36 + 1 + 4;
+
+    private final int nrInputs;
+    private final byte[] header;
+    private final byte[] inputs;
+    private final byte[] trailer;
+
+    // the digest over the header and the first prefixInputs inputs
+    private MessageDigest prefix;
+    private int prefixInputs;
+
+    public SigHashEngine(final Transaction tx) {
+        final List<TransactionInput> txInputs = tx.getInputs();
+        this.nrInputs = txInputs.size();
+
+        final VarInt nrInputsVarInt = new VarInt(nrInputs);
+        this.header = new byte[4 + nrInputsVarInt.getSizeInBytes()];
+        Utils.uint32ToByteArrayLE(tx.getVersion(), header, 0);
+        System.arraycopy(nrInputsVarInt.encode(), 0, header, 4, nrInputsVarInt.getSizeInBytes());
+
+        this.inputs = new byte[nrInputs * EMPTY_INPUT_LENGTH];
+        for (int i = 0; i < nrInputs; i++) {
+            final TransactionInput input = txInputs.get(i);
+            final int offset = i * EMPTY_INPUT_LENGTH;
+            System.arraycopy(input.getOutpoint().bitcoinSerialize(), 0, inputs, offset, 36);
+            inputs[offset + 36] = 0;
+            Utils.uint32ToByteArrayLE(input.getSequenceNumber(), inputs, offset + 37);
+        }
+
+        try {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            final List<TransactionOutput> outputs = tx.getOutputs();
+            bos.write(new VarInt(outputs.size()).encode());
+            for (TransactionOutput output : outputs) {
+                output.bitcoinSerialize(bos);
+            }
+            Utils.uint32ToByteStreamLE(tx.getLockTime(), bos);
+            Utils.uint32ToByteStreamLE(SIGHASH_ALL, bos);
+            this.trailer = bos.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e); // cannot happen
+        }
+    }
+
+    public int nrInputs() {
+        return nrInputs;
+    }
+
+    public Sha256Hash hashForSignature(final int inputIndex, final Script scriptCode) {
+        return hashForSignature(inputIndex, scriptCode.getProgram());
+    }
+
+    /**
+     * @return the SIGHASH_ALL hash to sign input inputIndex, which spends scriptCode
+     */
+    public Sha256Hash hashForSignature(final int inputIndex, final byte[] scriptCode) {
+        if (inputIndex < 0 || inputIndex >= nrInputs) {
+            throw new IndexOutOfBoundsException("input " + inputIndex + ", inputs " + nrInputs);
+        }
+        final byte[] code = Script.removeAllInstancesOfOp(scriptCode, ScriptOpCodes.OP_CODESEPARATOR);
+        final MessageDigest digest = prefix(inputIndex);
+
+        final int offset = inputIndex * EMPTY_INPUT_LENGTH;
+        digest.update(inputs, offset, 36);
+        digest.update(new VarInt(code.length).encode());
+        digest.update(code);
+        digest.update(inputs, offset + 37, 4);
+        final int next = offset + EMPTY_INPUT_LENGTH;
+        digest.update(inputs, next, inputs.length - next);
+        digest.update(trailer);
+
+        return Sha256Hash.wrap(Sha256Hash.hash(digest.digest()));
+    }
+
+    /**
+     * @return a digest over the header and the inputs before inputIndex, which can be updated
+     */
+    private MessageDigest prefix(final int inputIndex) {
+        if (prefix == null || prefixInputs > inputIndex) {
+            prefix = Sha256Hash.newDigest();
+            prefix.update(header);
+            prefixInputs = 0;
+        }
+        prefix.update(inputs, prefixInputs * EMPTY_INPUT_LENGTH, (inputIndex - prefixInputs) * EMPTY_INPUT_LENGTH);
+        prefixInputs = inputIndex;
+        try {
+            return (MessageDigest) prefix.clone();
+        } catch (CloneNotSupportedException e) {
+            // hash the prefix again for this input
+            final MessageDigest digest = Sha256Hash.newDigest();
+            digest.update(header);
+            digest.update(inputs, 0, inputIndex * EMPTY_INPUT_LENGTH);
+            return digest;
+        }
+    }
+}
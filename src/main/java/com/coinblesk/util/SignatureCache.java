@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.util;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+
+/**
+ * Remembers signatures that were verified successfully, so that verifying the same signature of
+ * the same hash with the same key again does not need the ECDSA verification. This is the case
+ * when clients send the same signed transaction again after a timeout.
+ *
+ * An entry is SHA-256(salt | hash | public key | r | s), all 256 bits, with r and s as 32 bytes
+ * each. The salt is 32 random bytes per cache, so that nobody can search for inputs that collide
+ * with an entry of a valid signature offline, as in the signature cache of Bitcoin Core. Only
+ * valid signatures are stored, invalid ones are verified every time. The least
+ * recently used entry is evicted once the cache is full.
+ */
+public final class SignatureCache {
+
+    public static final int DEFAULT_SIZE = 16 * 1024;
+
+    private final byte[] salt = new byte[32];
+    private final Map<Key, Boolean> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SignatureCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    public SignatureCache(final int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + maxSize);
+        }
+        new SecureRandom().nextBytes(salt);
+        // LRU, access order
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    /**
+     * Same as {@code key.verify(hash, signature)}, but answered from the cache if this signature
+     * was verified before.
+     */
+    public boolean verify(final Sha256Hash hash, final ECKey.ECDSASignature signature, final ECKey key) {
+        if (!fits(signature.r) || !fits(signature.s)) {
+            // not a valid signature, and no 32 byte encoding for the entry
+            misses.incrementAndGet();
+            return key.verify(hash, signature);
+        }
+        final Key cacheKey = cacheKey(hash, signature, key);
+        if (entries.get(cacheKey) != null) {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        final boolean valid = key.verify(hash, signature);
+        if (valid) {
+            entries.put(cacheKey, Boolean.TRUE);
+        }
+        return valid;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the share of verifications answered from the cache, 0 if there were none
+     */
+    public double hitRate() {
+        final long hits = this.hits.get();
+        final long total = hits + misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public void clear() {
+        entries.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private static boolean fits(final BigInteger value) {
+        return value.signum() >= 0 && value.bitLength() <= 256;
+    }
+
+    private Key cacheKey(final Sha256Hash hash, final ECKey.ECDSASignature signature, final ECKey key) {
+        final MessageDigest digest = Sha256Hash.newDigest();
+        digest.update(salt);
+        digest.update(hash.getBytes());
+        digest.update(key.getPubKey());
+        digest.update(Utils.bigIntegerToBytes(signature.r, 32));
+        digest.update(Utils.bigIntegerToBytes(signature.s, 32));
+        final byte[] d = digest.digest();
+        return new Key(Utils.readInt64(d, 0), Utils.readInt64(d, 8), Utils.readInt64(d, 16), Utils.readInt64(d, 24));
+    }
+
+    private static final class Key {
+        private final long d0, d1, d2, d3;
+
+        private Key(final long d0, final long d1, final long d2, final long d3) {
+            this.d0 = d0;
+            this.d1 = d1;
+            this.d2 = d2;
+            this.d3 = d3;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return d0 == other.d0 && d1 == other.d1 && d2 == other.d2 && d3 == other.d3;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) d3;
+        }
+    }
+}
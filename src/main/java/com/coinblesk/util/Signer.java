@@ -0,0 +1,36 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.util;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+
+/**
+ * Creates ECDSA signatures with one private key, e.g. the key of the server.
+ */
+public interface Signer {
+
+    /**
+     * @return the public key belonging to the private key that signs
+     */
+    byte[] getPubKey();
+
+    /**
+     * @return the deterministic (RFC 6979), canonical (low S) signature of the hash, the same as
+     *         {@link ECKey#sign(Sha256Hash)}
+     */
+    ECKey.ECDSASignature sign(Sha256Hash hash);
+}
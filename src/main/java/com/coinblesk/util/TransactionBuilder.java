@@ -0,0 +1,202 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.util;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.VarInt;
+
+/**
+ * Assembles a transaction and keeps track of its exact serialized size, the input and output
+ * values and the number of regular and P2SH inputs and outputs while they are added. The fee
+ * estimation and the fee failsafe therefore need neither a serialization of the transaction nor
+ * a second pass over the scripts.
+ *
+ * Inputs and outputs are added in the order given, callers that want a deterministic order add
+ * them sorted, see {@link BitcoinUtils#sortInputs(java.util.List)}.
+ */
+public class TransactionBuilder {
+
+    // version and lock time
+    private static final int FIXED_SIZE = 4 + 4;
+    // outpoint and sequence number
+    private static final int INPUT_FIXED_SIZE = 36 + 4;
+    // value
+    private static final int OUTPUT_FIXED_SIZE = 8;
+    // fees above this many satoshis per byte are considered a mistake
+    private static final int MAX_FEE_PER_BYTE = 750;
+
+    private final Transaction tx;
+
+    private long inputValue = 0;
+    private long outputValue = 0;
+    private int inputsSize = 0;
+    private int outputsSize = 0;
+
+    private int nrInputsRegular = 0;
+    private int nrInputsP2SH = 0;
+    private int nrOutputsRegular = 0;
+    private int nrOutputsP2SH = 0;
+
+    public TransactionBuilder(final NetworkParameters params) {
+        this.tx = new Transaction(params);
+    }
+
+    /**
+     * @return the transaction under construction, e.g. as parent for new outputs
+     */
+    public Transaction transaction() {
+        return tx;
+    }
+
+    /**
+     * Spends the given output, which is classified by its scriptPubKey.
+     */
+    public TransactionInput addInput(final TransactionOutput from) {
+        final TransactionInput input = tx.addInput(from);
+        if (from.getScriptPubKey().isPayToScriptHash()) {
+            nrInputsP2SH++;
+        } else {
+            nrInputsRegular++;
+        }
+        inputValue += from.getValue().value;
+        inputsSize += inputSize(input);
+        return input;
+    }
+
+    /**
+     * Adds an input with a known value. Inputs that carry a multisig redeem script count as P2SH,
+     * the same as in {@link BitcoinUtils#calcFee(Transaction)}.
+     *
+     * @throws IllegalArgumentException if the value of the input is not known
+     */
+    public TransactionInput addInput(final TransactionInput input) {
+        return addInput(input, input.getScriptSig().isSentToMultiSig());
+    }
+
+    /**
+     * Adds an input with a known value, which is counted as P2SH or regular input as given.
+     *
+     * @throws IllegalArgumentException if the value of the input is not known
+     */
+    public TransactionInput addInput(final TransactionInput input, final boolean p2sh) {
+        if (input.getValue() == null) {
+            throw new IllegalArgumentException("value of input " + input + " is unknown");
+        }
+        tx.addInput(input);
+        if (p2sh) {
+            nrInputsP2SH++;
+        } else {
+            nrInputsRegular++;
+        }
+        inputValue += input.getValue().value;
+        inputsSize += inputSize(input);
+        return input;
+    }
+
+    public TransactionOutput addOutput(final TransactionOutput output) {
+        tx.addOutput(output);
+        if (output.getScriptPubKey().isPayToScriptHash()) {
+            nrOutputsP2SH++;
+        } else {
+            nrOutputsRegular++;
+        }
+        outputValue += output.getValue().value;
+        final int scriptLength = output.getScriptBytes().length;
+        outputsSize += OUTPUT_FIXED_SIZE + VarInt.sizeOf(scriptLength) + scriptLength;
+        return output;
+    }
+
+    /**
+     * @return the size of the transaction serialized as it is now
+     */
+    public int size() {
+        return FIXED_SIZE
+                + VarInt.sizeOf(tx.getInputs().size()) + inputsSize
+                + VarInt.sizeOf(tx.getOutputs().size()) + outputsSize;
+    }
+
+    public long inputValue() {
+        return inputValue;
+    }
+
+    public long outputValue() {
+        return outputValue;
+    }
+
+    /**
+     * @return the fee paid by the transaction as it is now, the input value minus the output value
+     */
+    public long fee() {
+        return inputValue - outputValue;
+    }
+
+    /**
+     * @return the fee the transaction should pay once it is signed, see
+     *         {@link BitcoinUtils#calcFee(int, int, int, int)}
+     */
+    public int calcFee() {
+        return BitcoinUtils.calcFee(nrOutputsRegular, nrOutputsP2SH, nrInputsRegular, nrInputsP2SH);
+    }
+
+    public int nrInputsRegular() {
+        return nrInputsRegular;
+    }
+
+    public int nrInputsP2SH() {
+        return nrInputsP2SH;
+    }
+
+    public int nrOutputsRegular() {
+        return nrOutputsRegular;
+    }
+
+    public int nrOutputsP2SH() {
+        return nrOutputsP2SH;
+    }
+
+    /**
+     * Failsafe against fees that are far too large.
+     *
+     * @throws CoinbleskException if the transaction pays more than 750 satoshis per byte
+     */
+    public TransactionBuilder checkFee() throws CoinbleskException {
+        final long maxFee = (long) size() * MAX_FEE_PER_BYTE;
+        if (fee() > maxFee) {
+            throw new CoinbleskException("Failsafe: fees are large: " + fee() + " vs. " + maxFee);
+        }
+        return this;
+    }
+
+    /**
+     * Checks the fee and verifies the transaction.
+     *
+     * @return the transaction
+     * @throws CoinbleskException if the fee is too large or the transaction does not verify
+     */
+    public Transaction build() throws CoinbleskException {
+        checkFee();
+        BitcoinUtils.verifyTxSimple(tx);
+        return tx;
+    }
+
+    private static int inputSize(final TransactionInput input) {
+        final int scriptLength = input.getScriptBytes().length;
+        return INPUT_FIXED_SIZE + VarInt.sizeOf(scriptLength) + scriptLength;
+    }
+}
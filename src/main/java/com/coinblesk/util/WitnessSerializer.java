@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VarInt;
+
+/**
+ * Serializes transactions with witnesses (BIP 144), which bitcoinj 0.14 does not support. The
+ * witnesses are given separately, one stack of items per input, an empty stack for inputs that
+ * are not witness inputs. The transaction id stays the hash of
+ * {@link Transaction#bitcoinSerialize()}.
+ */
+public final class WitnessSerializer {
+
+    private WitnessSerializer() {
+        // static helpers only
+    }
+
+    /**
+     * @param witnesses the witness of each input, in the order of the inputs
+     * @return the serialization with marker, flag and witnesses, or the legacy serialization if
+     *         all witnesses are empty
+     */
+    public static byte[] serialize(final Transaction tx, final List<List<byte[]>> witnesses) {
+        final List<TransactionInput> inputs = tx.getInputs();
+        if (witnesses.size() != inputs.size()) {
+            throw new IllegalArgumentException("Number of witnesses must match inputs.");
+        }
+        if (!hasWitness(witnesses)) {
+            return tx.bitcoinSerialize();
+        }
+        try {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            Utils.uint32ToByteStreamLE(tx.getVersion(), bos);
+            bos.write(0); // marker
+            bos.write(1); // flag
+            bos.write(new VarInt(inputs.size()).encode());
+            for (TransactionInput input : inputs) {
+                input.bitcoinSerialize(bos);
+            }
+            final List<TransactionOutput> outputs = tx.getOutputs();
+            bos.write(new VarInt(outputs.size()).encode());
+            for (TransactionOutput output : outputs) {
+                output.bitcoinSerialize(bos);
+            }
+            for (List<byte[]> witness : witnesses) {
+                bos.write(new VarInt(witness.size()).encode());
+                for (byte[] item : witness) {
+                    bos.write(new VarInt(item.length).encode());
+                    bos.write(item);
+                }
+            }
+            Utils.uint32ToByteStreamLE(tx.getLockTime(), bos);
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e); // cannot happen
+        }
+    }
+
+    /**
+     * @return the weight (BIP 141): 3 times the size without witnesses plus the size with them
+     */
+    public static int weight(final Transaction tx, final List<List<byte[]>> witnesses) {
+        final int baseSize = tx.bitcoinSerialize().length;
+        if (!hasWitness(witnesses)) {
+            return baseSize * 4;
+        }
+        // marker and flag
+        return baseSize * 4 + 2 + witnessSize(witnesses);
+    }
+
+    /**
+     * @return the virtual size, weight / 4 rounded up
+     */
+    public static int virtualSize(final Transaction tx, final List<List<byte[]>> witnesses) {
+        return (weight(tx, witnesses) + 3) / 4;
+    }
+
+    private static boolean hasWitness(final List<List<byte[]>> witnesses) {
+        for (List<byte[]> witness : witnesses) {
+            if (!witness.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int witnessSize(final List<List<byte[]>> witnesses) {
+        int size = 0;
+        for (List<byte[]> witness : witnesses) {
+            size += VarInt.sizeOf(witness.size());
+            for (byte[] item : witness) {
+                size += VarInt.sizeOf(item.length) + item.length;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 The Coinblesk team and the CSG Group at University of Zurich
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.coinblesk.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.List;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VarInt;
+import org.bitcoinj.script.Script;
+
+/**
+ * Computes the SIGHASH_ALL signature hashes of witness inputs (BIP 143). Unlike the legacy
+ * signature hash of {@link SigHashEngine}, the hash of an input does not cover the other inputs
+ * one by one: the outpoints, the sequence numbers and the outputs are hashed once when the engine
+ * is created, so that signing all inputs of a transaction is linear in its size.
+ *
+ * The values of the spent outputs are signed as well and must be given. The transaction is read
+ * when the engine is created, later changes are not seen. An engine is thread safe.
+ */
+public class WitnessSigHashEngine {
+
+    private static final int SIGHASH_ALL = 1;
+
+    private final int nrInputs;
+    private final long[] values;
+    private final byte[] outPoints;
+    private final byte[] sequences;
+    private final byte[] version;
+    private final byte[] hashPrevouts;
+    private final byte[] hashSequence;
+    private final byte[] hashOutputs;
+    private final byte[] trailer;
+
+    /**
+     * @param inputValues the values of the outputs the inputs spend, in the order of the inputs
+     */
+    public WitnessSigHashEngine(final Transaction tx, final List<Coin> inputValues) {
+        final List<TransactionInput> txInputs = tx.getInputs();
+        this.nrInputs = txInputs.size();
+        if (inputValues.size() != nrInputs) {
+            throw new IllegalArgumentException("Number of input values must match inputs.");
+        }
+
+        this.values = new long[nrInputs];
+        this.outPoints = new byte[nrInputs * 36];
+        this.sequences = new byte[nrInputs * 4];
+        for (int i = 0; i < nrInputs; i++) {
+            final TransactionInput input = txInputs.get(i);
+            values[i] = inputValues.get(i).value;
+            System.arraycopy(input.getOutpoint().bitcoinSerialize(), 0, outPoints, i * 36, 36);
+            Utils.uint32ToByteArrayLE(input.getSequenceNumber(), sequences, i * 4);
+        }
+        this.hashPrevouts = Sha256Hash.hashTwice(outPoints);
+        this.hashSequence = Sha256Hash.hashTwice(sequences);
+
+        try {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            for (TransactionOutput output : tx.getOutputs()) {
+                output.bitcoinSerialize(bos);
+            }
+            this.hashOutputs = Sha256Hash.hashTwice(bos.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException(e); // cannot happen
+        }
+
+        this.version = new byte[4];
+        Utils.uint32ToByteArrayLE(tx.getVersion(), version, 0);
+        this.trailer = new byte[8];
+        Utils.uint32ToByteArrayLE(tx.getLockTime(), trailer, 0);
+        Utils.uint32ToByteArrayLE(SIGHASH_ALL, trailer, 4);
+    }
+
+    public int nrInputs() {
+        return nrInputs;
+    }
+
+    public Sha256Hash hashForSignature(final int inputIndex, final Script witnessScript) {
+        return hashForSignature(inputIndex, witnessScript.getProgram());
+    }
+
+    /**
+     * @param witnessScript the script the input spends, e.g. the witness script of a P2WSH output
+     * @return the SIGHASH_ALL hash to sign input inputIndex
+     */
+    public Sha256Hash hashForSignature(final int inputIndex, final byte[] witnessScript) {
+        if (inputIndex < 0 || inputIndex >= nrInputs) {
+            throw new IndexOutOfBoundsException("input " + inputIndex + ", inputs " + nrInputs);
+        }
+        final byte[] value = new byte[8];
+        Utils.uint64ToByteArrayLE(values[inputIndex], value, 0);
+
+        final MessageDigest digest = Sha256Hash.newDigest();
+        digest.update(version);
+        digest.update(hashPrevouts);
+        digest.update(hashSequence);
+        digest.update(outPoints, inputIndex * 36, 36);
+        digest.update(new VarInt(witnessScript.length).encode());
+        digest.update(witnessScript);
+        digest.update(value);
+        digest.update(sequences, inputIndex * 4, 4);
+        digest.update(hashOutputs);
+        digest.update(trailer);
+        return Sha256Hash.wrap(Sha256Hash.hash(digest.digest()));
+    }
+}
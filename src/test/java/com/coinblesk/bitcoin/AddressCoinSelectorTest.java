@@ -10,7 +10,9 @@ import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.ECKey;
 import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutPoint;
 import org.bitcoinj.core.TransactionOutput;
 import org.bitcoinj.params.MainNetParams;
 import org.bitcoinj.wallet.CoinSelection;
@@ -66,4 +68,63 @@ public class AddressCoinSelectorTest {
 		assertEquals(balances.get(a2), to_a2);
 	}
 	
+	@Test
+	public void testCoinSelectorUtxoSet() {
+		Address a1 = new ECKey().toAddress(params);
+		Address a2 = new ECKey().toAddress(params);
+		Coin to_a1 = Coin.COIN.div(2);
+		Coin to_a2 = Coin.COIN.div(4);
+		
+		UtxoSet utxos = new UtxoSet();
+		for (TransactionOutput output : FakeTxBuilder.createFakeTx(params, to_a1, a1).getOutputs()) {
+			utxos.add(output);
+		}
+		for (TransactionOutput output : FakeTxBuilder.createFakeTx(params, to_a2, a2).getOutputs()) {
+			utxos.add(output);
+		}
+		
+		AddressCoinSelector selector = new AddressCoinSelector(a1, params);
+		int[] selected = selector.select(Coin.ZERO, utxos);
+		assertEquals(1, selected.length);
+		assertEquals(to_a1.value, utxos.value(selected[0]));
+		
+		Map<Address, Coin> balances = selector.getAddressBalances();
+		assertEquals(to_a1, balances.get(a1));
+		assertEquals(to_a2, balances.get(a2));
+		
+		utxos.spend(selected[0]);
+		assertEquals(0, new AddressCoinSelector(a1, params).select(Coin.ZERO, utxos).length);
+	}
+	
+	@Test
+	public void testCoinSelectorUtxoSetManyAddresses() {
+		List<Address> addresses = new ArrayList<>();
+		for (int a = 0; a < 100; a++) {
+			addresses.add(new ECKey().toAddress(params));
+		}
+		// same hash as the first address, but a different script type
+		Address p2sh = Address.fromP2SHHash(params, addresses.get(0).getHash160());
+		addresses.add(p2sh);
+		
+		UtxoSet utxos = new UtxoSet();
+		for (int a = 0; a < addresses.size(); a++) {
+			Address address = addresses.get(a);
+			for (int k = 0; k < 5; k++) {
+				TransactionOutPoint outPoint = new TransactionOutPoint(params, k, 
+						Sha256Hash.of(new byte[] { (byte) a, (byte) k }));
+				utxos.add(outPoint, 1000 * (a + 1) + k, address.isP2SHAddress(), address.getHash160());
+			}
+		}
+		utxos.spend(new TransactionOutPoint(params, 0, Sha256Hash.of(new byte[] { 0, 0 })));
+		
+		AddressCoinSelector selector = new AddressCoinSelector(p2sh, params);
+		assertEquals(5, selector.select(Coin.ZERO, utxos).length);
+		
+		Map<Address, Coin> balances = selector.getAddressBalances();
+		assertEquals(addresses.size(), balances.size());
+		assertEquals(Coin.valueOf(5000 + 1 + 2 + 3 + 4 - 1000), balances.get(addresses.get(0)));
+		for (int a = 1; a < addresses.size(); a++) {
+			assertEquals(Coin.valueOf(5 * 1000 * (a + 1) + 10), balances.get(addresses.get(a)));
+		}
+	}
 }
@@ -0,0 +1,142 @@
+package com.coinblesk.bitcoin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.bitcoinj.core.ECKey;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LockTimeSchedulerTest {
+	
+	private static final long NOW = 1480000000L;
+	
+	private LockTimeScheduler scheduler;
+	
+	@Before
+	public void before() {
+		scheduler = new LockTimeScheduler();
+	}
+	
+	@Test
+	public void testHeight() {
+		TimeLockedAddress a = address(100);
+		TimeLockedAddress b = address(101);
+		TimeLockedAddress c = address(150);
+		scheduler.add(a);
+		scheduler.add(b);
+		scheduler.add(c);
+		assertEquals(3, scheduler.size());
+		assertEquals(100, scheduler.nextHeight());
+		assertEquals(-1, scheduler.nextTime());
+		
+		assertTrue(scheduler.advance(99, NOW).isEmpty());
+		assertEquals(Collections.singletonList(a), scheduler.advance(100, NOW));
+		assertTrue(scheduler.advance(100, NOW).isEmpty());
+		assertEquals(Arrays.asList(b, c), scheduler.advance(200, NOW));
+		assertEquals(0, scheduler.size());
+		assertEquals(-1, scheduler.nextHeight());
+	}
+	
+	@Test
+	public void testTimeWithinBucket() {
+		TimeLockedAddress a = address(NOW + 10);
+		TimeLockedAddress b = address(NOW + 20);
+		TimeLockedAddress c = address(NOW + 10000);
+		scheduler.add(c);
+		scheduler.add(b);
+		scheduler.add(a);
+		assertEquals(NOW + 10, scheduler.nextTime());
+		
+		assertTrue(scheduler.advanceTime(NOW + 9).isEmpty());
+		assertEquals(Collections.singletonList(a), scheduler.advanceTime(NOW + 10));
+		assertEquals(NOW + 20, scheduler.nextTime());
+		assertEquals(Collections.singletonList(b), scheduler.advanceTime(NOW + 9999));
+		assertEquals(Collections.singletonList(c), scheduler.advanceTime(NOW + 10000));
+		assertEquals(0, scheduler.size());
+	}
+	
+	@Test
+	public void testHeightAndTimeAreSeparate() {
+		TimeLockedAddress byHeight = address(100);
+		TimeLockedAddress byTime = address(NOW);
+		scheduler.add(byHeight);
+		scheduler.add(byTime);
+		
+		assertEquals(Collections.singletonList(byHeight), scheduler.advanceHeight(100));
+		assertEquals(Collections.singletonList(byTime), scheduler.advanceTime(NOW));
+	}
+	
+	@Test
+	public void testAlreadyExpired() {
+		TimeLockedAddress a = address(100);
+		scheduler.advance(200, NOW);
+		scheduler.add(a);
+		assertEquals(Collections.singletonList(a), scheduler.advance(200, NOW));
+	}
+	
+	@Test
+	public void testAddRemove() {
+		TimeLockedAddress a = address(100);
+		assertTrue(scheduler.add(a));
+		assertFalse(scheduler.add(a));
+		assertTrue(scheduler.contains(a));
+		assertTrue(scheduler.remove(a));
+		assertFalse(scheduler.remove(a));
+		assertFalse(scheduler.contains(a));
+		assertTrue(scheduler.advance(200, NOW).isEmpty());
+	}
+	
+	@Test
+	public void testSameAsIsAfterLockTime() {
+		Random random = new Random(42);
+		LockTimeScheduler wide = new LockTimeScheduler(10, 3600);
+		List<TimeLockedAddress> pending = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			long lockTime = random.nextBoolean() ? 1 + random.nextInt(1000) : NOW + random.nextInt(100000);
+			TimeLockedAddress address = address(lockTime);
+			wide.add(address);
+			pending.add(address);
+		}
+		long height = 0;
+		long time = NOW - 1000;
+		while (!pending.isEmpty()) {
+			height += random.nextInt(30);
+			time += random.nextInt(3000);
+			List<TimeLockedAddress> expected = new ArrayList<>();
+			for (TimeLockedAddress address : pending) {
+				long current = address.getLockTime() < 500000000L ? height : time;
+				if (current >= address.getLockTime()) {
+					expected.add(address);
+				}
+			}
+			pending.removeAll(expected);
+			List<TimeLockedAddress> expired = wide.advance(height, time);
+			assertEquals(expected.size(), expired.size());
+			assertEquals(new HashSet<>(expected), new HashSet<>(expired));
+		}
+		assertEquals(0, wide.size());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testHeightIsTime() {
+		scheduler.advanceHeight(NOW);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTimeIsHeight() {
+		scheduler.advanceTime(100);
+	}
+	
+	private static TimeLockedAddress address(long lockTime) {
+		return new TimeLockedAddress(new ECKey().getPubKey(), new ECKey().getPubKey(), lockTime);
+	}
+}
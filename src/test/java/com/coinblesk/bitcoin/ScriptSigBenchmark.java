@@ -0,0 +1,69 @@
+package com.coinblesk.bitcoin;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.script.ScriptBuilder;
+
+import com.coinblesk.util.CompactSignature;
+
+/**
+ * Creates the scriptSig of a {@link TimeLockedAddress} input before the lock time, 100k times by
+ * default. Compares the previous ScriptBuilder version, which also built the redeem script for
+ * every input, with the current methods. Not a test, run it from the test classpath:
+ *
+ * java -cp <test and main classes, dependencies> com.coinblesk.bitcoin.ScriptSigBenchmark [scriptSigs]
+ */
+public class ScriptSigBenchmark {
+
+	public static void main(String[] args) {
+		final int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		final ECKey client = new ECKey();
+		final ECKey server = new ECKey();
+		final TimeLockedAddress address = new TimeLockedAddress(client.getPubKey(), server.getPubKey(), 123456);
+		final Sha256Hash hash = Sha256Hash.of(new byte[] { 1 });
+		final TransactionSignature clientSig = new TransactionSignature(client.sign(hash),
+				Transaction.SigHash.ALL, false);
+		final TransactionSignature serverSig = new TransactionSignature(server.sign(hash),
+				Transaction.SigHash.ALL, false);
+		final CompactSignature compactClientSig = CompactSignature.create(clientSig);
+		final CompactSignature compactServerSig = CompactSignature.create(serverSig);
+		final byte[] redeemScript = address.createRedeemScript().getProgram();
+
+		for (int round = 0; round < 3; round++) {
+			long sum = 0;
+			final long start = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				sum += new ScriptBuilder()
+						.data(clientSig.encodeToBitcoin())
+						.data(serverSig.encodeToBitcoin())
+						.smallNum(1)
+						.data(address.createRedeemScript().getProgram())
+						.build().getProgram().length;
+			}
+			final long scriptBuilder = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				sum += address.createScriptSigBeforeLockTime(clientSig, serverSig).getProgram().length;
+			}
+			final long scriptSig = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				sum += TimeLockedAddress.createScriptSigBytes(redeemScript, false, clientSig, serverSig).length;
+			}
+			final long bytes = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				sum += TimeLockedAddress.createScriptSigBytes(redeemScript, false, compactClientSig,
+						compactServerSig).length;
+			}
+			final long compact = System.nanoTime();
+
+			System.out.printf("per input: ScriptBuilder %d ns, createScriptSigBeforeLockTime %d ns, "
+					+ "createScriptSigBytes %d ns, CompactSignature %d ns (%d)%n", nanos(start, scriptBuilder, n),
+					nanos(scriptBuilder, scriptSig, n), nanos(scriptSig, bytes, n), nanos(bytes, compact, n), sum);
+		}
+	}
+
+	private static long nanos(long from, long to, int n) {
+		return (to - from) / n;
+	}
+}
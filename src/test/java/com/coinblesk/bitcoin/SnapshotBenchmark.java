@@ -0,0 +1,71 @@
+package com.coinblesk.bitcoin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+
+import com.coinblesk.util.OutPointValue;
+
+/**
+ * Startup time of a {@link Snapshot}, 1M addresses and 1M outpoints by default. Not a test, run
+ * it from the test classpath:
+ * 
+ * java -cp <test and main classes, dependencies> com.coinblesk.bitcoin.SnapshotBenchmark [records]
+ */
+public class SnapshotBenchmark {
+	
+	public static void main(String[] args) throws IOException {
+		final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		// a few keys are enough, the records have a fixed size
+		final ECKey[] keys = new ECKey[16];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = new ECKey();
+		}
+		final List<TimeLockedAddress> addresses = new ArrayList<>(n);
+		final List<OutPointValue> outPoints = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			addresses.add(new TimeLockedAddress(keys[i % 16].getPubKey(), keys[(i / 16) % 16].getPubKey(), 
+					1000 + i));
+			outPoints.add(new OutPointValue(Sha256Hash.of(new byte[] { (byte) i, (byte) (i >> 8), (byte) (i >> 16) }), 
+					i % 4, i));
+		}
+		
+		final File file = File.createTempFile("snapshot", ".bin");
+		try {
+			for (int round = 0; round < 3; round++) {
+				final long start = System.nanoTime();
+				Snapshot.write(file, addresses, outPoints);
+				final long written = System.nanoTime();
+				final Snapshot snapshot = Snapshot.open(file, false);
+				final long opened = System.nanoTime();
+				snapshot.verify();
+				final long verified = System.nanoTime();
+				long sum = 0;
+				for (int i = 0; i < snapshot.nrOutPoints(); i++) {
+					sum += snapshot.value(i);
+				}
+				for (int i = 0; i < snapshot.nrAddresses(); i++) {
+					sum += snapshot.lockTime(i);
+				}
+				final long scanned = System.nanoTime();
+				final LockTimeScheduler scheduler = new LockTimeScheduler();
+				snapshot.scheduleAll(scheduler);
+				final long scheduled = System.nanoTime();
+				
+				System.out.printf("%d MB: write %d ms, open %d ms, verify %d ms, scan %d ms, scheduleAll %d ms (%d)%n",
+						file.length() >> 20, millis(start, written), millis(written, opened), 
+						millis(opened, verified), millis(verified, scanned), millis(scanned, scheduled), sum);
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	private static long millis(long from, long to) {
+		return (to - from) / 1000000;
+	}
+}
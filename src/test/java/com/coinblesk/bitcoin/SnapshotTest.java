@@ -0,0 +1,161 @@
+package com.coinblesk.bitcoin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.coinblesk.util.OutPointValue;
+
+public class SnapshotTest {
+	
+	private static final NetworkParameters params = UnitTestParams.get();
+	
+	private File file;
+	private List<TimeLockedAddress> addresses;
+	private List<OutPointValue> outPoints;
+	
+	@Before
+	public void before() throws IOException {
+		file = File.createTempFile("snapshot", ".bin");
+		addresses = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			addresses.add(new TimeLockedAddress(new ECKey().getPubKey(), new ECKey().getPubKey(), 
+					i % 2 == 0 ? 1000 + i : 1480000000L + i));
+		}
+		outPoints = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			outPoints.add(new OutPointValue(Sha256Hash.of(("tx" + i).getBytes()), 0xfffffff0L + i % 16, 
+					1000L * i));
+		}
+	}
+	
+	@After
+	public void after() {
+		file.delete();
+	}
+	
+	@Test
+	public void testWriteAndRead() throws IOException {
+		Snapshot.write(file, addresses, outPoints);
+		assertEquals(Snapshot.HEADER_LENGTH + 100 * 74 + 200 * 44, file.length());
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+		
+		Snapshot snapshot = Snapshot.open(file);
+		assertEquals(100, snapshot.nrAddresses());
+		assertEquals(200, snapshot.nrOutPoints());
+		for (int i = 0; i < addresses.size(); i++) {
+			TimeLockedAddress expected = addresses.get(i);
+			assertArrayEquals(expected.getClientPubKey(), snapshot.clientPubKey(i));
+			assertArrayEquals(expected.getServerPubKey(), snapshot.serverPubKey(i));
+			assertEquals(expected.getLockTime(), snapshot.lockTime(i));
+			assertEquals(expected, snapshot.address(i));
+		}
+		for (int i = 0; i < outPoints.size(); i++) {
+			OutPointValue expected = outPoints.get(i);
+			assertEquals(expected, snapshot.outPointValue(i));
+			assertEquals(expected.toOutPoint(params), snapshot.outPoint(params, i));
+			assertEquals(expected.value(), snapshot.value(i));
+		}
+		assertEquals(outPoints, snapshot.outPoints().unpackValues());
+	}
+	
+	@Test
+	public void testEmpty() throws IOException {
+		Snapshot.write(file, Collections.<TimeLockedAddress>emptyList(), Collections.<OutPointValue>emptyList());
+		Snapshot snapshot = Snapshot.open(file);
+		assertEquals(0, snapshot.nrAddresses());
+		assertEquals(0, snapshot.nrOutPoints());
+	}
+	
+	@Test
+	public void testOverwrite() throws IOException {
+		Snapshot.write(file, addresses, outPoints);
+		Snapshot.write(file, addresses.subList(0, 1), outPoints.subList(0, 1));
+		Snapshot snapshot = Snapshot.open(file);
+		assertEquals(1, snapshot.nrAddresses());
+		assertEquals(1, snapshot.nrOutPoints());
+	}
+	
+	@Test
+	public void testScheduleAll() throws IOException {
+		Snapshot.write(file, addresses, outPoints);
+		LockTimeScheduler scheduler = new LockTimeScheduler();
+		Snapshot.open(file, false).scheduleAll(scheduler);
+		assertEquals(100, scheduler.size());
+		assertEquals(50, scheduler.advanceHeight(2000).size());
+	}
+	
+	@Test
+	public void testCorruptRecord() throws IOException {
+		Snapshot.write(file, addresses, outPoints);
+		flipByte(Snapshot.HEADER_LENGTH + 100 * 74 + 5);
+		// header only
+		Snapshot snapshot = Snapshot.open(file, false);
+		try {
+			snapshot.verify();
+			fail();
+		} catch (IOException e) {
+			assertEquals("Snapshot outpoints corrupt", e.getMessage());
+		}
+		try {
+			Snapshot.open(file);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+	
+	@Test(expected = IOException.class)
+	public void testCorruptHeader() throws IOException {
+		Snapshot.write(file, addresses, outPoints);
+		flipByte(8);
+		Snapshot.open(file, false);
+	}
+	
+	@Test(expected = IOException.class)
+	public void testTruncated() throws IOException {
+		Snapshot.write(file, addresses, outPoints);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(file.length() - 1);
+		} finally {
+			raf.close();
+		}
+		Snapshot.open(file, false);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testUncompressedKey() throws IOException {
+		ECKey uncompressed = ECKey.fromPublicOnly(new ECKey().decompress().getPubKey());
+		TimeLockedAddress address = new TimeLockedAddress(uncompressed.getPubKey(), new ECKey().getPubKey(), 1000);
+		Snapshot.write(file, Collections.singletonList(address), outPoints);
+	}
+	
+	private void flipByte(long position) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(position);
+			int b = raf.read();
+			raf.seek(position);
+			raf.write(b ^ 0x01);
+		} finally {
+			raf.close();
+		}
+	}
+}
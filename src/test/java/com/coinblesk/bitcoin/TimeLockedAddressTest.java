@@ -32,6 +32,8 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.Gson;
+
 
 /**
  * 
@@ -276,6 +278,85 @@ public class TimeLockedAddressTest {
 		assertEquals(address, toAddress);
 	}
 	
+	@Test
+	public void testWitnessScripts() {
+		TimeLockedAddress tla = createTimeLockedAddress();
+		byte[] witnessProgram = tla.createWitnessPubkeyScript().getProgram();
+		
+		assertEquals(34, witnessProgram.length);
+		assertEquals(ScriptOpCodes.OP_0, witnessProgram[0]);
+		assertEquals(32, witnessProgram[1]);
+		assertArrayEquals(Sha256Hash.hash(tla.createRedeemScript().getProgram()), 
+				Arrays.copyOfRange(witnessProgram, 2, 34));
+		
+		Script nestedPubkeyScript = tla.createNestedWitnessPubkeyScript();
+		assertTrue(nestedPubkeyScript.isPayToScriptHash());
+		assertEquals(tla.getNestedWitnessAddress(defaultParams), nestedPubkeyScript.getToAddress(defaultParams));
+		assertNotEquals(tla.getAddress(defaultParams), tla.getNestedWitnessAddress(defaultParams));
+		
+		Script scriptSig = tla.createNestedWitnessScriptSig();
+		assertEquals(1, scriptSig.getChunks().size());
+		assertArrayEquals(witnessProgram, scriptSig.getChunks().get(0).data);
+	}
+	
+	@Test
+	public void testScriptSigOfReflectiveInstance() {
+		TimeLockedAddress tla = createTimeLockedAddress();
+		// plain Gson creates the instance without the constructor, the transient program is null
+		Gson gson = new Gson();
+		TimeLockedAddress fromJson = gson.fromJson(gson.toJson(tla), TimeLockedAddress.class);
+		assertEquals(tla, fromJson);
+		TransactionSignature sig = TransactionSignature.dummy();
+		assertEquals(tla.createScriptSigAfterLockTime(sig), fromJson.createScriptSigAfterLockTime(sig));
+		assertArrayEquals(tla.createWitnessAfterLockTime(sig).get(2), fromJson.createWitnessAfterLockTime(sig).get(2));
+	}
+	
+	@Test
+	public void testWitnessScriptsRequireCompressedKeys() {
+		byte[] uncompressed = new ECKey().decompress().getPubKey();
+		TimeLockedAddress tla = new TimeLockedAddress(uncompressed, new ECKey().getPubKey(), lockTime);
+		// legacy P2SH is still fine
+		assertTrue(tla.createPubkeyScript().isPayToScriptHash());
+		try {
+			tla.createWitnessPubkeyScript();
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			tla.getNestedWitnessAddress(defaultParams);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			tla.createWitnessAfterLockTime(TransactionSignature.dummy());
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testWitnessBeforeAndAfterLocktime() {
+		TimeLockedAddress tla = createTimeLockedAddress();
+		TransactionSignature clientSig = new TransactionSignature(new ECKey().sign(Sha256Hash.of("client".getBytes())), SigHash.ALL, false);
+		TransactionSignature serverSig = new TransactionSignature(new ECKey().sign(Sha256Hash.of("server".getBytes())), SigHash.ALL, false);
+		
+		List<byte[]> before = tla.createWitnessBeforeLockTime(clientSig, serverSig);
+		assertEquals(4, before.size());
+		assertArrayEquals(clientSig.encodeToBitcoin(), before.get(0));
+		assertArrayEquals(serverSig.encodeToBitcoin(), before.get(1));
+		assertArrayEquals(new byte[] { 1 }, before.get(2));
+		assertArrayEquals(tla.createRedeemScript().getProgram(), before.get(3));
+		
+		List<byte[]> after = tla.createWitnessAfterLockTime(clientSig);
+		assertEquals(3, after.size());
+		assertArrayEquals(clientSig.encodeToBitcoin(), after.get(0));
+		assertEquals(0, after.get(1).length);
+		assertArrayEquals(tla.createRedeemScript().getProgram(), after.get(2));
+	}
+	
 	@Test
 	public void testScriptSigAfterLocktime() {
 		TimeLockedAddress tla = createTimeLockedAddress();
@@ -301,6 +382,31 @@ public class TimeLockedAddressTest {
 		assertArrayEquals(scriptSig.getChunks().get(3).data, tla.createRedeemScript().getProgram());
 	}
 	
+	@Test
+	public void testScriptSigSameAsScriptBuilder() {
+		TimeLockedAddress tla = createTimeLockedAddress();
+		byte[] redeemScript = tla.createRedeemScript().getProgram();
+		TransactionSignature clientSig = new TransactionSignature(new ECKey().sign(Sha256Hash.of("client".getBytes())), SigHash.ALL, false);
+		TransactionSignature serverSig = TransactionSignature.dummy();
+		// short redeem scripts use a direct push, long ones OP_PUSHDATA1 and OP_PUSHDATA2
+		for (byte[] program : Arrays.asList(redeemScript, new byte[20], new byte[255], new byte[300])) {
+			for (boolean after : new boolean[] { true, false }) {
+				ScriptBuilder sb = new ScriptBuilder();
+				sb.data(clientSig.encodeToBitcoin());
+				if (!after) {
+					sb.data(serverSig.encodeToBitcoin());
+				}
+				sb.smallNum(after ? 0 : 1);
+				sb.data(program);
+				byte[] expected = sb.build().getProgram();
+				byte[] actual = after
+						? TimeLockedAddress.createScriptSigBytes(program, true, clientSig)
+						: TimeLockedAddress.createScriptSigBytes(program, false, clientSig, serverSig);
+				assertArrayEquals(expected, actual);
+			}
+		}
+	}
+	
 	@Test
 	public void testLockTimeComparator() {
 		TimeLockedAddress tThis = createTimeLockedAddress();
@@ -0,0 +1,318 @@
+package com.coinblesk.bitcoin;
+
+import static org.bitcoinj.script.ScriptOpCodes.OP_CHECKLOCKTIMEVERIFY;
+import static org.bitcoinj.script.ScriptOpCodes.OP_CHECKSIG;
+import static org.bitcoinj.script.ScriptOpCodes.OP_CHECKSIGVERIFY;
+import static org.bitcoinj.script.ScriptOpCodes.OP_DROP;
+import static org.bitcoinj.script.ScriptOpCodes.OP_ELSE;
+import static org.bitcoinj.script.ScriptOpCodes.OP_ENDIF;
+import static org.bitcoinj.script.ScriptOpCodes.OP_IF;
+import static org.bitcoinj.script.ScriptOpCodes.OP_PUSHDATA1;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Transaction.SigHash;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.Test;
+
+import com.coinblesk.bitcoin.TimeLockedContract.LockType;
+
+public class TimeLockedContractTest {
+
+	private final NetworkParameters params = UnitTestParams.get();
+
+	@Test
+	public void testSameAsTimeLockedAddress() {
+		TimeLockedAddress tla = new TimeLockedAddress(new ECKey().getPubKey(), new ECKey().getPubKey(), 123456);
+		TimeLockedContract contract = TimeLockedContract.fromTimeLockedAddress(tla);
+
+		assertEquals(tla.createRedeemScript(), contract.createRedeemScript());
+		assertArrayEquals(tla.getAddressHash(), contract.getAddressHash());
+		assertEquals(tla.getAddress(params), contract.getAddress(params));
+		assertEquals(tla.createPubkeyScript(), contract.createPubkeyScript());
+		assertEquals(contract, TimeLockedContract.fromRedeemScript(tla.createRedeemScript().getProgram()));
+
+		TransactionSignature clientSig = TransactionSignature.dummy();
+		TransactionSignature serverSig = new TransactionSignature(
+				new ECKey().sign(Sha256Hash.of("server".getBytes())), SigHash.ALL, false);
+		assertEquals(tla.createScriptSigBeforeLockTime(clientSig, serverSig),
+				contract.createScriptSigBeforeLock(Collections.singletonList(clientSig),
+						Collections.singletonList(serverSig)));
+		assertEquals(tla.createScriptSigAfterLockTime(clientSig),
+				contract.createScriptSigAfterLock(Collections.singletonList(clientSig)));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		List<byte[]> clients = pubKeys(keys(3));
+		List<byte[]> server = pubKeys(keys(1));
+		for (LockType lockType : LockType.values()) {
+			for (long lock : new long[] { 1, 16, 17, 0x80, 0xffff, 144, 500000000L }) {
+				TimeLockedContract contract = new TimeLockedContract(2, clients, 1, server, lockType, lock);
+				TimeLockedContract copy = TimeLockedContract.fromRedeemScript(contract.createRedeemScript().getProgram());
+				assertEquals(contract, copy);
+				assertEquals(2, copy.getPreLockThreshold());
+				assertEquals(1, copy.getThreshold());
+				assertEquals(lockType, copy.getLockType());
+				assertEquals(lock, copy.getLock());
+				assertArrayEquals(clients.get(2), copy.getPreLockKeys().get(2));
+				assertArrayEquals(server.get(0), copy.getKeys().get(0));
+			}
+		}
+	}
+
+	@Test
+	public void testRelativeLockScript() {
+		List<byte[]> keys = pubKeys(keys(2));
+		TimeLockedContract contract = new TimeLockedContract(1, keys.subList(0, 1), 1, keys.subList(1, 2),
+				LockType.RELATIVE, 144);
+		Script expected = new ScriptBuilder()
+				.op(OP_IF)
+				.data(keys.get(0)).op(OP_CHECKSIGVERIFY)
+				.op(OP_ELSE)
+				.number(144).op(TimeLockedContract.OP_CHECKSEQUENCEVERIFY).op(OP_DROP)
+				.op(OP_ENDIF)
+				.data(keys.get(1)).op(OP_CHECKSIG)
+				.build();
+		assertEquals(expected, contract.createRedeemScript());
+	}
+
+	@Test
+	public void testMultiSigBeforeLockSpends() {
+		List<ECKey> clients = keys(3);
+		List<ECKey> servers = keys(2);
+		TimeLockedContract contract = new TimeLockedContract(3, pubKeys(clients), 2, pubKeys(servers),
+				LockType.ABSOLUTE, 123456);
+
+		Transaction tx = spendingTx();
+		Sha256Hash hash = tx.hashForSignature(0, contract.createRedeemScript(), SigHash.ALL, false);
+		Script scriptSig = contract.createScriptSigBeforeLock(sign(servers, hash), sign(clients, hash));
+		tx.getInput(0).setScriptSig(scriptSig);
+		scriptSig.correctlySpends(tx, 0, contract.createPubkeyScript(), EnumSet.allOf(Script.VerifyFlag.class));
+	}
+
+	@Test
+	public void testMultiSigAfterLockSpends() {
+		List<ECKey> clients = keys(2);
+		List<ECKey> servers = keys(3);
+		TimeLockedContract contract = new TimeLockedContract(2, pubKeys(clients), 2, pubKeys(servers),
+				LockType.ABSOLUTE, 123456);
+
+		Transaction tx = spendingTx();
+		tx.getInput(0).setSequenceNumber(0);
+		tx.setLockTime(123456);
+		Sha256Hash hash = tx.hashForSignature(0, contract.createRedeemScript(), SigHash.ALL, false);
+		Script scriptSig = contract.createScriptSigAfterLock(sign(servers.subList(1, 3), hash));
+		tx.getInput(0).setScriptSig(scriptSig);
+		scriptSig.correctlySpends(tx, 0, contract.createPubkeyScript(), EnumSet.allOf(Script.VerifyFlag.class));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSwappedBranches() {
+		List<byte[]> keys = pubKeys(keys(2));
+		Script script = new ScriptBuilder()
+				.op(OP_IF)
+				.number(123456).op(OP_CHECKLOCKTIMEVERIFY).op(OP_DROP)
+				.op(OP_ELSE)
+				.data(keys.get(0)).op(OP_CHECKSIGVERIFY)
+				.op(OP_ENDIF)
+				.data(keys.get(1)).op(OP_CHECKSIG)
+				.build();
+		TimeLockedContract.fromRedeemScript(script.getProgram());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTruncated() {
+		TimeLockedContract contract = new TimeLockedContract(2, pubKeys(keys(3)), 1, pubKeys(keys(1)),
+				LockType.RELATIVE, 10);
+		byte[] program = contract.createRedeemScript().getProgram();
+		TimeLockedContract.fromRedeemScript(Arrays.copyOf(program, program.length - 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTrailingBytes() {
+		TimeLockedContract contract = new TimeLockedContract(1, pubKeys(keys(1)), 1, pubKeys(keys(1)),
+				LockType.ABSOLUTE, 10);
+		byte[] program = contract.createRedeemScript().getProgram();
+		byte[] longer = Arrays.copyOf(program, program.length + 1);
+		longer[program.length] = (byte) OP_DROP;
+		TimeLockedContract.fromRedeemScript(longer);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPushBeyondEnd() {
+		TimeLockedContract.fromRedeemScript(new byte[] { (byte) OP_IF, (byte) OP_PUSHDATA1, (byte) 0xff, 1, 2 });
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testKeyCountMismatch() {
+		List<byte[]> keys = pubKeys(keys(3));
+		Script script = new ScriptBuilder()
+				.op(OP_IF)
+				.smallNum(1).data(keys.get(0)).data(keys.get(1)).smallNum(3)
+				.op(org.bitcoinj.script.ScriptOpCodes.OP_CHECKMULTISIGVERIFY)
+				.op(OP_ELSE)
+				.number(123456).op(OP_CHECKLOCKTIMEVERIFY).op(OP_DROP)
+				.op(OP_ENDIF)
+				.data(keys.get(2)).op(OP_CHECKSIG)
+				.build();
+		TimeLockedContract.fromRedeemScript(script.getProgram());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNonMinimalLockRejected() {
+		List<byte[]> keys = pubKeys(keys(2));
+		Script script = new ScriptBuilder()
+				.op(OP_IF)
+				.data(keys.get(0)).op(OP_CHECKSIGVERIFY)
+				.op(OP_ELSE)
+				.data(new byte[] { 10, 0 }).op(OP_CHECKLOCKTIMEVERIFY).op(OP_DROP)
+				.op(OP_ENDIF)
+				.data(keys.get(1)).op(OP_CHECKSIG)
+				.build();
+		TimeLockedContract.fromRedeemScript(script.getProgram());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testThresholdTooHigh() {
+		new TimeLockedContract(3, pubKeys(keys(2)), 1, pubKeys(keys(1)), LockType.ABSOLUTE, 10);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRelativeLockDisabled() {
+		new TimeLockedContract(1, pubKeys(keys(1)), 1, pubKeys(keys(1)), LockType.RELATIVE, 1L << 31);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongNumberOfSignatures() {
+		TimeLockedContract contract = new TimeLockedContract(2, pubKeys(keys(3)), 1, pubKeys(keys(1)),
+				LockType.ABSOLUTE, 10);
+		contract.createScriptSigBeforeLock(Collections.singletonList(TransactionSignature.dummy()),
+				Collections.singletonList(TransactionSignature.dummy()));
+	}
+
+	@Test
+	public void testRelativeMultiSigAfterLockSpends() {
+		List<ECKey> clients = keys(2);
+		List<ECKey> servers = keys(3);
+		TimeLockedContract contract = new TimeLockedContract(2, pubKeys(clients), 2, pubKeys(servers),
+				LockType.RELATIVE, 144);
+
+		Transaction tx = spendingTx();
+		tx.getInput(0).setSequenceNumber(144);
+		try {
+			contract.checkSpendAfterLock(tx, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// version 1
+		}
+		tx = withVersion(tx, 2);
+		contract.checkSpendAfterLock(tx, 0);
+
+		Sha256Hash hash = tx.hashForSignature(0, contract.createRedeemScript(), SigHash.ALL, false);
+		Script scriptSig = contract.createScriptSigAfterLock(sign(servers.subList(0, 2), hash));
+		tx.getInput(0).setScriptSig(scriptSig);
+		// bitcoinj 0.14 executes CHECKSEQUENCEVERIFY as OP_NOP3, which this flag would reject
+		EnumSet<Script.VerifyFlag> flags = EnumSet.allOf(Script.VerifyFlag.class);
+		flags.remove(Script.VerifyFlag.DISCOURAGE_UPGRADABLE_NOPS);
+		scriptSig.correctlySpends(tx, 0, contract.createPubkeyScript(), flags);
+	}
+
+	@Test
+	public void testCheckSpendAfterLock() {
+		List<byte[]> keys = pubKeys(keys(2));
+		TimeLockedContract relative = new TimeLockedContract(1, keys.subList(0, 1), 1, keys.subList(1, 2),
+				LockType.RELATIVE, 144);
+		Transaction tx = spendingTx();
+		tx.getInput(0).setSequenceNumber(143);
+		tx = withVersion(tx, 2);
+		assertSpendRejected(relative, tx);
+		// 144 units of 512 seconds
+		tx.getInput(0).setSequenceNumber((1L << 22) | 144);
+		assertSpendRejected(relative, tx);
+		tx.getInput(0).setSequenceNumber((1L << 31) | 144);
+		assertSpendRejected(relative, tx);
+		tx.getInput(0).setSequenceNumber(145);
+		relative.checkSpendAfterLock(tx, 0);
+
+		TimeLockedContract absolute = new TimeLockedContract(1, keys.subList(0, 1), 1, keys.subList(1, 2),
+				LockType.ABSOLUTE, 123456);
+		tx = spendingTx();
+		tx.setLockTime(123456);
+		assertSpendRejected(absolute, tx);
+		tx.getInput(0).setSequenceNumber(0);
+		absolute.checkSpendAfterLock(tx, 0);
+		tx.setLockTime(123455);
+		assertSpendRejected(absolute, tx);
+		tx.setLockTime(Transaction.LOCKTIME_THRESHOLD + 1);
+		assertSpendRejected(absolute, tx);
+	}
+
+	private static void assertSpendRejected(TimeLockedContract contract, Transaction tx) {
+		try {
+			contract.checkSpendAfterLock(tx, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	// bitcoinj 0.14 has no setter for the version
+	private Transaction withVersion(Transaction tx, int version) {
+		byte[] serialized = tx.bitcoinSerialize();
+		Utils.uint32ToByteArrayLE(version, serialized, 0);
+		Transaction versioned = new Transaction(params, serialized);
+		assertEquals(version, versioned.getVersion());
+		return versioned;
+	}
+
+	private Transaction spendingTx() {
+		Transaction tx = new Transaction(params);
+		tx.addInput(new TransactionInput(params, tx, new byte[0],
+				new TransactionOutPoint(params, 0, Sha256Hash.of("prev".getBytes()))));
+		tx.addOutput(Coin.COIN, new ECKey().toAddress(params));
+		return tx;
+	}
+
+	private static List<TransactionSignature> sign(List<ECKey> keys, Sha256Hash hash) {
+		List<TransactionSignature> signatures = new ArrayList<>();
+		for (ECKey key : keys) {
+			signatures.add(new TransactionSignature(key.sign(hash), SigHash.ALL, false));
+		}
+		return signatures;
+	}
+
+	private static List<ECKey> keys(int count) {
+		List<ECKey> keys = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			keys.add(new ECKey());
+		}
+		return keys;
+	}
+
+	private static List<byte[]> pubKeys(List<ECKey> keys) {
+		List<byte[]> pubKeys = new ArrayList<>();
+		for (ECKey key : keys) {
+			pubKeys.add(key.getPubKey());
+		}
+		return pubKeys;
+	}
+}
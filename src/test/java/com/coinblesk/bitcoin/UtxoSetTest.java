@@ -0,0 +1,216 @@
+package com.coinblesk.bitcoin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Test;
+
+import com.coinblesk.util.BitcoinUtils;
+import com.coinblesk.util.FakeTxBuilder;
+import com.coinblesk.util.InsufficientFunds;
+
+public class UtxoSetTest {
+	
+	private static final NetworkParameters params = UnitTestParams.get();
+	
+	@Test
+	public void testAddAndRead() {
+		UtxoSet utxos = new UtxoSet();
+		Address regular = new ECKey().toAddress(params);
+		Address p2sh = Address.fromP2SHScript(params, 
+				BitcoinUtils.createP2SHOutputScript(2, Arrays.asList(new ECKey(), new ECKey())));
+		TransactionOutPoint outPoint1 = outPoint(1, 3);
+		TransactionOutPoint outPoint2 = outPoint(2, 0);
+		
+		assertEquals(0, utxos.add(outPoint1, 1000, regular));
+		assertEquals(1, utxos.add(outPoint2, 2000, p2sh));
+		
+		assertEquals(2, utxos.size());
+		assertEquals(2, utxos.nrUnspent());
+		assertEquals(3000, utxos.unspentValue());
+		assertEquals(outPoint1, utxos.outPoint(params, 0));
+		assertEquals(outPoint2.getHash(), utxos.hash(1));
+		assertEquals(0, utxos.index(1));
+		assertEquals(1, utxos.indexOf(outPoint(2, 0)));
+		assertEquals(-1, utxos.indexOf(outPoint(2, 1)));
+		assertFalse(utxos.isP2SH(0));
+		assertTrue(utxos.isP2SH(1));
+		assertArrayEquals(regular.getHash160(), utxos.addressHash(0));
+		assertTrue(utxos.paysTo(1, p2sh));
+		assertFalse(utxos.paysTo(0, p2sh));
+		// same hash, other script type
+		assertFalse(utxos.paysTo(0, Address.fromP2SHHash(params, regular.getHash160())));
+		assertFalse(utxos.paysTo(1, new Address(params, p2sh.getHash160())));
+	}
+	
+	@Test
+	public void testAddOutput() {
+		Address to = new ECKey().toAddress(params);
+		Transaction tx = FakeTxBuilder.createFakeTx(params, Coin.CENT, to);
+		UtxoSet utxos = new UtxoSet();
+		for (TransactionOutput output : tx.getOutputs()) {
+			utxos.add(output);
+		}
+		assertEquals(tx.getOutputs().size(), utxos.size());
+		int i = utxos.indexOf(tx.getOutput(0).getOutPointFor());
+		assertEquals(tx.getOutput(0).getValue().value, utxos.value(i));
+		assertArrayEquals(to.getHash160(), utxos.addressHash(i));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicate() {
+		UtxoSet utxos = new UtxoSet();
+		utxos.add(outPoint(1, 0), 1000, new ECKey().toAddress(params));
+		utxos.add(outPoint(1, 0), 2000, new ECKey().toAddress(params));
+	}
+	
+	@Test
+	public void testSpendUnspend() {
+		UtxoSet utxos = new UtxoSet();
+		utxos.add(outPoint(1, 0), 1000, new ECKey().toAddress(params));
+		utxos.add(outPoint(2, 0), 2000, new ECKey().toAddress(params));
+		
+		assertTrue(utxos.spend(outPoint(1, 0)));
+		assertFalse(utxos.spend(outPoint(1, 0)));
+		assertFalse(utxos.spend(outPoint(3, 0)));
+		assertTrue(utxos.isSpent(0));
+		assertEquals(1, utxos.nrUnspent());
+		assertEquals(2000, utxos.unspentValue());
+		assertArrayEquals(new int[] { 1 }, utxos.unspentByValue());
+		
+		assertTrue(utxos.unspend(outPoint(1, 0)));
+		assertFalse(utxos.unspend(outPoint(1, 0)));
+		assertEquals(3000, utxos.unspentValue());
+		assertArrayEquals(new int[] { 1, 0 }, utxos.unspentByValue());
+	}
+	
+	@Test
+	public void testByValueAndGrow() {
+		Random random = new Random(42);
+		UtxoSet utxos = new UtxoSet(0);
+		List<Long> values = new ArrayList<>();
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 1000; i++) {
+				long value = random.nextInt(100);
+				values.add(value);
+				utxos.add(outPoint(values.size(), i), value, new ECKey().toAddress(params));
+			}
+			int[] byValue = utxos.unspentByValue();
+			assertEquals(values.size(), byValue.length);
+			for (int k = 1; k < byValue.length; k++) {
+				long previous = utxos.value(byValue[k - 1]);
+				long current = utxos.value(byValue[k]);
+				assertTrue(previous > current || (previous == current && byValue[k - 1] < byValue[k]));
+			}
+		}
+		for (int i = 0; i < values.size(); i++) {
+			assertEquals(i, utxos.indexOf(outPoint(i + 1, i % 1000)));
+		}
+	}
+	
+	@Test
+	public void testSelectLargestFirst() throws InsufficientFunds {
+		Address a1 = new ECKey().toAddress(params);
+		Address a2 = new ECKey().toAddress(params);
+		UtxoSet utxos = new UtxoSet();
+		utxos.add(outPoint(1, 0), 100, a1);
+		utxos.add(outPoint(2, 0), 500, a2);
+		utxos.add(outPoint(3, 0), 300, a1);
+		utxos.add(outPoint(4, 0), 200, a1);
+		
+		assertArrayEquals(new int[] { 1 }, utxos.selectLargestFirst(400, null));
+		assertArrayEquals(new int[] { 2, 3 }, utxos.selectLargestFirst(400, a1));
+		utxos.spend(2);
+		assertArrayEquals(new int[] { 3, 0 }, utxos.selectLargestFirst(250, a1));
+		
+		// a P2SH address with the same hash does not own the outputs of a1
+		Address p2sh = Address.fromP2SHHash(params, a1.getHash160());
+		utxos.add(outPoint(5, 0), 50, p2sh);
+		assertArrayEquals(new int[] { 4 }, utxos.unspentByValue(p2sh));
+		assertArrayEquals(new int[] { 4 }, utxos.selectLargestFirst(50, p2sh));
+		assertArrayEquals(new int[] { 3, 0 }, utxos.unspentByValue(a1));
+	}
+	
+	@Test(expected = InsufficientFunds.class)
+	public void testSelectInsufficient() throws InsufficientFunds {
+		Address a1 = new ECKey().toAddress(params);
+		UtxoSet utxos = new UtxoSet();
+		utxos.add(outPoint(1, 0), 100, a1);
+		utxos.add(outPoint(2, 0), 500, new ECKey().toAddress(params));
+		utxos.selectLargestFirst(101, a1);
+	}
+	
+	@Test
+	public void testCompact() {
+		UtxoSet utxos = new UtxoSet();
+		for (int i = 0; i < 10; i++) {
+			utxos.add(outPoint(i, 0), i * 10, new ECKey().toAddress(params));
+		}
+		for (int i = 0; i < 10; i += 2) {
+			utxos.spend(i);
+		}
+		utxos.compact();
+		assertEquals(5, utxos.size());
+		assertEquals(5, utxos.nrUnspent());
+		for (int i = 0; i < 5; i++) {
+			assertEquals(outPoint(2 * i + 1, 0), utxos.outPoint(params, i));
+			assertEquals(i, utxos.indexOf(outPoint(2 * i + 1, 0)));
+		}
+		assertEquals(-1, utxos.indexOf(outPoint(0, 0)));
+		assertArrayEquals(new int[] { 4, 3, 2, 1, 0 }, utxos.unspentByValue());
+	}
+	
+	@Test
+	public void testCreateTxSameAsOutputs() throws Exception {
+		ECKey key = new ECKey();
+		Address from = key.toAddress(params);
+		Address to = new ECKey().toAddress(params);
+		List<TransactionOutput> outputs = new ArrayList<>();
+		UtxoSet utxos = new UtxoSet();
+		for (int i = 0; i < 5; i++) {
+			TransactionOutput output = FakeTxBuilder.createFakeTx(params, Coin.COIN, from).getOutput(0);
+			outputs.add(output);
+			utxos.add(output);
+		}
+		
+		Transaction expected = BitcoinUtils.createTx(params, outputs, from, to, Coin.COIN.value * 2, true);
+		Transaction actual = BitcoinUtils.createTx(params, utxos, utxos.unspentByValue(), from, to, 
+				Coin.COIN.value * 2, true);
+		assertEquals(expected.getInputs().size(), actual.getInputs().size());
+		for (int i = 0; i < expected.getInputs().size(); i++) {
+			assertEquals(expected.getInput(i).getOutpoint(), actual.getInput(i).getOutpoint());
+		}
+		assertOutputsEqual(expected, actual);
+		
+		Transaction expectedAll = BitcoinUtils.createSpendAllTx(params, outputs, to);
+		Transaction actualAll = BitcoinUtils.createSpendAllTx(params, utxos, utxos.unspentByValue(), to);
+		assertOutputsEqual(expectedAll, actualAll);
+	}
+	
+	private static void assertOutputsEqual(Transaction expected, Transaction actual) {
+		assertEquals(expected.getOutputs().size(), actual.getOutputs().size());
+		for (int i = 0; i < expected.getOutputs().size(); i++) {
+			assertArrayEquals(expected.getOutput(i).bitcoinSerialize(), actual.getOutput(i).bitcoinSerialize());
+		}
+	}
+	
+	private static TransactionOutPoint outPoint(int tx, long index) {
+		return new TransactionOutPoint(params, index, Sha256Hash.of(("tx" + tx).getBytes()));
+	}
+}
@@ -0,0 +1,75 @@
+package com.coinblesk.json.v1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.crypto.TransactionSignature;
+
+import com.coinblesk.util.Pair;
+import com.coinblesk.util.SerializeUtils;
+import com.google.gson.Gson;
+
+/**
+ * Writes and reads a {@link VerifyTO} with 2x200 signatures and 200 outpoints by default, with the
+ * {@link TOTypeAdapterFactory} of {@link SerializeUtils#GSON} and with the reflective adapters.
+ * Not a test, run it from the test classpath:
+ *
+ * java -cp <test and main classes, dependencies> com.coinblesk.json.v1.TOTypeAdapterFactoryBenchmark [signatures]
+ */
+public class TOTypeAdapterFactoryBenchmark {
+
+    private static final int ITERATIONS = 1000;
+
+    public static void main(String[] args) {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final Random rnd = new Random(42L);
+        final ECKey key = new ECKey();
+        final List<TransactionSignature> sigs = new ArrayList<>(n);
+        final List<Pair<byte[], Long>> outpoints = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            sigs.add(new TransactionSignature(key.sign(Sha256Hash.of(new byte[] { (byte) i, (byte) (i >> 8) })),
+                    Transaction.SigHash.ALL, false));
+            final byte[] outpoint = new byte[36];
+            rnd.nextBytes(outpoint);
+            outpoints.add(new Pair<>(outpoint, rnd.nextLong()));
+        }
+        final byte[] tx = new byte[n * 150];
+        rnd.nextBytes(tx);
+        final VerifyTO to = new VerifyTO().transaction(tx).amountToSpend(rnd.nextLong()).p2shAddressTo("to")
+                .outpointsCoinPair(outpoints).clientSignatures(SerializeUtils.serializeSignatures(sigs))
+                .serverSignatures(SerializeUtils.serializeSignatures(sigs)).publicKey(key.getPubKey())
+                .currentDate(rnd.nextLong());
+
+        for (int round = 0; round < 3; round++) {
+            run("reflective", TOTypeAdapterFactoryTest.REFLECTIVE, to);
+            run("adapters", SerializeUtils.GSON, to);
+        }
+    }
+
+    private static void run(String name, Gson gson, VerifyTO to) {
+        long sum = 0;
+        final long start = System.nanoTime();
+        String json = null;
+        for (int i = 0; i < ITERATIONS; i++) {
+            json = gson.toJson(to);
+            sum += json.length();
+        }
+        final long written = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sum += gson.fromJson(json, VerifyTO.class).clientSignatures().size();
+        }
+        final long read = System.nanoTime();
+
+        System.out.printf("%s: toJson %d us, fromJson %d us (%d)%n", name, micros(start, written),
+                micros(written, read), sum);
+    }
+
+    // per iteration
+    private static long micros(long from, long to) {
+        return (to - from) / 1000 / ITERATIONS;
+    }
+}
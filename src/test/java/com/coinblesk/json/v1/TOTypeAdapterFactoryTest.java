@@ -0,0 +1,143 @@
+package com.coinblesk.json.v1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.bitcoinj.core.ECKey;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.coinblesk.bitcoin.BitcoinNet;
+import com.coinblesk.bitcoin.TimeLockedAddress;
+import com.coinblesk.util.Base64;
+import com.coinblesk.util.Pair;
+import com.coinblesk.util.SerializeUtils;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+public class TOTypeAdapterFactoryTest {
+
+    // the reflective configuration as used before the type adapters
+    static final Gson REFLECTIVE = new GsonBuilder()
+            .registerTypeHierarchyAdapter(byte[].class, new ByteArrayAdapter()).create();
+
+    private final Random rnd = new Random(42L);
+
+    @Test
+    public void testEmptyTOs() {
+        for (BaseTO<?> to : Arrays.<BaseTO<?>>asList(new BaseTO(), new BalanceTO(), new ExchangeRateTO(),
+                new FeeTO(), new KeyTO(), new PaymentRequestTO(), new RefundTO(), new SignTO(),
+                new SignVerifyTO(), new TimeLockedAddressTO(), new UserAccountStatusTO(),
+                new UserAccountTO(), new VerifyTO(), new VersionTO())) {
+            assertSameJson(to);
+        }
+    }
+
+    @Test
+    public void testFullTOs() {
+        assertSameJson(base(new BalanceTO()).balance(rnd.nextLong()));
+        assertSameJson(base(new ExchangeRateTO()).name("CHF").rate("1.234"));
+        assertSameJson(base(new FeeTO()).fee(rnd.nextInt()));
+        assertSameJson(base(new KeyTO()));
+        assertSameJson(base(new PaymentRequestTO()).address("addr").amount(rnd.nextLong()).version(3));
+        assertSameJson(base(new RefundTO()).refundTransaction(bytes(300)).lockTimeSeconds(rnd.nextLong())
+                .refundSendTo("to").outpointsCoinPair(outpoints()).outpointsCoinPacked(bytes(88)).clientSignatures(sigs())
+                .serverSignatures(sigs()));
+        assertSameJson(base(new SignTO()).transaction(bytes(500)).amountToSpend(rnd.nextLong())
+                .p2shAddressTo("to").outpointsCoinPair(outpoints()).outpointsCoinPacked(bytes(44))
+                .signatures(sigs()));
+        assertSameJson(base(new SignVerifyTO()).transaction(bytes(500)).addressTo("to")
+                .amountToSpend(rnd.nextLong()).amountChange(rnd.nextLong()).signatures(sigs())
+                .payeePublicKey(bytes(33)).payeeMessageSig(sig()));
+        assertSameJson(base(new TimeLockedAddressTO()).lockTime(rnd.nextLong()).timeLockedAddress(
+                new TimeLockedAddress(new ECKey().getPubKey(), new ECKey().getPubKey(), 123456)));
+        assertSameJson(base(new UserAccountTO()).email("a@b.c").password("pw").balance(rnd.nextLong()));
+        assertSameJson(base(new VerifyTO()).transaction(bytes(500)).amountToSpend(rnd.nextLong())
+                .p2shAddressTo("to").outpointsCoinPair(outpoints()).clientSignatures(sigs())
+                .serverSignatures(sigs()));
+        assertSameJson(base(new VersionTO()).clientVersion("1.0").bitcoinNet(BitcoinNet.TESTNET)
+                .setSupported(true));
+    }
+
+    @Test
+    public void testNullElements() {
+        List<TxSig> sigs = sigs();
+        sigs.add(null);
+        sigs.add(new TxSig().sigR("1"));
+        sigs.add(new TxSig().sigR("AQ").sigS("Ag").version(SerializeUtils.SIGNATURE_VERSION_COMPACT));
+        List<Pair<byte[], Long>> outpoints = outpoints();
+        outpoints.add(null);
+        outpoints.add(new Pair<byte[], Long>(null, 5L));
+        assertSameJson(base(new VerifyTO()).outpointsCoinPair(outpoints).clientSignatures(sigs));
+    }
+
+    @Test
+    public void testUnknownTypeNr() {
+        String json = "{\"type\": 99, \"unknown\": [1, {\"a\": 2}], \"amountToSpend\": \"5\"}";
+        SignTO to = SerializeUtils.GSON.fromJson(json, SignTO.class);
+        Assert.assertEquals(99, to.typeNr());
+        Assert.assertEquals(5, to.amountToSpend());
+        Assert.assertEquals(REFLECTIVE.toJson(REFLECTIVE.fromJson(json, SignTO.class)),
+                SerializeUtils.GSON.toJson(to));
+    }
+
+    private void assertSameJson(BaseTO<?> to) {
+        final String expected = REFLECTIVE.toJson(to);
+        final String json = SerializeUtils.GSON.toJson(to);
+        Assert.assertEquals(expected, json);
+        // read back with both, the result must serialize the same again
+        Assert.assertEquals(expected, SerializeUtils.GSON.toJson(SerializeUtils.GSON.fromJson(json, to.getClass())));
+        Assert.assertEquals(expected, SerializeUtils.GSON.toJson(REFLECTIVE.fromJson(json, to.getClass())));
+    }
+
+    private <T extends BaseTO<T>> T base(T to) {
+        return to.type(Type.SUCCESS_INSTANT).message("msg").messageSig(sig()).currentDate(rnd.nextLong())
+                .publicKey(bytes(33));
+    }
+
+    private byte[] bytes(int len) {
+        byte[] b = new byte[len];
+        rnd.nextBytes(b);
+        return b;
+    }
+
+    private TxSig sig() {
+        return new TxSig().sigR(Long.toString(rnd.nextLong())).sigS(Long.toString(rnd.nextLong()));
+    }
+
+    private List<TxSig> sigs() {
+        List<TxSig> sigs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            sigs.add(sig());
+        }
+        return sigs;
+    }
+
+    private List<Pair<byte[], Long>> outpoints() {
+        List<Pair<byte[], Long>> outpoints = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            outpoints.add(new Pair<>(bytes(36), rnd.nextLong()));
+        }
+        return outpoints;
+    }
+
+    private static class ByteArrayAdapter implements JsonSerializer<byte[]>, JsonDeserializer<byte[]> {
+        @Override
+        public JsonElement serialize(byte[] src, java.lang.reflect.Type typeOfSrc, JsonSerializationContext context) {
+            return new JsonPrimitive(Base64.encodeToString(src, Base64.NO_WRAP));
+        }
+
+        @Override
+        public byte[] deserialize(JsonElement json, java.lang.reflect.Type typeOfT, JsonDeserializationContext context) {
+            return Base64.decode(json.getAsString(), Base64.NO_WRAP);
+        }
+    }
+}
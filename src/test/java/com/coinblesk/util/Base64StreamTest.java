@@ -0,0 +1,102 @@
+package com.coinblesk.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Base64StreamTest {
+
+    private static final int[] FLAGS = {
+        Base64.DEFAULT, Base64.NO_WRAP, Base64.NO_WRAP | Base64.URL_SAFE,
+        Base64.NO_WRAP | Base64.NO_PADDING, Base64.CRLF };
+
+    @Test
+    public void testEncodeMatchesBlockEncoder() throws IOException {
+        Random rnd = new Random(42L);
+        for (int flags : FLAGS) {
+            for (int len : new int[]{0, 1, 2, 3, 57, 1023, 1024, 1025, 10000}) {
+                byte[] data = new byte[len];
+                rnd.nextBytes(data);
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                OutputStream out = new Base64OutputStream(bos, flags);
+                //mix single byte writes with array writes
+                int i = 0;
+                for (; i < len / 3; i++) {
+                    out.write(data[i]);
+                }
+                out.write(data, i, len - i);
+                out.close();
+                Assert.assertArrayEquals(Base64.encode(data, flags), bos.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeMatchesBlockDecoder() throws IOException {
+        Random rnd = new Random(42L);
+        for (int flags : FLAGS) {
+            for (int len : new int[]{0, 1, 2, 3, 57, 2047, 2048, 2049, 10000}) {
+                byte[] data = new byte[len];
+                rnd.nextBytes(data);
+                byte[] encoded = Base64.encode(data, flags);
+                InputStream in = new Base64InputStream(new ByteArrayInputStream(encoded), flags);
+                Assert.assertArrayEquals(data, readFully(in));
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeShortReads() throws IOException {
+        byte[] data = new byte[100];
+        new Random(42L).nextBytes(data);
+        byte[] encoded = Base64.encode(data, Base64.NO_WRAP);
+        //the wrapped stream delivers one byte at a time
+        InputStream trickle = new FilterInputStream(new ByteArrayInputStream(encoded)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        InputStream in = new Base64InputStream(trickle, Base64.NO_WRAP);
+        Assert.assertArrayEquals(data, readFully(in));
+    }
+
+    @Test
+    public void testNoClose() throws IOException {
+        final boolean[] closed = new boolean[1];
+        ByteArrayOutputStream bos = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        OutputStream out = new Base64OutputStream(bos, Base64.NO_WRAP | Base64.NO_CLOSE);
+        out.write(new byte[]{1, 2, 3, 4});
+        out.close();
+        Assert.assertFalse(closed[0]);
+        Assert.assertEquals("AQIDBA==", bos.toString("US-ASCII"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeBadInput() throws IOException {
+        byte[] encoded = "AQ=D".getBytes("US-ASCII");
+        readFully(new Base64InputStream(new ByteArrayInputStream(encoded), Base64.NO_WRAP));
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[333];
+        int read;
+        while ((read = in.read(buf, 0, buf.length)) != -1) {
+            bos.write(buf, 0, read);
+        }
+        in.close();
+        return bos.toByteArray();
+    }
+}
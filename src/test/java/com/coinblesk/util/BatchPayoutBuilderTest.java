@@ -0,0 +1,93 @@
+package com.coinblesk.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchPayoutBuilderTest {
+
+    private final NetworkParameters params = UnitTestParams.get();
+    private final ECKey sender = new ECKey();
+    private final Address changeAddress = new ECKey().toAddress(params);
+
+    @Test
+    public void testBatch() throws CoinbleskException, InsufficientFunds {
+        List<TransactionOutput> available = new ArrayList<>();
+        available.addAll(FakeTxBuilder.createFakeTx(params, Coin.COIN, sender).getOutputs().subList(0, 1));
+        available.addAll(FakeTxBuilder.createFakeTx(params, Coin.CENT, sender).getOutputs().subList(0, 1));
+        available.addAll(FakeTxBuilder.createFakeTx(params, Coin.SATOSHI.multiply(100), sender).getOutputs().subList(0, 1));
+
+        Address a = new ECKey().toAddress(params);
+        Address b = new ECKey().toAddress(params);
+        Address c = new ECKey().toAddress(params);
+        Address d = new ECKey().toAddress(params);
+        BatchPayoutBuilder payout = new BatchPayoutBuilder(params, changeAddress)
+                .addRecipient(a, Coin.MILLICOIN)
+                .addRecipient(b, Coin.MILLICOIN.multiply(2))
+                // two dust payouts to the same address are consolidated
+                .addRecipient(c, Coin.SATOSHI.multiply(2000))
+                .addRecipient(c, Coin.SATOSHI.multiply(2000))
+                .addRecipient(d, Coin.SATOSHI.multiply(100));
+        Assert.assertEquals(4, payout.nrRecipients());
+
+        Transaction tx = payout.build(available);
+        Assert.assertEquals(1, payout.dust().size());
+        Assert.assertEquals(d, payout.dust().get(0).element0());
+
+        // one coin is enough, the others are not spent
+        Assert.assertEquals(1, tx.getInputs().size());
+        Assert.assertEquals(4, tx.getOutputs().size());
+        Assert.assertEquals(BitcoinUtils.sortOutputs(tx.getOutputs()), tx.getOutputs());
+        Assert.assertEquals(Coin.MILLICOIN, valueTo(tx, a));
+        Assert.assertEquals(Coin.MILLICOIN.multiply(2), valueTo(tx, b));
+        Assert.assertEquals(Coin.SATOSHI.multiply(4000), valueTo(tx, c));
+        Assert.assertEquals(BitcoinUtils.calcFee(4, 0, 1, 0), tx.getFee().value);
+    }
+
+    @Test
+    public void testDustChange() throws CoinbleskException, InsufficientFunds {
+        List<TransactionOutput> available = FakeTxBuilder.createFakeTx(params, Coin.COIN, sender)
+                .getOutputs().subList(0, 1);
+        Address a = new ECKey().toAddress(params);
+        long amount = Coin.COIN.value - BitcoinUtils.calcFee(1, 0, 1, 0) - 100;
+        Transaction tx = new BatchPayoutBuilder(params, changeAddress)
+                .addRecipient(a, Coin.valueOf(amount)).build(available);
+        Assert.assertEquals(1, tx.getOutputs().size());
+        Assert.assertEquals(Coin.valueOf(amount), valueTo(tx, a));
+        Assert.assertEquals(BitcoinUtils.calcFee(1, 0, 1, 0) + 100, tx.getFee().value);
+    }
+
+    @Test(expected = InsufficientFunds.class)
+    public void testInsufficientFunds() throws CoinbleskException, InsufficientFunds {
+        List<TransactionOutput> available = FakeTxBuilder.createFakeTx(params, Coin.CENT, sender)
+                .getOutputs().subList(0, 1);
+        new BatchPayoutBuilder(params, changeAddress)
+                .addRecipient(new ECKey().toAddress(params), Coin.CENT).build(available);
+    }
+
+    @Test(expected = CoinbleskException.class)
+    public void testOnlyDust() throws CoinbleskException, InsufficientFunds {
+        List<TransactionOutput> available = FakeTxBuilder.createFakeTx(params, Coin.COIN, sender)
+                .getOutputs().subList(0, 1);
+        new BatchPayoutBuilder(params, changeAddress)
+                .addRecipient(new ECKey().toAddress(params), Coin.SATOSHI).build(available);
+    }
+
+    private Coin valueTo(Transaction tx, Address address) {
+        for (TransactionOutput output : tx.getOutputs()) {
+            if (address.equals(output.getAddressFromP2PKHScript(params))) {
+                return output.getValue();
+            }
+        }
+        return null;
+    }
+}
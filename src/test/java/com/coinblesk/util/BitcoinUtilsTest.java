@@ -15,7 +15,9 @@ import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.ECKey;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
 import org.bitcoinj.core.TransactionOutput;
 import org.bitcoinj.core.Utils;
 import org.bitcoinj.crypto.TransactionSignature;
@@ -58,6 +60,41 @@ public class BitcoinUtilsTest {
         
     }
     
+    @Test
+    public void sortTestInputsByteOrder() {
+        NetworkParameters params = UnitTestParams.get();
+        java.util.Random rnd = new java.util.Random(42L);
+        List<TransactionInput> inputs = new ArrayList<TransactionInput>();
+        for (int i = 0; i < 200; i++) {
+            byte[] hash = new byte[32];
+            rnd.nextBytes(hash);
+            // many equal prefixes, also with the high bit set, to exercise all parts of the key
+            Arrays.fill(hash, 0, rnd.nextInt(32), (byte) (rnd.nextBoolean() ? 0x80 : 0x7f));
+            inputs.add(new TransactionInput(params, null, new byte[0],
+                    new TransactionOutPoint(params, rnd.nextInt(3) == 0 ? 0xffffffffL : rnd.nextInt(3),
+                            Sha256Hash.wrap(hash)), Coin.COIN));
+        }
+        List<TransactionInput> sorted = BitcoinUtils.sortInputs(inputs);
+        for (int i = 1; i < sorted.size(); i++) {
+            TransactionOutPoint a = sorted.get(i - 1).getOutpoint();
+            TransactionOutPoint b = sorted.get(i).getOutpoint();
+            int c = BitcoinUtils.PureJavaComparator.INSTANCE.compare(a.getHash().getBytes(), b.getHash().getBytes());
+            assertTrue(c < 0 || (c == 0 && a.getIndex() <= b.getIndex()));
+        }
+    }
+
+    @Test
+    public void sortTestTransactionOutputsInOrder() {
+        Transaction tx = FakeTxBuilder.createFakeTx(UnitTestParams.get(), Coin.COIN, new ECKey());
+        tx.addOutput(Coin.valueOf(5), new ECKey());
+        BitcoinUtils.sortTransactionOutputs(tx);
+        List<TransactionOutput> sorted = new ArrayList<TransactionOutput>(tx.getOutputs());
+        BitcoinUtils.sortTransactionOutputs(tx);
+        for (int i = 0; i < sorted.size(); i++) {
+            assertSame(sorted.get(i), tx.getOutput(i));
+        }
+    }
+
     @Test
     public void sortTestInputs() {
         Transaction tx = FakeTxBuilder.createFakeTx(UnitTestParams.get(), Coin.COIN, new ECKey());
@@ -111,6 +148,18 @@ public class BitcoinUtilsTest {
     	assertFalse( BitcoinUtils.isBeforeLockTime(500000101, 500000100) );
     }
     
+    @Test(expected=IllegalArgumentException.class)
+    public void testP2WSHOutputScript_UncompressedKey() {
+    	List<ECKey> keys = Arrays.asList(new ECKey(), ECKey.fromPublicOnly(new ECKey().decompress().getPubKey()));
+    	BitcoinUtils.createP2WSHOutputScript(2, keys);
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testP2SHP2WSHOutputScript_UncompressedKey() {
+    	List<ECKey> keys = Arrays.asList(ECKey.fromPublicOnly(new ECKey().decompress().getPubKey()), new ECKey());
+    	BitcoinUtils.createP2SHP2WSHOutputScript(2, keys);
+    }
+    
     @Test(expected=IllegalArgumentException.class)
     public void testIsBeforeLockTime_DifferentTypes_1() {
     	BitcoinUtils.isBeforeLockTime(499999999, 500000000);
@@ -135,6 +184,16 @@ public class BitcoinUtilsTest {
     	fail();
     }
     
+    @Test
+    public void testIsBeforeLockTime_NegativeMessage() {
+    	try {
+    		BitcoinUtils.isBeforeLockTime(500000000, -1);
+    		fail();
+    	} catch (IllegalArgumentException e) {
+    		assertEquals("Lock time must be positive, is -1 and 500000000", e.getMessage());
+    	}
+    }
+    
     @Test
     public void testIsAfterLockTime() {
     	assertFalse( BitcoinUtils.isAfterLockTime(100, 101) );
@@ -0,0 +1,118 @@
+package com.coinblesk.util;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.coinblesk.bitcoin.TimeLockedAddress;
+
+public class BulkRefundBuilderTest {
+
+    private final NetworkParameters params = UnitTestParams.get();
+
+    @Test
+    public void testBulkRefunds() throws Exception {
+        Random rnd = new Random(42L);
+        ECKey server = new ECKey();
+        Address refundTo = new ECKey().toAddress(params);
+        List<BulkRefundBuilder.Request> requests = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            TimeLockedAddress address = new TimeLockedAddress(new ECKey().getPubKey(), server.getPubKey(),
+                    1500000000L + i);
+            List<OutPointValue> outPoints = new ArrayList<>();
+            for (int j = 0; j <= i % 3; j++) {
+                byte[] hash = new byte[32];
+                rnd.nextBytes(hash);
+                // every 10th refund cannot pay its fee
+                long value = i % 10 == 5 ? 1000 : Coin.CENT.value;
+                outPoints.add(new OutPointValue(Sha256Hash.wrap(hash), j, value));
+            }
+            requests.add(new BulkRefundBuilder.Request(address, outPoints, refundTo));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<BulkRefundBuilder.Result> results = new BulkRefundBuilder(params, server, executor, 7)
+                    .create(requests);
+            Assert.assertEquals(requests.size(), results.size());
+            for (int i = 0; i < results.size(); i++) {
+                BulkRefundBuilder.Result result = results.get(i);
+                BulkRefundBuilder.Request request = requests.get(i);
+                Assert.assertSame(request, result.request());
+                if (i % 10 == 5) {
+                    Assert.assertFalse(result.isSuccess());
+                    Assert.assertNotNull(result.error());
+                    Assert.assertNull(result.transaction());
+                    continue;
+                }
+                Assert.assertTrue(result.isSuccess());
+                Transaction expected = BitcoinUtils.createRefundTx(params, request.outPoints(),
+                        request.address().createRedeemScript(), refundTo, request.address().getLockTime());
+                Assert.assertArrayEquals(expected.unsafeBitcoinSerialize(),
+                        result.transaction().unsafeBitcoinSerialize());
+                Assert.assertEquals(expected.unsafeBitcoinSerialize().length, result.size());
+                Assert.assertEquals(BitcoinUtils.partiallySign(expected, request.address().createRedeemScript(),
+                        server), result.signatures());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testWithoutKey() throws Exception {
+        TimeLockedAddress address = new TimeLockedAddress(new ECKey().getPubKey(), new ECKey().getPubKey(), 123);
+        BulkRefundBuilder.Request request = new BulkRefundBuilder.Request(address,
+                Arrays.asList(new OutPointValue(Sha256Hash.ZERO_HASH, 0, Coin.COIN.value)),
+                new ECKey().toAddress(params));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            BulkRefundBuilder.Result result = new BulkRefundBuilder(params, null, executor)
+                    .create(Arrays.asList(request)).get(0);
+            Assert.assertTrue(result.isSuccess());
+            Assert.assertNull(result.signatures());
+            Assert.assertEquals(123, result.transaction().getLockTime());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testErrorIsRethrown() throws Exception {
+        TimeLockedAddress address = new TimeLockedAddress(new ECKey().getPubKey(), new ECKey().getPubKey(), 123);
+        Collection<OutPointValue> failing = new AbstractList<OutPointValue>() {
+            @Override
+            public OutPointValue get(int index) {
+                throw new AssertionError("not an exception");
+            }
+
+            @Override
+            public int size() {
+                return 1;
+            }
+        };
+        BulkRefundBuilder.Request request = new BulkRefundBuilder.Request(address, failing,
+                new ECKey().toAddress(params));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            new BulkRefundBuilder(params, null, executor).create(Arrays.asList(request));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
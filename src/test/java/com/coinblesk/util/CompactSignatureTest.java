@@ -0,0 +1,136 @@
+package com.coinblesk.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.coinblesk.bitcoin.TimeLockedAddress;
+import com.coinblesk.json.v1.TxSig;
+
+public class CompactSignatureTest {
+
+    @Test
+    public void testEncodeSameAsBitcoinj() {
+        ECKey key = new ECKey();
+        for (int i = 0; i < 200; i++) {
+            TransactionSignature sig = new TransactionSignature(key.sign(Sha256Hash.of(new byte[] { (byte) i })),
+                    Transaction.SigHash.ALL, false);
+            CompactSignature compact = CompactSignature.create(sig);
+            Assert.assertArrayEquals(sig.encodeToBitcoin(), compact.encodeToBitcoin());
+            Assert.assertEquals(sig.r, compact.r());
+            Assert.assertEquals(sig.s, compact.s());
+        }
+        // short components, with and without the high bit
+        for (BigInteger r : Arrays.asList(BigInteger.ONE, BigInteger.valueOf(0x80), BigInteger.valueOf(0x7f00))) {
+            TransactionSignature sig = new TransactionSignature(r, BigInteger.valueOf(0xff), 1);
+            Assert.assertArrayEquals(sig.encodeToBitcoin(), CompactSignature.create(sig).encodeToBitcoin());
+        }
+    }
+
+    @Test
+    public void testLowS() {
+        ECKey.ECDSASignature sig = new ECKey().sign(Sha256Hash.ZERO_HASH);
+        ECKey.ECDSASignature high = new ECKey.ECDSASignature(sig.r, ECKey.CURVE.getN().subtract(sig.s));
+        Assert.assertEquals(CompactSignature.create(sig), CompactSignature.create(high));
+        TxSig txSig = SerializeUtils.toTxSig(high, SerializeUtils.SIGNATURE_VERSION_COMPACT);
+        Assert.assertEquals(CompactSignature.create(sig), CompactSignature.fromTxSig(txSig));
+    }
+
+    @Test
+    public void testTxSig() {
+        ECKey key = new ECKey();
+        List<TransactionSignature> sigs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            sigs.add(new TransactionSignature(key.sign(Sha256Hash.of(new byte[] { (byte) i })),
+                    Transaction.SigHash.ALL, false));
+        }
+        for (int version : new int[] { SerializeUtils.SIGNATURE_VERSION_DECIMAL,
+                SerializeUtils.SIGNATURE_VERSION_COMPACT }) {
+            List<TxSig> txSigs = SerializeUtils.serializeSignatures(sigs, version);
+            List<CompactSignature> compact = SerializeUtils.deserializeCompactSignatures(txSigs);
+            for (int i = 0; i < sigs.size(); i++) {
+                Assert.assertEquals(CompactSignature.create(sigs.get(i)), compact.get(i));
+            }
+            List<TxSig> again = SerializeUtils.serializeCompactSignatures(compact, version);
+            for (int i = 0; i < sigs.size(); i++) {
+                Assert.assertEquals(txSigs.get(i).sigR(), again.get(i).sigR());
+                Assert.assertEquals(txSigs.get(i).sigS(), again.get(i).sigS());
+                Assert.assertEquals(txSigs.get(i).version(), again.get(i).version());
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutOfRange() {
+        CompactSignature.create(ECKey.CURVE.getN(), BigInteger.ONE, 1);
+    }
+
+    @Test
+    public void testTxSigOutOfRange() {
+        BigInteger n = ECKey.CURVE.getN();
+        BigInteger max = n.subtract(BigInteger.ONE);
+        Assert.assertEquals(max, CompactSignature.fromTxSig(compactTxSig(max)).r());
+        BigInteger allOnes = BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE);
+        for (BigInteger r : Arrays.asList(BigInteger.ZERO, n, n.add(BigInteger.ONE), allOnes)) {
+            try {
+                CompactSignature.fromTxSig(compactTxSig(r));
+                Assert.fail(r.toString(16));
+            } catch (IllegalArgumentException e) {
+                // expected, the same as create
+            }
+        }
+    }
+
+    private static TxSig compactTxSig(BigInteger r) {
+        int length = CompactSignature.COMPONENT_LENGTH;
+        return new TxSig()
+                .sigR(Base64.encodeToString(Utils.bigIntegerToBytes(r, length), Base64.NO_WRAP))
+                .sigS(Base64.encodeToString(Utils.bigIntegerToBytes(BigInteger.ONE, length), Base64.NO_WRAP))
+                .version(SerializeUtils.SIGNATURE_VERSION_COMPACT);
+    }
+
+    @Test
+    public void testScriptSigs() {
+        NetworkParameters params = UnitTestParams.get();
+        ECKey client = new ECKey();
+        ECKey server = new ECKey();
+        TransactionSignature clientSig = new TransactionSignature(client.sign(Sha256Hash.ZERO_HASH),
+                Transaction.SigHash.ALL, false);
+        TransactionSignature serverSig = new TransactionSignature(server.sign(Sha256Hash.ZERO_HASH),
+                Transaction.SigHash.ALL, false);
+
+        TimeLockedAddress address = new TimeLockedAddress(client.getPubKey(), server.getPubKey(), 123456);
+        byte[] redeemScript = address.createRedeemScript().getProgram();
+        Assert.assertArrayEquals(
+                TimeLockedAddress.createScriptSig(redeemScript, false, clientSig, serverSig).getProgram(),
+                TimeLockedAddress.createScriptSig(redeemScript, false, CompactSignature.create(clientSig),
+                        CompactSignature.create(serverSig)).getProgram());
+        Assert.assertArrayEquals(
+                TimeLockedAddress.createScriptSig(redeemScript, true, clientSig).getProgram(),
+                TimeLockedAddress.createScriptSig(redeemScript, true, CompactSignature.create(clientSig))
+                        .getProgram());
+
+        Script multisig = BitcoinUtils.createRedeemScript(2, Arrays.asList(client, server));
+        Transaction tx1 = FakeTxBuilder.createFakeTx(params, Coin.COIN, client);
+        Transaction tx2 = FakeTxBuilder.createFakeTx(params, Coin.COIN, client);
+        Assert.assertTrue(BitcoinUtils.applySignatures(tx1, multisig, Arrays.asList(clientSig),
+                Arrays.asList(serverSig), false));
+        Assert.assertTrue(BitcoinUtils.applyCompactSignatures(tx2, multisig,
+                Arrays.asList(CompactSignature.create(clientSig)),
+                Arrays.asList(CompactSignature.create(serverSig)), false));
+        Assert.assertArrayEquals(tx1.getInput(0).getScriptBytes(), tx2.getInput(0).getScriptBytes());
+    }
+}
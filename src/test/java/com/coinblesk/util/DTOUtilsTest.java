@@ -0,0 +1,146 @@
+package com.coinblesk.util;
+
+import com.coinblesk.dto.MicroPaymentRequestDTO;
+import com.coinblesk.dto.MultiSignedDTO;
+import com.coinblesk.dto.PayoutRequestDTO;
+import com.coinblesk.dto.SignatureDTO;
+import com.coinblesk.dto.SignedDTO;
+import com.google.gson.JsonParseException;
+import org.bitcoinj.core.ECKey;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+public class DTOUtilsTest {
+
+	@Test
+	public void testSerializeAndParse() {
+		ECKey key = new ECKey();
+		PayoutRequestDTO payout = new PayoutRequestDTO("pubkey", "address");
+		SignedDTO signed = DTOUtils.serializeAndSign(payout, key);
+		Assert.assertEquals(payout, DTOUtils.parseAndValidate(signed, PayoutRequestDTO.class));
+	}
+
+	@Test
+	public void testParseLargePayload() {
+		StringBuilder tx = new StringBuilder();
+		Random rnd = new Random(42L);
+		for (int i = 0; i < 100000; i++) {
+			tx.append((char) (rnd.nextInt(0x2000) + 1));
+		}
+		MicroPaymentRequestDTO payment = new MicroPaymentRequestDTO(tx.toString(), "from", "to", 1L, 2L);
+		SignedDTO signed = DTOUtils.serializeAndSign(payment, new ECKey());
+		Assert.assertEquals(payment, DTOUtils.fromJSON(DTOUtils.fromBase64(signed.getPayload()),
+				MicroPaymentRequestDTO.class));
+		Assert.assertEquals(payment, DTOUtils.parseAndValidate(signed, MicroPaymentRequestDTO.class));
+	}
+
+	@Test
+	public void testVerifyAndParse() {
+		ECKey key = new ECKey();
+		String hexKey = DTOUtils.toHex(key.getPubKey());
+		PayoutRequestDTO payout = new PayoutRequestDTO(hexKey, "address");
+		SignedDTO signed = DTOUtils.serializeAndSign(payout, key);
+		Assert.assertEquals(payout, DTOUtils.verifyAndParse(signed, PayoutRequestDTO.class, hexKey));
+		Assert.assertSame(DTOUtils.getECKeyFromHexPublicKey(hexKey), DTOUtils.getECKeyFromHexPublicKey(hexKey));
+	}
+
+	@Test
+	public void testSignCompact() {
+		ECKey key = new ECKey();
+		PayoutRequestDTO payout = new PayoutRequestDTO("pubkey", "address");
+		String payload = DTOUtils.toBase64(DTOUtils.toJSON(payout));
+		SignatureDTO compact = DTOUtils.sign(payload, key, SerializeUtils.SIGNATURE_VERSION_COMPACT);
+		SignatureDTO decimal = DTOUtils.sign(payload, key);
+		Assert.assertNull(decimal.getVersion());
+		Assert.assertTrue(compact.getSigR().length() < decimal.getSigR().length());
+		DTOUtils.validateSignature(payload, compact, key);
+		DTOUtils.validateSignature(payload, decimal, key);
+
+		SignedDTO signed = parse("{\"payload\":\"" + payload + "\",\"signature\":"
+				+ DTOUtils.toJSON(compact) + "}", SignedDTO.class);
+		Assert.assertEquals(compact, signed.getSignature());
+		Assert.assertEquals(payout, DTOUtils.verifyAndParse(signed, PayoutRequestDTO.class,
+				DTOUtils.toHex(key.getPubKey())));
+	}
+
+	@Test(expected = InvalidSignatureException.class)
+	public void testVerifyAndParseWrongKey() {
+		PayoutRequestDTO payout = new PayoutRequestDTO("pubkey", "address");
+		SignedDTO signed = DTOUtils.serializeAndSign(payout, new ECKey());
+		DTOUtils.verifyAndParse(signed, PayoutRequestDTO.class, DTOUtils.toHex(new ECKey().getPubKey()));
+	}
+
+	@Test(expected = MissingFieldException.class)
+	public void testVerifyAndParseNoSignature() {
+		SignedDTO signed = new SignedDTO(DTOUtils.toBase64("{}"), null);
+		DTOUtils.verifyAndParse(signed, PayoutRequestDTO.class, DTOUtils.toHex(new ECKey().getPubKey()));
+	}
+
+	@Test(expected = MissingFieldException.class)
+	public void testMissingField() {
+		SignedDTO signed = new SignedDTO(DTOUtils.toBase64("{\"publicKey\":\"pubkey\"}"), null);
+		DTOUtils.parseAndValidate(signed, PayoutRequestDTO.class);
+	}
+
+	@Test
+	public void testNonAsciiPayload() {
+		PayoutRequestDTO payout = new PayoutRequestDTO("pubkey", "address");
+		String payload = DTOUtils.serializeAndSign(payout, new ECKey()).getPayload();
+		// U+0141 has the same low byte as 'A', it must not decode as the original payload
+		int i = payload.indexOf('A') >= 0 ? payload.indexOf('A') : 0;
+		char c = (char) (payload.charAt(i) | 0x100);
+		SignedDTO signed = new SignedDTO(payload.substring(0, i) + c + payload.substring(i + 1), null);
+		try {
+			DTOUtils.parseAndValidate(signed, PayoutRequestDTO.class);
+			Assert.fail();
+		} catch (JsonParseException e) {
+			Assert.assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	@Test
+	public void testNestedValid() {
+		String signature = "\"signature\":{\"sigR\":\"1\",\"sigS\":\"2\"}";
+		SignedDTO inner = parse("{\"payload\":\"p\"," + signature + "}", SignedDTO.class);
+		Assert.assertEquals(new SignatureDTO("1", "2"), inner.getSignature());
+
+		try {
+			parse("{\"payload\":\"p\",\"signature\":{\"sigR\":\"1\"}}", SignedDTO.class);
+			Assert.fail();
+		} catch (MissingFieldException e) {
+			Assert.assertTrue(e.getMessage().contains("sigS"));
+		}
+
+		try {
+			parse("{\"payload\":\"p\",\"signatureForSender\":{\"sigR\":\"1\",\"sigS\":\"2\"},"
+					+ "\"signatureForReceiver\":{\"sigS\":\"2\"}}", MultiSignedDTO.class);
+			Assert.fail();
+		} catch (MissingFieldException e) {
+			Assert.assertTrue(e.getMessage().contains("sigR"));
+		}
+	}
+
+	@Test
+	public void testInheritedField() {
+		try {
+			parse("{}", ExtendedPayoutRequestDTO.class);
+			Assert.fail();
+		} catch (MissingFieldException e) {
+			Assert.assertTrue(e.getMessage().contains("publicKey"));
+		}
+	}
+
+	private static <T> T parse(String json, Class<T> typeOfPayload) {
+		SignedDTO signed = new SignedDTO(DTOUtils.toBase64(json), null);
+		return DTOUtils.parseAndValidate(signed, typeOfPayload);
+	}
+
+	private static class ExtendedPayoutRequestDTO extends PayoutRequestDTO {
+		public ExtendedPayoutRequestDTO() {
+			super(null, null);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.coinblesk.util;
+
+import java.lang.reflect.Type;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+/**
+ * Writes and reads 100k dates with the ISO date adapter of {@link SerializeUtils#GSON} and with
+ * the previous adapter, which created a SimpleDateFormat per date. Not a test, run it from the
+ * test classpath:
+ *
+ * java -cp <test and main classes, dependencies> com.coinblesk.util.DateAdapterBenchmark [dates]
+ */
+public class DateAdapterBenchmark {
+
+    private static final String PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSSX";
+
+    public static void main(String[] args) {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final Random rnd = new Random(42L);
+        final Date[] dates = new Date[n];
+        for (int i = 0; i < n; i++) {
+            // 1970 to 2100
+            dates[i] = new Date((rnd.nextLong() >>> 1) % 4102444800000L);
+        }
+        final Gson previous = new GsonBuilder().registerTypeAdapter(Date.class, new SimpleDateFormatAdapter())
+                .create();
+
+        for (int round = 0; round < 3; round++) {
+            run("SimpleDateFormat", previous, dates);
+            run("adapter", SerializeUtils.GSON, dates);
+        }
+    }
+
+    private static void run(String name, Gson gson, Date[] dates) {
+        final String[] json = new String[dates.length];
+        long sum = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < dates.length; i++) {
+            json[i] = gson.toJson(dates[i]);
+            sum += json[i].length();
+        }
+        final long written = System.nanoTime();
+        for (int i = 0; i < dates.length; i++) {
+            sum += gson.fromJson(json[i], Date.class).getTime();
+        }
+        final long read = System.nanoTime();
+
+        System.out.printf("%s: toJson %d ms, fromJson %d ms (%d)%n", name, millis(start, written),
+                millis(written, read), sum);
+    }
+
+    private static long millis(long from, long to) {
+        return (to - from) / 1000000;
+    }
+
+    // the adapter as it was, with a matching reader
+    private static class SimpleDateFormatAdapter implements JsonSerializer<Date>, JsonDeserializer<Date> {
+        @Override
+        public JsonElement serialize(Date date, Type type, JsonSerializationContext context) {
+            TimeZone timeZone = TimeZone.getTimeZone("UTC");
+            SimpleDateFormat simpleDateFormat = new SimpleDateFormat(PATTERN);
+            simpleDateFormat.setTimeZone(timeZone);
+            return new JsonPrimitive(simpleDateFormat.format(date));
+        }
+
+        @Override
+        public Date deserialize(JsonElement json, Type type, JsonDeserializationContext context) {
+            try {
+                return new SimpleDateFormat(PATTERN).parse(json.getAsString());
+            } catch (ParseException e) {
+                throw new JsonParseException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.coinblesk.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OutPointValueTest {
+
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    @Test
+    public void testEqualsHashCode() {
+        Sha256Hash hash = Sha256Hash.of(new byte[]{1});
+        OutPointValue v = new OutPointValue(hash, 1, 1000);
+        Assert.assertEquals(v, new OutPointValue(Sha256Hash.wrap(hash.getBytes()), 1, 1000));
+        Assert.assertEquals(v.hashCode(), new OutPointValue(Sha256Hash.wrap(hash.getBytes()), 1, 1000).hashCode());
+        Assert.assertNotEquals(v, new OutPointValue(hash, 2, 1000));
+        Assert.assertNotEquals(v, new OutPointValue(hash, 1, 1001));
+        Assert.assertNotEquals(v, new OutPointValue(Sha256Hash.of(new byte[]{2}), 1, 1000));
+        Assert.assertEquals(v, OutPointValue.create(v.toOutPoint(PARAMS), v.coin()));
+    }
+
+    @Test
+    public void testSerialize() {
+        List<Pair<TransactionOutPoint, Coin>> pairs = pairs();
+        List<OutPointValue> values = values(pairs);
+        Assert.assertEquals(values, SerializeUtils.deserializeOutPointValues(SerializeUtils.serializeOutPointsCoin(pairs)));
+        Assert.assertArrayEquals(SerializeUtils.serializeOutPointsCoinPacked(pairs),
+                SerializeUtils.serializeOutPointValues(values));
+        Assert.assertEquals(values, SerializeUtils.deserializeOutPointValues(SerializeUtils.serializeOutPointValues(values)));
+    }
+
+    @Test
+    public void testCreateTxSameAsPair() throws Exception {
+        List<ECKey> keys = Arrays.asList(new ECKey(), new ECKey());
+        Script redeemScript = BitcoinUtils.createRedeemScript(2, keys);
+        Address from = BitcoinUtils.createP2SHOutputScript(redeemScript).getToAddress(PARAMS);
+        Address to = new ECKey().toAddress(PARAMS);
+        List<Pair<TransactionOutPoint, Coin>> pairs = pairs();
+        List<OutPointValue> values = values(pairs);
+
+        Transaction expected = BitcoinUtils.createTx(PARAMS, pairs, redeemScript, from, to, 100000, true);
+        Transaction tx = BitcoinUtils.createTx(PARAMS, values, redeemScript, from, to, 100000, true);
+        Assert.assertArrayEquals(expected.unsafeBitcoinSerialize(), tx.unsafeBitcoinSerialize());
+
+        expected = BitcoinUtils.createRefundTx(PARAMS, pairs, redeemScript, to, 123456);
+        tx = BitcoinUtils.createRefundTx(PARAMS, values, redeemScript, to, 123456);
+        Assert.assertArrayEquals(expected.unsafeBitcoinSerialize(), tx.unsafeBitcoinSerialize());
+    }
+
+    private static List<OutPointValue> values(List<Pair<TransactionOutPoint, Coin>> pairs) {
+        List<OutPointValue> values = new ArrayList<>(pairs.size());
+        for (Pair<TransactionOutPoint, Coin> p : pairs) {
+            values.add(OutPointValue.create(p.element0(), p.element1()));
+        }
+        return values;
+    }
+
+    private static List<Pair<TransactionOutPoint, Coin>> pairs() {
+        Random rnd = new Random(42L);
+        List<Pair<TransactionOutPoint, Coin>> pairs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            byte[] hash = new byte[32];
+            rnd.nextBytes(hash);
+            pairs.add(new Pair<>(new TransactionOutPoint(PARAMS, rnd.nextInt(5), Sha256Hash.wrap(hash)),
+                    Coin.valueOf(100000 + rnd.nextInt(100000))));
+        }
+        return pairs;
+    }
+}
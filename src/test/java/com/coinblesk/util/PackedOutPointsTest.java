@@ -0,0 +1,75 @@
+package com.coinblesk.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.coinblesk.json.v1.SignTO;
+
+public class PackedOutPointsTest {
+
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    @Test
+    public void testPackMatchesSerializeOutPointsCoin() {
+        List<Pair<TransactionOutPoint, Coin>> outPoints = outPoints(20);
+        PackedOutPoints packed = PackedOutPoints.pack(outPoints);
+        Assert.assertEquals(20 * PackedOutPoints.ENTRY_LENGTH, packed.data().length);
+        Assert.assertEquals(20, packed.size());
+
+        List<Pair<byte[], Long>> serialized = SerializeUtils.serializeOutPointsCoin(outPoints);
+        for (int i = 0; i < packed.size(); i++) {
+            TransactionOutPoint outPoint = outPoints.get(i).element0();
+            Assert.assertEquals(outPoint.getHash(), packed.hash(i));
+            Assert.assertEquals(outPoint.getIndex(), packed.index(i));
+            Assert.assertEquals(serialized.get(i).element1().longValue(), packed.value(i));
+            Assert.assertTrue(packed.matches(i, outPoint));
+            Assert.assertFalse(packed.matches(i, new TransactionOutPoint(PARAMS, outPoint.getIndex() + 1,
+                    outPoint.getHash())));
+            Assert.assertArrayEquals(serialized.get(i).element0(), packed.outPoint(PARAMS, i).unsafeBitcoinSerialize());
+        }
+        Assert.assertEquals(outPoints, SerializeUtils.deserializeOutPointsCoinPacked(PARAMS, packed.data()));
+    }
+
+    @Test
+    public void testJsonRoundTrip() {
+        List<Pair<TransactionOutPoint, Coin>> outPoints = outPoints(5);
+        SignTO signTO = new SignTO().outpointsCoinPacked(SerializeUtils.serializeOutPointsCoinPacked(outPoints));
+        SignTO parsed = SerializeUtils.GSON.fromJson(SerializeUtils.GSON.toJson(signTO), SignTO.class);
+        Assert.assertEquals(outPoints, SerializeUtils.deserializeOutPointsCoinPacked(PARAMS,
+                parsed.outpointsCoinPacked()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLength() {
+        new PackedOutPoints(new byte[PackedOutPoints.ENTRY_LENGTH + 1]);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testIndexOutOfBounds() {
+        PackedOutPoints.pack(outPoints(2)).value(2);
+    }
+
+    private static List<Pair<TransactionOutPoint, Coin>> outPoints(int n) {
+        Random rnd = new Random(42L);
+        List<Pair<TransactionOutPoint, Coin>> outPoints = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            byte[] hash = new byte[32];
+            rnd.nextBytes(hash);
+            // include indices and values above the signed int range
+            long index = i == 0 ? 0xffffffffL : rnd.nextInt(100);
+            long value = i == 1 ? Long.MAX_VALUE : rnd.nextInt(Integer.MAX_VALUE);
+            outPoints.add(new Pair<>(new TransactionOutPoint(PARAMS, index, Sha256Hash.wrap(hash)),
+                    Coin.valueOf(value)));
+        }
+        return outPoints;
+    }
+}
@@ -0,0 +1,90 @@
+package com.coinblesk.util;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spongycastle.math.ec.ECPoint;
+import org.spongycastle.math.ec.FixedPointPreCompInfo;
+import org.spongycastle.math.ec.FixedPointUtil;
+
+import com.coinblesk.json.v1.SignTO;
+import com.coinblesk.json.v1.TxSig;
+
+public class PrecomputedSignerTest {
+
+    @Test
+    public void testSameAsECKey() {
+        ECKey key = new ECKey();
+        PrecomputedSigner signer = new PrecomputedSigner(key);
+        Assert.assertArrayEquals(key.getPubKey(), signer.getPubKey());
+        for (int i = 0; i < 50; i++) {
+            Sha256Hash hash = Sha256Hash.of(new byte[] { (byte) i });
+            Assert.assertEquals(key.sign(hash), signer.sign(hash));
+        }
+    }
+
+    @Test
+    public void testMultiplyG() {
+        BigInteger n = ECKey.CURVE.getN();
+        BigInteger[] scalars = { BigInteger.ONE, BigInteger.valueOf(255), BigInteger.valueOf(256),
+                n.subtract(BigInteger.ONE), new BigInteger(1, Sha256Hash.hash("k".getBytes())).mod(n) };
+        for (BigInteger k : scalars) {
+            Assert.assertEquals(ECKey.CURVE.getG().multiply(k).normalize(), PrecomputedSigner.multiplyG(k));
+        }
+    }
+
+    @Test
+    public void testSharedCurveUntouched() {
+        ECPoint g = ECKey.CURVE.getG();
+        FixedPointPreCompInfo before = FixedPointUtil.getFixedPointPreCompInfo(
+                g.getCurve().getPreCompInfo(g, FixedPointUtil.PRECOMP_NAME));
+        int width = before.getWidth();
+        ECPoint[] table = before.getPreComp();
+        new PrecomputedSigner(new ECKey()).sign(Sha256Hash.of("curve".getBytes()));
+        FixedPointPreCompInfo after = FixedPointUtil.getFixedPointPreCompInfo(
+                g.getCurve().getPreCompInfo(g, FixedPointUtil.PRECOMP_NAME));
+        Assert.assertSame(before, after);
+        Assert.assertEquals(width, after.getWidth());
+        Assert.assertSame(table, after.getPreComp());
+    }
+
+    @Test
+    public void testPartiallySign() {
+        NetworkParameters params = UnitTestParams.get();
+        ECKey client = new ECKey();
+        ECKey server = new ECKey();
+        Script redeemScript = BitcoinUtils.createRedeemScript(2, Arrays.asList(client, server));
+        Transaction tx = FakeTxBuilder.createFakeTxWithChangeAddress(params, Coin.COIN,
+                new ECKey().toAddress(params), new ECKey().toAddress(params));
+        List<TransactionSignature> expected = BitcoinUtils.partiallySign(tx, redeemScript, server);
+        Assert.assertEquals(expected, BitcoinUtils.partiallySign(tx, redeemScript, new PrecomputedSigner(server)));
+    }
+
+    @Test
+    public void testSignJSON() {
+        ECKey key = new ECKey();
+        SignTO to = new SignTO().amountToSpend(42).p2shAddressTo("to").currentDate(1);
+        TxSig expected = SerializeUtils.signJSONRaw(to, key, SerializeUtils.SIGNATURE_VERSION_COMPACT);
+        TxSig actual = SerializeUtils.signJSONRaw(to, new PrecomputedSigner(key),
+                SerializeUtils.SIGNATURE_VERSION_COMPACT);
+        Assert.assertEquals(expected.sigR(), actual.sigR());
+        Assert.assertEquals(expected.sigS(), actual.sigS());
+        Assert.assertTrue(SerializeUtils.verifyJSONSignatureRaw(to, actual, key));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPubKeyOnly() {
+        new PrecomputedSigner(ECKey.fromPublicOnly(new ECKey().getPubKey()));
+    }
+}
@@ -0,0 +1,119 @@
+package com.coinblesk.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.Test;
+
+public class RedeemScriptCacheTest {
+
+    @Test
+    public void testSameAsScriptBuilder() {
+        final RedeemScriptCache cache = new RedeemScriptCache();
+        for (int nrKeys = 1; nrKeys <= 16; nrKeys += 5) {
+            final List<ECKey> keys = keys(nrKeys);
+            for (int threshold = 1; threshold <= nrKeys; threshold++) {
+                final List<ECKey> sorted = new ArrayList<ECKey>(keys);
+                Collections.sort(sorted, BitcoinUtils.PUBKEY_COMPARATOR);
+                final Script expected = ScriptBuilder.createMultiSigOutputScript(threshold, sorted);
+
+                final RedeemScriptCache.CachedScript script = cache.get(threshold, keys);
+                assertArrayEquals(expected.getProgram(), script.program());
+                assertEquals(expected, script.script());
+                assertArrayEquals(Utils.sha256hash160(expected.getProgram()), script.hash160());
+                assertEquals(ScriptBuilder.createP2SHOutputScript(expected), script.p2shOutputScript());
+            }
+        }
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        final RedeemScriptCache cache = new RedeemScriptCache();
+        final List<ECKey> keys = keys(2);
+        final RedeemScriptCache.CachedScript script = cache.get(2, keys);
+        assertEquals(0, cache.hits());
+        assertEquals(1, cache.misses());
+
+        // the order of the keys does not matter
+        final List<ECKey> reversed = new ArrayList<ECKey>(keys);
+        Collections.reverse(reversed);
+        assertArrayEquals(script.program(), cache.get(2, reversed).program());
+        assertEquals(1, cache.hits());
+
+        // a different threshold is a different script
+        cache.get(1, keys);
+        assertEquals(2, cache.misses());
+        assertEquals(2, cache.size());
+        assertEquals(1.0 / 3, cache.hitRate(), 1e-9);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.hitRate(), 0);
+    }
+
+    @Test
+    public void testEviction() {
+        final RedeemScriptCache cache = new RedeemScriptCache(2);
+        final List<ECKey> first = keys(2);
+        cache.get(2, first);
+        cache.get(2, keys(2));
+        cache.get(2, first);
+        cache.get(2, keys(2));
+        assertEquals(2, cache.size());
+        // first was used more recently than the second
+        cache.get(2, first);
+        assertEquals(2, cache.hits());
+    }
+
+    @Test
+    public void testCopies() {
+        final RedeemScriptCache cache = new RedeemScriptCache();
+        final List<ECKey> keys = keys(2);
+        final byte[] program = cache.get(2, keys).program();
+        final byte[] hash = cache.get(2, keys).hash160();
+        Arrays.fill(program, (byte) 0);
+        Arrays.fill(hash, (byte) 0);
+        assertEquals(BitcoinUtils.createRedeemScript(2, keys), cache.get(2, keys).script());
+        assertArrayEquals(Utils.sha256hash160(cache.get(2, keys).program()), cache.get(2, keys).hash160());
+    }
+
+    @Test
+    public void testScriptsAreShared() {
+        final RedeemScriptCache cache = new RedeemScriptCache();
+        final List<ECKey> keys = keys(3);
+        final RedeemScriptCache.CachedScript script = cache.get(2, keys);
+        assertSame(script.script(), cache.get(2, keys).script());
+        assertSame(script.p2shOutputScript(), cache.get(2, keys).p2shOutputScript());
+        // another threshold of the same keys
+        assertEquals(3, cache.get(3, keys).script().getNumberOfSignaturesRequiredToSpend());
+        assertEquals(2, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThresholdTooHigh() {
+        new RedeemScriptCache().get(3, keys(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyKeys() {
+        new RedeemScriptCache().get(1, keys(17));
+    }
+
+    private static List<ECKey> keys(int count) {
+        final List<ECKey> keys = new ArrayList<ECKey>();
+        for (int i = 0; i < count; i++) {
+            keys.add(ECKey.fromPublicOnly(new ECKey().getPubKey()));
+        }
+        return keys;
+    }
+}
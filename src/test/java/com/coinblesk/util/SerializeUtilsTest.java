@@ -3,11 +3,22 @@ package com.coinblesk.util;
 import com.coinblesk.json.v1.SignTO;
 import com.coinblesk.json.v1.TxSig;
 import com.coinblesk.json.v1.VerifyTO;
+import com.google.gson.JsonSyntaxException;
 import java.math.BigInteger;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Random;
+import java.util.TimeZone;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
 import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.crypto.TransactionSignature;
 import org.bitcoinj.params.UnitTestParams;
 import org.junit.Assert;
 import org.junit.Test;
@@ -132,6 +143,119 @@ public class SerializeUtilsTest {
         Assert.assertFalse(SerializeUtils.verifyJSONSignature(p, server));
     }
     
+    @Test
+    public void testSignatureCompactSerialize() {
+        ECKey client = new ECKey();
+        SignTO p = new SignTO()
+                .amountToSpend(3)
+                .publicKey(client.getPubKey())
+                .currentDate(System.currentTimeMillis());
+        SerializeUtils.signJSON(p, client, SerializeUtils.SIGNATURE_VERSION_COMPACT);
+        Assert.assertEquals(Integer.valueOf(SerializeUtils.SIGNATURE_VERSION_COMPACT), p.messageSig().version());
+        SignTO p2 = SerializeUtils.GSON.fromJson(SerializeUtils.GSON.toJson(p), SignTO.class);
+        Assert.assertTrue(SerializeUtils.verifyJSONSignature(p2, client));
+    }
+
+    @Test
+    public void testSignaturesCompact() {
+        List<TransactionSignature> sigs = new ArrayList<>();
+        ECKey key = new ECKey();
+        for (int i = 0; i < 50; i++) {
+            sigs.add(new TransactionSignature(key.sign(Sha256Hash.of(new byte[]{(byte) i})),
+                    Transaction.SigHash.ALL, false));
+        }
+        // small values must still have 32 bytes
+        sigs.add(new TransactionSignature(BigInteger.ONE, BigInteger.TEN));
+
+        List<TxSig> decimal = SerializeUtils.serializeSignatures(sigs);
+        List<TxSig> compact = SerializeUtils.serializeSignatures(sigs, SerializeUtils.SIGNATURE_VERSION_COMPACT);
+        Assert.assertEquals(43, compact.get(0).sigR().length());
+        Assert.assertEquals(43, compact.get(50).sigS().length());
+        Assert.assertTrue(SerializeUtils.GSON.toJson(compact).length() < SerializeUtils.GSON.toJson(decimal).length());
+
+        // both encodings are accepted, also after a round trip through json
+        for (List<TxSig> txSigs : Arrays.asList(decimal, compact)) {
+            String json = SerializeUtils.GSON.toJson(txSigs);
+            List<TxSig> parsed = SerializeUtils.GSON.fromJson(json,
+                    new TypeToken<List<TxSig>>() {}.getType());
+            List<TransactionSignature> result = SerializeUtils.deserializeSignatures(parsed);
+            for (int i = 0; i < sigs.size(); i++) {
+                Assert.assertEquals(sigs.get(i).r, result.get(i).r);
+                Assert.assertEquals(sigs.get(i).s, result.get(i).s);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSignatureCompactInvalidLength() {
+        SerializeUtils.decodeSignatureComponent("AQID", SerializeUtils.SIGNATURE_VERSION_COMPACT);
+    }
+
+    @Test
+    public void testWireJsonCompact() {
+        ECKey client = new ECKey();
+        SignTO p = new SignTO()
+                .amountToSpend(3)
+                .publicKey(client.getPubKey())
+                .currentDate(System.currentTimeMillis());
+        SerializeUtils.signJSON(p, client);
+        String json = SerializeUtils.GSON.toJson(p);
+        Assert.assertFalse(json.contains("\n"));
+        Assert.assertFalse(json.contains(" "));
+        SignTO p2 = SerializeUtils.GSON.fromJson(json, SignTO.class);
+        Assert.assertTrue(SerializeUtils.verifyJSONSignature(p2, client));
+    }
+
+    @Test
+    public void testSignaturePrettyPrintedCompatible() {
+        //signatures are created over the pretty printed canonical form, as before
+        ECKey client = new ECKey();
+        SignTO p = new SignTO()
+                .amountToSpend(3)
+                .p2shAddressTo("msaR6WeixDg5CFTKy6pVKe6HbG8bFxDajZ")
+                .currentDate(1457300122942L);
+        String pretty = new GsonBuilder().setPrettyPrinting().create().toJson(p);
+        Sha256Hash hash = SerializeUtils.hash(SerializeUtils.canonicalizeJSON(pretty));
+        ECKey.ECDSASignature sig = client.sign(hash);
+        TxSig txSig = new TxSig().sigR(sig.r.toString()).sigS(sig.s.toString());
+        Assert.assertTrue(SerializeUtils.verifyJSONSignatureRaw(p, txSig, client));
+    }
+    
+    @Test
+    public void testDateFormat() {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX");
+        sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random rnd = new Random(42L);
+        List<Long> millis = new ArrayList<>(Arrays.asList(0L, -1L, 1L, 951782400000L, 951868799999L,
+                -12219292800000L, -12219292800001L, 253402300799999L, 253402300800000L, -62135769600000L));
+        for (int i = 0; i < 10000; i++) {
+            millis.add(rnd.nextLong() % 400000000000000L);
+        }
+        for (long m : millis) {
+            Date date = new Date(m);
+            String json = SerializeUtils.GSON.toJson(date);
+            Assert.assertEquals("\"" + sdf.format(date) + "\"", json);
+            if (m >= -62135769600000L) {
+                //before year 1, the era is lost in the ISO format
+                Assert.assertEquals(date, SerializeUtils.GSON.fromJson(json, Date.class));
+            }
+        }
+    }
+
+    @Test
+    public void testDateParse() throws ParseException {
+        Assert.assertEquals(new Date(1457300122942L), 
+                SerializeUtils.GSON.fromJson("\"2016-03-06T21:35:22.942Z\"", Date.class));
+        Assert.assertEquals(new Date(1457300122942L), 
+                SerializeUtils.GSON.fromJson("\"2016-03-06T22:35:22.942+01\"", Date.class));
+        Assert.assertNull(SerializeUtils.GSON.fromJson("null", Date.class));
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void testDateParseInvalid() {
+        SerializeUtils.GSON.fromJson("\"2016-02-30T21:35:22.942Z\"", Date.class);
+    }
+    
     @Test
     public void testVerifyTO() {
         for(int i=0;i<100;i++) {
@@ -0,0 +1,75 @@
+package com.coinblesk.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+
+/**
+ * Hashes every input of a transaction with {@link SigHashEngine} and with
+ * {@link Transaction#hashForSignature(int, Script, Transaction.SigHash, boolean)}, for 1 up to
+ * 2,000 inputs by default. Not a test, run it from the test classpath:
+ *
+ * java -cp <test and main classes, dependencies> com.coinblesk.util.SigHashEngineBenchmark [max inputs]
+ */
+public class SigHashEngineBenchmark {
+
+    private static final int[] SIZES = { 1, 10, 100, 250, 500, 1000, 2000 };
+
+    public static void main(String[] args) {
+        final int max = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final NetworkParameters params = UnitTestParams.get();
+        final Random rnd = new Random(42L);
+        final Script redeemScript = BitcoinUtils.createRedeemScript(2,
+                Arrays.asList(new ECKey(), new ECKey()));
+
+        for (int round = 0; round < 3; round++) {
+            System.out.printf("round %d%n", round);
+            for (int size : SIZES) {
+                if (size > max) {
+                    break;
+                }
+                final Transaction tx = createTx(params, rnd, size);
+                long sum = 0;
+                final long start = System.nanoTime();
+                for (int i = 0; i < size; i++) {
+                    sum += tx.hashForSignature(i, redeemScript, Transaction.SigHash.ALL, false).getBytes()[0];
+                }
+                final long bitcoinj = System.nanoTime();
+                final SigHashEngine engine = new SigHashEngine(tx);
+                for (int i = 0; i < size; i++) {
+                    sum += engine.hashForSignature(i, redeemScript).getBytes()[0];
+                }
+                final long end = System.nanoTime();
+
+                System.out.printf("%5d inputs: bitcoinj %d us, engine %d us (%d)%n",
+                        size, micros(start, bitcoinj), micros(bitcoinj, end), sum);
+            }
+        }
+    }
+
+    private static Transaction createTx(NetworkParameters params, Random rnd, int nrInputs) {
+        final Transaction tx = new Transaction(params);
+        for (int i = 0; i < nrInputs; i++) {
+            final byte[] hash = new byte[32];
+            rnd.nextBytes(hash);
+            tx.addInput(new TransactionInput(params, null, new byte[0],
+                    new TransactionOutPoint(params, rnd.nextInt(10), Sha256Hash.wrap(hash))));
+        }
+        tx.addOutput(Coin.CENT, new ECKey().toAddress(params));
+        tx.addOutput(Coin.COIN, new ECKey().toAddress(params));
+        return tx;
+    }
+
+    private static long micros(long from, long to) {
+        return (to - from) / 1000;
+    }
+}
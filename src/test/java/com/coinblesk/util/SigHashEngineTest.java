@@ -0,0 +1,73 @@
+package com.coinblesk.util;
+
+import java.util.Random;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.script.ScriptOpCodes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SigHashEngineTest {
+
+    private final NetworkParameters params = UnitTestParams.get();
+    private final Random rnd = new Random(42L);
+
+    @Test
+    public void testSameAsBitcoinj() {
+        Transaction tx = createTx(300);
+        Script redeemScript = new ScriptBuilder().op(ScriptOpCodes.OP_CODESEPARATOR)
+                .data(new ECKey().getPubKey()).op(ScriptOpCodes.OP_CHECKSIG).build();
+        SigHashEngine engine = new SigHashEngine(tx);
+        Assert.assertEquals(300, engine.nrInputs());
+        for (int i = 0; i < tx.getInputs().size(); i++) {
+            Assert.assertEquals(tx.hashForSignature(i, redeemScript, Transaction.SigHash.ALL, false),
+                    engine.hashForSignature(i, redeemScript));
+        }
+        // out of order
+        for (int i = 0; i < 20; i++) {
+            int index = rnd.nextInt(tx.getInputs().size());
+            Assert.assertEquals(tx.hashForSignature(index, redeemScript, Transaction.SigHash.ALL, false),
+                    engine.hashForSignature(index, redeemScript));
+        }
+    }
+
+    @Test
+    public void testScriptSigsIgnored() {
+        Transaction tx = createTx(3);
+        Script redeemScript = BitcoinUtils.createRedeemScript(1, java.util.Arrays.asList(new ECKey()));
+        SigHashEngine engine = new SigHashEngine(tx);
+        Sha256Hash hash = engine.hashForSignature(1, redeemScript);
+        tx.getInput(1).setScriptSig(new ScriptBuilder().data(new byte[72]).build());
+        Assert.assertEquals(tx.hashForSignature(1, redeemScript, Transaction.SigHash.ALL, false), hash);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testInvalidIndex() {
+        new SigHashEngine(createTx(2)).hashForSignature(2, new byte[0]);
+    }
+
+    private Transaction createTx(int nrInputs) {
+        Transaction tx = new Transaction(params);
+        for (int i = 0; i < nrInputs; i++) {
+            byte[] hash = new byte[32];
+            rnd.nextBytes(hash);
+            TransactionInput input = new TransactionInput(params, null, new byte[] { 1, 2, 3 },
+                    new TransactionOutPoint(params, rnd.nextInt(10), Sha256Hash.wrap(hash)));
+            input.setSequenceNumber(rnd.nextInt() & 0xffffffffL);
+            tx.addInput(input);
+        }
+        tx.addOutput(Coin.CENT, new ECKey().toAddress(params));
+        tx.addOutput(Coin.COIN, new ECKey().toAddress(params));
+        tx.setLockTime(1234567);
+        return tx;
+    }
+}
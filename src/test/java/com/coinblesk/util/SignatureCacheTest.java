@@ -0,0 +1,60 @@
+package com.coinblesk.util;
+
+import java.math.BigInteger;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SignatureCacheTest {
+
+    @Test
+    public void testHits() {
+        SignatureCache cache = new SignatureCache(10);
+        ECKey key = new ECKey();
+        Sha256Hash hash = Sha256Hash.of(new byte[] { 1, 2, 3 });
+        ECKey.ECDSASignature sig = key.sign(hash);
+
+        Assert.assertTrue(cache.verify(hash, sig, key));
+        Assert.assertEquals(0, cache.hits());
+        Assert.assertTrue(cache.verify(hash, sig, key));
+        Assert.assertEquals(1, cache.hits());
+        Assert.assertEquals(1, cache.misses());
+        Assert.assertEquals(0.5, cache.hitRate(), 0);
+
+        // another key, another hash or a modified signature is not a hit
+        Assert.assertFalse(cache.verify(hash, sig, new ECKey()));
+        Assert.assertFalse(cache.verify(Sha256Hash.of(new byte[] { 1 }), sig, key));
+        Assert.assertFalse(cache.verify(hash, new ECKey.ECDSASignature(sig.r, sig.s.add(BigInteger.ONE)), key));
+        Assert.assertEquals(1, cache.hits());
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testEviction() {
+        SignatureCache cache = new SignatureCache(2);
+        ECKey key = new ECKey();
+        Sha256Hash[] hashes = new Sha256Hash[3];
+        ECKey.ECDSASignature[] sigs = new ECKey.ECDSASignature[3];
+        for (int i = 0; i < 3; i++) {
+            hashes[i] = Sha256Hash.of(new byte[] { (byte) i });
+            sigs[i] = key.sign(hashes[i]);
+            Assert.assertTrue(cache.verify(hashes[i], sigs[i], key));
+        }
+        Assert.assertEquals(2, cache.size());
+        Assert.assertTrue(cache.verify(hashes[0], sigs[0], key));
+        Assert.assertEquals(0, cache.hits());
+        Assert.assertTrue(cache.verify(hashes[2], sigs[2], key));
+        Assert.assertEquals(1, cache.hits());
+    }
+
+    @Test
+    public void testOutOfRangeSignature() {
+        SignatureCache cache = new SignatureCache();
+        ECKey key = new ECKey();
+        ECKey.ECDSASignature sig = new ECKey.ECDSASignature(BigInteger.ONE.shiftLeft(300), BigInteger.ONE);
+        Assert.assertFalse(cache.verify(Sha256Hash.ZERO_HASH, sig, key));
+        Assert.assertEquals(0, cache.size());
+    }
+}
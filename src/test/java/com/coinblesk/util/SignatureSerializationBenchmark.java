@@ -0,0 +1,67 @@
+package com.coinblesk.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.crypto.TransactionSignature;
+
+import com.coinblesk.json.v1.TxSig;
+
+/**
+ * Serializes and deserializes 500 signatures with the decimal and the compact Base64 encoding of
+ * the signature components, see {@link SerializeUtils#SIGNATURE_VERSION_COMPACT}. Not a test, run
+ * it from the test classpath:
+ *
+ * java -cp <test and main classes, dependencies> com.coinblesk.util.SignatureSerializationBenchmark [signatures]
+ */
+public class SignatureSerializationBenchmark {
+
+    private static final int ITERATIONS = 200;
+
+    public static void main(String[] args) {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        final ECKey key = new ECKey();
+        final List<TransactionSignature> sigs = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            sigs.add(new TransactionSignature(key.sign(Sha256Hash.of(new byte[] { (byte) i, (byte) (i >> 8) })),
+                    Transaction.SigHash.ALL, false));
+        }
+
+        for (int round = 0; round < 3; round++) {
+            for (int version : new int[] { SerializeUtils.SIGNATURE_VERSION_DECIMAL,
+                    SerializeUtils.SIGNATURE_VERSION_COMPACT }) {
+                long sum = 0;
+                final long start = System.nanoTime();
+                List<TxSig> txSigs = null;
+                for (int i = 0; i < ITERATIONS; i++) {
+                    txSigs = SerializeUtils.serializeSignatures(sigs, version);
+                    sum += txSigs.size();
+                }
+                final long serialized = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    sum += SerializeUtils.deserializeSignatures(txSigs).size();
+                }
+                final long deserialized = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    sum += SerializeUtils.deserializeCompactSignatures(txSigs).size();
+                }
+                final long compact = System.nanoTime();
+                final int json = SerializeUtils.GSON.toJson(txSigs).length();
+
+                System.out.printf("%s: serialize %d us, deserialize %d us, deserializeCompact %d us, "
+                        + "JSON %d chars (%d)%n",
+                        version == SerializeUtils.SIGNATURE_VERSION_COMPACT ? "compact" : "decimal",
+                        micros(start, serialized), micros(serialized, deserialized),
+                        micros(deserialized, compact), json, sum);
+            }
+        }
+    }
+
+    // per iteration
+    private static long micros(long from, long to) {
+        return (to - from) / 1000 / ITERATIONS;
+    }
+}
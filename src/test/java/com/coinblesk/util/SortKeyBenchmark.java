@@ -0,0 +1,125 @@
+package com.coinblesk.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.UnitTestParams;
+
+/**
+ * Sorts 1000 inputs and 1000 outputs with {@link BitcoinUtils#sortInputs} and
+ * {@link BitcoinUtils#sortOutputs}, and with the previous comparators, which read the hash or
+ * serialized the output for every comparison. Not a test, run it from the test classpath:
+ *
+ * java -cp <test and main classes, dependencies> com.coinblesk.util.SortKeyBenchmark [inputs and outputs]
+ */
+public class SortKeyBenchmark {
+
+    private static final int ITERATIONS = 2000;
+
+    public static void main(String[] args) {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final NetworkParameters params = UnitTestParams.get();
+        final Random rnd = new Random(42L);
+        final Transaction tx = new Transaction(params);
+        final List<TransactionInput> inputs = new ArrayList<>(n);
+        final List<TransactionOutput> outputs = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            final byte[] hash = new byte[32];
+            rnd.nextBytes(hash);
+            // some outpoints of the same tx, to compare the index as well
+            inputs.add(new TransactionInput(params, null, new byte[0],
+                    new TransactionOutPoint(params, rnd.nextInt(4), Sha256Hash.wrap(hash))));
+            outputs.add(new TransactionOutput(params, tx, Coin.valueOf(rnd.nextInt(1000)),
+                    new ECKey().toAddress(params)));
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long sum = 0;
+            final long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sum += previousSortInputs(inputs).get(0).getOutpoint().getIndex();
+            }
+            final long previousInputs = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sum += BitcoinUtils.sortInputs(inputs).get(0).getOutpoint().getIndex();
+            }
+            final long sortedInputs = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sum += previousSortOutputs(outputs).get(0).getValue().value;
+            }
+            final long previousOutputs = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sum += BitcoinUtils.sortOutputs(outputs).get(0).getValue().value;
+            }
+            final long sortedOutputs = System.nanoTime();
+
+            System.out.printf("sortInputs: comparator %d us, keys %d us; sortOutputs: comparator %d us, "
+                    + "keys %d us (%d)%n", micros(start, previousInputs), micros(previousInputs, sortedInputs),
+                    micros(sortedInputs, previousOutputs), micros(previousOutputs, sortedOutputs), sum);
+        }
+        if (!previousSortInputs(inputs).equals(BitcoinUtils.sortInputs(inputs))
+                || !previousSortOutputs(outputs).equals(BitcoinUtils.sortOutputs(outputs))) {
+            throw new AssertionError("different order");
+        }
+    }
+
+    // per iteration
+    private static long micros(long from, long to) {
+        return (to - from) / 1000 / ITERATIONS;
+    }
+
+    private static List<TransactionInput> previousSortInputs(final List<TransactionInput> unsorted) {
+        final List<TransactionInput> copy = new ArrayList<TransactionInput>(unsorted);
+        Collections.sort(copy, new Comparator<TransactionInput>() {
+            @Override
+            public int compare(final TransactionInput o1, final TransactionInput o2) {
+                final byte[] left = o1.getOutpoint().getHash().getBytes();
+                final byte[] right = o2.getOutpoint().getHash().getBytes();
+                for (int i = 0, j = 0; i < left.length && j < right.length; i++, j++) {
+                    final int a = (left[i] & 0xff);
+                    final int b = (right[j] & 0xff);
+                    if (a != b) {
+                        return a - b;
+                    }
+                }
+                int c = left.length - right.length;
+                if (c != 0) {
+                    return c;
+                }
+                return Long.compare(o1.getOutpoint().getIndex(), o2.getOutpoint().getIndex());
+            }
+        });
+        return copy;
+    }
+
+    private static List<TransactionOutput> previousSortOutputs(final List<TransactionOutput> unsorted) {
+        final List<TransactionOutput> copy = new ArrayList<TransactionOutput>(unsorted);
+        Collections.sort(copy, new Comparator<TransactionOutput>() {
+            @Override
+            public int compare(final TransactionOutput o1, final TransactionOutput o2) {
+                final byte[] left = o1.unsafeBitcoinSerialize();
+                final byte[] right = o2.unsafeBitcoinSerialize();
+                for (int i = 0, j = 0; i < left.length && j < right.length; i++, j++) {
+                    final int a = (left[i] & 0xff);
+                    final int b = (right[j] & 0xff);
+                    if (a != b) {
+                        return a - b;
+                    }
+                }
+                return left.length - right.length;
+            }
+        });
+        return copy;
+    }
+}
@@ -0,0 +1,79 @@
+package com.coinblesk.util;
+
+import java.util.Arrays;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TransactionBuilderTest {
+
+    private final NetworkParameters params = UnitTestParams.get();
+
+    @Test
+    public void testSizeAndFee() throws CoinbleskException {
+        ECKey client = new ECKey();
+        ECKey server = new ECKey();
+        Script redeemScript = ScriptBuilder.createMultiSigOutputScript(2, Arrays.asList(client, server));
+        Address p2shAddress = ScriptBuilder.createP2SHOutputScript(redeemScript).getToAddress(params);
+        Transaction funding = FakeTxBuilder.createFakeTxWithChangeAddress(params, Coin.COIN,
+                p2shAddress, new ECKey().toAddress(params));
+
+        TransactionBuilder builder = new TransactionBuilder(params);
+        Assert.assertEquals(builder.transaction().unsafeBitcoinSerialize().length, builder.size());
+
+        TransactionInput input = new TransactionInput(params, null, redeemScript.getProgram(),
+                funding.getOutput(0).getOutPointFor(), Coin.COIN);
+        builder.addInput(input);
+        Assert.assertEquals(1, builder.nrInputsP2SH());
+        builder.addOutput(new TransactionOutput(params, builder.transaction(), Coin.CENT,
+                new ECKey().toAddress(params)));
+        builder.addOutput(new TransactionOutput(params, builder.transaction(), Coin.CENT,
+                p2shAddress));
+
+        Transaction tx = builder.transaction();
+        Assert.assertEquals(tx.unsafeBitcoinSerialize().length, builder.size());
+        Assert.assertEquals(BitcoinUtils.calcFee(tx), builder.calcFee());
+        Assert.assertEquals(Coin.COIN.value, builder.inputValue());
+        Assert.assertEquals(2 * Coin.CENT.value, builder.outputValue());
+        Assert.assertEquals(1, builder.nrOutputsRegular());
+        Assert.assertEquals(1, builder.nrOutputsP2SH());
+    }
+
+    @Test
+    public void testRegularInput() {
+        ECKey key = new ECKey();
+        Transaction funding = FakeTxBuilder.createFakeTx(params, Coin.COIN, key);
+        TransactionBuilder builder = new TransactionBuilder(params);
+        builder.addInput(funding.getOutput(0));
+        Assert.assertEquals(1, builder.nrInputsRegular());
+        Assert.assertEquals(Coin.COIN.value, builder.inputValue());
+        Assert.assertEquals(builder.transaction().unsafeBitcoinSerialize().length, builder.size());
+    }
+
+    @Test(expected = CoinbleskException.class)
+    public void testLargeFee() throws CoinbleskException {
+        Transaction funding = FakeTxBuilder.createFakeTx(params, Coin.COIN, new ECKey());
+        TransactionBuilder builder = new TransactionBuilder(params);
+        builder.addInput(funding.getOutput(0));
+        builder.addOutput(new TransactionOutput(params, builder.transaction(), Coin.CENT,
+                new ECKey().toAddress(params)));
+        builder.checkFee();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInputWithoutValue() {
+        TransactionBuilder builder = new TransactionBuilder(params);
+        Transaction funding = FakeTxBuilder.createFakeTx(params, Coin.COIN, new ECKey());
+        builder.addInput(new TransactionInput(params, null, new byte[0], funding.getOutput(0).getOutPointFor()));
+    }
+}
@@ -0,0 +1,125 @@
+package com.coinblesk.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.junit.Test;
+
+import com.coinblesk.bitcoin.TimeLockedAddress;
+
+public class WitnessSerializerTest {
+
+    private final NetworkParameters params = UnitTestParams.get();
+
+    @Test
+    public void testLegacyWithoutWitness() {
+        final Transaction tx = createTx(2, new byte[0]);
+        final List<List<byte[]>> witnesses = Arrays.asList(Collections.<byte[]>emptyList(),
+                Collections.<byte[]>emptyList());
+        assertArrayEquals(tx.bitcoinSerialize(), WitnessSerializer.serialize(tx, witnesses));
+        assertEquals(tx.bitcoinSerialize().length * 4, WitnessSerializer.weight(tx, witnesses));
+    }
+
+    @Test
+    public void testSerialize() {
+        final Transaction tx = createTx(1, new byte[0]);
+        final List<List<byte[]>> witnesses = Collections.singletonList(
+                Arrays.asList(new byte[0], new byte[] { 1, 2, 3 }));
+        final byte[] legacy = tx.bitcoinSerialize();
+        final byte[] serialized = WitnessSerializer.serialize(tx, witnesses);
+
+        // marker and flag, witness of 2 items
+        assertEquals(legacy.length + 2 + 6, serialized.length);
+        assertArrayEquals(Arrays.copyOfRange(legacy, 0, 4), Arrays.copyOfRange(serialized, 0, 4));
+        assertEquals(0, serialized[4]);
+        assertEquals(1, serialized[5]);
+        assertArrayEquals(Arrays.copyOfRange(legacy, 4, legacy.length - 4),
+                Arrays.copyOfRange(serialized, 6, legacy.length - 2));
+        assertArrayEquals(new byte[] { 2, 0, 3, 1, 2, 3 },
+                Arrays.copyOfRange(serialized, legacy.length - 2, legacy.length + 4));
+        assertArrayEquals(Arrays.copyOfRange(legacy, legacy.length - 4, legacy.length),
+                Arrays.copyOfRange(serialized, serialized.length - 4, serialized.length));
+        assertEquals(legacy.length * 3 + serialized.length, WitnessSerializer.weight(tx, witnesses));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWitnessPerInput() {
+        WitnessSerializer.serialize(createTx(2, new byte[0]), Collections.<List<byte[]>>emptyList());
+    }
+
+    @Test
+    public void testMultiSigWeightEstimate() {
+        final List<ECKey> keys = Arrays.asList(new ECKey(), new ECKey());
+        final Script witnessScript = BitcoinUtils.createRedeemScript(2, keys);
+        final Transaction tx = createTx(3, new byte[0]);
+        final List<Coin> values = Arrays.asList(Coin.COIN, Coin.COIN, Coin.COIN);
+        final List<TransactionSignature> sigs1 = BitcoinUtils.partiallySignWitness(tx, witnessScript, values,
+                keys.get(0));
+        final List<TransactionSignature> sigs2 = BitcoinUtils.partiallySignWitness(tx, witnessScript, values,
+                keys.get(1));
+        final List<List<byte[]>> witnesses = new ArrayList<List<byte[]>>();
+        for (int i = 0; i < 3; i++) {
+            witnesses.add(BitcoinUtils.createMultiSigWitness(Arrays.asList(sigs1.get(i), sigs2.get(i)),
+                    witnessScript));
+        }
+
+        final int weight = WitnessSerializer.weight(tx, witnesses);
+        final int estimate = BitcoinUtils.estimateWeight(1, 0, 1, 0, 0, 3, 0);
+        assertTrue(weight + " > " + estimate, weight <= estimate);
+        assertTrue(weight + " << " + estimate, estimate - weight < 3 * 12);
+        // less than half of the legacy P2SH size
+        assertTrue(BitcoinUtils.estimateVirtualSize(1, 0, 1, 0, 0, 3, 0)
+                < BitcoinUtils.estimateSize(1, 1, 0, 3) / 2);
+    }
+
+    @Test
+    public void testNestedTimeLockedWeightEstimate() {
+        final ECKey client = new ECKey();
+        final ECKey server = new ECKey();
+        final TimeLockedAddress address = new TimeLockedAddress(client.getPubKey(), server.getPubKey(), 123456);
+        final Transaction tx = createTx(2, address.createNestedWitnessScriptSig().getProgram());
+        final List<Coin> values = Arrays.asList(Coin.COIN, Coin.CENT);
+        final Script witnessScript = address.createRedeemScript();
+        final List<TransactionSignature> clientSigs = BitcoinUtils.partiallySignWitness(tx, witnessScript, values,
+                client);
+        final List<TransactionSignature> serverSigs = BitcoinUtils.partiallySignWitness(tx, witnessScript, values,
+                server);
+        final List<List<byte[]>> witnesses = new ArrayList<List<byte[]>>();
+        for (int i = 0; i < 2; i++) {
+            witnesses.add(address.createWitnessBeforeLockTime(clientSigs.get(i), serverSigs.get(i)));
+        }
+
+        final int weight = WitnessSerializer.weight(tx, witnesses);
+        final int estimate = BitcoinUtils.estimateWeight(1, 0, 1, 0, 0, 0, 2);
+        assertTrue(weight + " > " + estimate, weight <= estimate);
+        assertTrue(weight + " << " + estimate, estimate - weight < 2 * 12);
+        assertEquals((weight + 3) / 4, WitnessSerializer.virtualSize(tx, witnesses));
+    }
+
+    private Transaction createTx(int nrInputs, byte[] scriptSig) {
+        final Transaction tx = new Transaction(params);
+        for (int i = 0; i < nrInputs; i++) {
+            tx.addInput(new TransactionInput(params, tx, scriptSig,
+                    new TransactionOutPoint(params, i, Sha256Hash.of(("tx" + i).getBytes()))));
+        }
+        tx.addOutput(Coin.COIN, new ECKey().toAddress(params));
+        tx.addOutput(Coin.CENT, BitcoinUtils.createP2WSHOutputScript(2, Arrays.asList(new ECKey(), new ECKey())));
+        return tx;
+    }
+}
@@ -0,0 +1,164 @@
+package com.coinblesk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Transaction.SigHash;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.VarInt;
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.junit.Test;
+
+public class WitnessSigHashEngineTest {
+
+    private final NetworkParameters params = UnitTestParams.get();
+
+    @Test
+    public void testSameAsBip143Definition() throws IOException {
+        final Script witnessScript = BitcoinUtils.createRedeemScript(2,
+                Arrays.asList(new ECKey(), new ECKey()));
+        final Transaction tx = createTx(5);
+        tx.setLockTime(123456);
+        tx.getInput(2).setSequenceNumber(7);
+        final List<Coin> values = values(5);
+
+        final WitnessSigHashEngine engine = new WitnessSigHashEngine(tx, values);
+        assertEquals(5, engine.nrInputs());
+        // in any order
+        for (int i : new int[] { 3, 0, 4, 2, 1 }) {
+            assertEquals(bip143Hash(tx, i, witnessScript.getProgram(), values.get(i)),
+                    engine.hashForSignature(i, witnessScript));
+        }
+    }
+
+    /**
+     * Native P2WPKH example of BIP 143, the second input, with the P2PKH scriptCode.
+     */
+    @Test
+    public void testBip143NativeP2WPKHExample() {
+        final Transaction tx = new Transaction(params, Utils.HEX.decode("0100000002fff7f7881a8099afa6940d42d1e7f636"
+                + "2bec38171ea3edf433541db4e4ad969f0000000000eeffffffef51e1b804cc89d182d279655c3aa89e815b1b309fe287d9b2"
+                + "b55d57b90ec68a0100000000ffffffff02202cb206000000001976a9148280b37df378db99f66f85c95a783a76ac7a6d5988"
+                + "ac9093510d000000001976a9143bde42dbee7e4dbe6a21b2d50ce2f0167faa815988ac11000000"));
+        final List<Coin> values = Arrays.asList(Coin.valueOf(625000000L), Coin.valueOf(600000000L));
+        final byte[] scriptCode = Utils.HEX.decode("76a9141d0f172a0ecb48aee1be1f2687d2963ae33f71a188ac");
+        final Sha256Hash hash = new WitnessSigHashEngine(tx, values).hashForSignature(1, scriptCode);
+        assertEquals("c37af31116d1b27caf68aae9e3ac82f1477929014d5b917657d0eb49478cb670", hash.toString());
+
+        final ECKey key = ECKey.fromPrivate(
+                Utils.HEX.decode("619c335025c7f4012e556c2a58b2506e30b8511b53ade95ea316fd8c3286feb9"));
+        final TransactionSignature signature = new TransactionSignature(key.sign(hash), SigHash.ALL, false);
+        assertEquals("304402203609e17b84f6a7d30c80bfa610b5b4542f32a8a0d5447a12fb1366d7f01cc44a0220573a954c4518"
+                + "331561406f90300e8f3358f51928d43c212a8caed02de67eebee01", Utils.HEX.encode(signature.encodeToBitcoin()));
+    }
+
+    /**
+     * P2SH-P2WSH example of BIP 143: the 6-of-6 multisig witness script, the SIGHASH_ALL signature.
+     */
+    @Test
+    public void testBip143P2SHP2WSHExample() {
+        final Transaction tx = new Transaction(params, Utils.HEX.decode("010000000136641869ca081e70f394c6948e8af409"
+                + "e18b619df2ed74aa106c1ca29787b96e0100000000ffffffff0200e9a435000000001976a914389ffce9cd9ae88dcc0631e8"
+                + "8a821ffdbe9bfe2688acc0832f05000000001976a9147480a33f950689af511e6e84c138dbbd3c3ee41588ac00000000"));
+        final Script witnessScript = new Script(Utils.HEX.decode("56210307b8ae49ac90a048e9b53357a2354b3334e9c8bee8"
+                + "13ecb98e99a7e07e8c3ba32103b28f0c28bfab54554ae8c658ac5c3e0ce6e79ad336331f78c428dd43eea8449b21034b8113d7"
+                + "03413d57761b8b9781957b8c0ac1dfe69f492580ca4195f50376ba4a21033400f6afecb833092a9a21cfdf1ed1376e58c5d1f4"
+                + "7de74683123987e967a8f42103a6d48b1131e94ba04d9737d61acdaa1322008af9602b3b14862c07a1789aac162102d8b661b0"
+                + "b3302ee2f162b09e07a55ad5dfbe673a9f01d9f0c19617681024306b56ae"));
+        final List<Coin> values = Arrays.asList(Coin.valueOf(987654321L));
+        final Sha256Hash hash = new WitnessSigHashEngine(tx, values).hashForSignature(0, witnessScript);
+        assertEquals("185c0be5263dce5b4bb50a047973c1b6272bfbd0103a89444597dc40b248ee7c", hash.toString());
+
+        final ECKey key = ECKey.fromPrivate(
+                Utils.HEX.decode("730fff80e1413068a05b57d6a58261f07551163369787f349438ea38ca80fac6"));
+        final TransactionSignature signature = BitcoinUtils.partiallySignWitness(tx, witnessScript, values, key).get(0);
+        assertEquals("304402206ac44d672dac41f9b00e28f4df20c52eeb087207e8d758d76d92c6fab3b73e2b0220367750dbbe1929"
+                + "0069cba53d096f44530e4f98acaa594810388cf7409a1870ce01", Utils.HEX.encode(signature.encodeToBitcoin()));
+    }
+
+    @Test
+    public void testValueIsSigned() {
+        final Script witnessScript = BitcoinUtils.createRedeemScript(2,
+                Arrays.asList(new ECKey(), new ECKey()));
+        final Transaction tx = createTx(2);
+        final List<Coin> values = values(2);
+        final Sha256Hash hash = new WitnessSigHashEngine(tx, values).hashForSignature(1, witnessScript);
+        values.set(1, values.get(1).add(Coin.SATOSHI));
+        assertNotEquals(hash, new WitnessSigHashEngine(tx, values).hashForSignature(1, witnessScript));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingValues() {
+        new WitnessSigHashEngine(createTx(3), values(2));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testInputOutOfRange() {
+        new WitnessSigHashEngine(createTx(1), values(1)).hashForSignature(1, new byte[0]);
+    }
+
+    private Transaction createTx(int nrInputs) {
+        final Transaction tx = new Transaction(params);
+        for (int i = 0; i < nrInputs; i++) {
+            tx.addInput(new TransactionInput(params, tx, new byte[0],
+                    new TransactionOutPoint(params, i, Sha256Hash.of(("tx" + i).getBytes()))));
+        }
+        tx.addOutput(Coin.COIN, new ECKey().toAddress(params));
+        tx.addOutput(Coin.CENT, new ECKey().toAddress(params));
+        return tx;
+    }
+
+    private static List<Coin> values(int nrInputs) {
+        final List<Coin> values = new ArrayList<Coin>();
+        for (int i = 0; i < nrInputs; i++) {
+            values.add(Coin.valueOf(100000 + i));
+        }
+        return values;
+    }
+
+    // the signature hash as specified in BIP 143, for SIGHASH_ALL
+    private static Sha256Hash bip143Hash(Transaction tx, int index, byte[] scriptCode, Coin value)
+            throws IOException {
+        final ByteArrayOutputStream prevouts = new ByteArrayOutputStream();
+        final ByteArrayOutputStream sequences = new ByteArrayOutputStream();
+        for (TransactionInput input : tx.getInputs()) {
+            prevouts.write(input.getOutpoint().bitcoinSerialize());
+            Utils.uint32ToByteStreamLE(input.getSequenceNumber(), sequences);
+        }
+        final ByteArrayOutputStream outputs = new ByteArrayOutputStream();
+        for (TransactionOutput output : tx.getOutputs()) {
+            outputs.write(output.bitcoinSerialize());
+        }
+        final TransactionInput input = tx.getInput(index);
+
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Utils.uint32ToByteStreamLE(tx.getVersion(), bos);
+        bos.write(Sha256Hash.hashTwice(prevouts.toByteArray()));
+        bos.write(Sha256Hash.hashTwice(sequences.toByteArray()));
+        bos.write(input.getOutpoint().bitcoinSerialize());
+        bos.write(new VarInt(scriptCode.length).encode());
+        bos.write(scriptCode);
+        Utils.int64ToByteStreamLE(value.value, bos);
+        Utils.uint32ToByteStreamLE(input.getSequenceNumber(), bos);
+        bos.write(Sha256Hash.hashTwice(outputs.toByteArray()));
+        Utils.uint32ToByteStreamLE(tx.getLockTime(), bos);
+        Utils.uint32ToByteStreamLE(Transaction.SigHash.ALL.value, bos);
+        return Sha256Hash.twiceOf(bos.toByteArray());
+    }
+}